@@ -0,0 +1,67 @@
+#!/usr/bin/env bash
+# Per-request cost of authentication on a running server: throughput of an authenticated endpoint
+# next to a public one, with a bearer access token or with a form login session cookie.
+#
+# Usage: docker/auth-benchmark.sh [requests] [concurrency]
+#   BASE      server root, default http://localhost:8081
+#   MODE      bearer (default) or session, for servers that still use form login; inprocess
+#             times the session and token filters alone from the test sources, without a server
+#   EMAIL     account to authenticate as, registered first if needed (default bench@soma.local)
+#   PASSWORD  its password (default bench-password)
+set -euo pipefail
+
+REQUESTS="${1:-5000}"
+CONCURRENCY="${2:-16}"
+BASE="${BASE:-http://localhost:8081}"
+MODE="${MODE:-bearer}"
+EMAIL="${EMAIL:-bench@soma.local}"
+PASSWORD="${PASSWORD:-bench-password}"
+PUBLIC=/soma/api/welcome
+
+if [ "$MODE" = "inprocess" ]; then
+    exec server/mvnw -q -f server/pom.xml test-compile spring-boot:test-run \
+        -Dspring-boot.run.main-class=com.soma.server.security.AuthBenchmark \
+        -Dspring-boot.run.arguments="${1:-2000000}"
+fi
+PROTECTED="/soma/api/home?id=bench"
+
+curl -s -o /dev/null -H 'Content-Type: application/json' \
+    -d "{\"username\":\"${EMAIL%%@*}\",\"email\":\"$EMAIL\",\"password\":\"$PASSWORD\"}" "$BASE/soma/api/register"
+
+AUTH=()
+if [ "$MODE" = "session" ]; then
+    jar=$(mktemp)
+    trap 'rm -f "$jar"' EXIT
+    curl -s -o /dev/null -c "$jar" --data-urlencode "username=$EMAIL" --data-urlencode "password=$PASSWORD" "$BASE/login"
+    AUTH=(-b "$jar")
+else
+    token=$(curl -s -H 'Content-Type: application/json' \
+        -d "{\"email\":\"$EMAIL\",\"password\":\"$PASSWORD\"}" "$BASE/soma/api/auth/token" \
+        | sed -n 's/.*"accessToken":"\([^"]*\)".*/\1/p')
+    AUTH=(-H "Authorization: Bearer $token")
+fi
+
+status=$(curl -s -o /dev/null -w '%{http_code}' "${AUTH[@]}" "$BASE$PROTECTED")
+if [ "$status" != "200" ]; then
+    echo "authenticated request answered $status, check the credentials and MODE" >&2
+    exit 1
+fi
+
+run() {
+    local start elapsed_ms
+    start=$(date +%s%N)
+    # each curl reuses one connection for a batch of 50 requests
+    seq "$REQUESTS" | sed "s|.*|$BASE$2|" | xargs -P "$CONCURRENCY" -n 50 \
+        curl -s "${@:3}" > /dev/null
+    elapsed_ms=$(( ($(date +%s%N) - start) / 1000000 ))
+    awk -v name="$1" -v n="$REQUESTS" -v ms="$elapsed_ms" -v c="$CONCURRENCY" 'BEGIN {
+        printf "%-14s %6d requests in %6d ms  %7.0f req/s  %6.2f ms/request\n", name, n, ms, n * 1000 / ms, ms * c / n
+    }'
+}
+
+# warm-up
+run warm-up "$PUBLIC" > /dev/null
+run warm-up "$PROTECTED" "${AUTH[@]}" > /dev/null
+
+run public "$PUBLIC"
+run "$MODE" "$PROTECTED" "${AUTH[@]}"
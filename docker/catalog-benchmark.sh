@@ -0,0 +1,15 @@
+#!/usr/bin/env bash
+# Footprint and lookup latency of the compact track catalog (heap, direct and mapped storage)
+# against a HashMap of the same matches. The benchmark lives in the test sources and runs on
+# the test classpath.
+#
+# Usage (from the repository root):
+#   docker/catalog-benchmark.sh [tracks]          # default 1000000
+set -euo pipefail
+
+TRACKS="${1:-1000000}"
+
+server/mvnw -q -f server/pom.xml test-compile spring-boot:test-run \
+    -Dspring-boot.run.main-class=com.soma.server.catalog.CatalogBenchmark \
+    -Dspring-boot.run.jvmArguments=-Xmx4g \
+    -Dspring-boot.run.arguments="$TRACKS"
@@ -0,0 +1,10 @@
+#!/bin/sh
+# Lets the read replicas of docker-compose.yml (profile "replica") stream WAL from this primary.
+# Runs only when the data volume is first initialized.
+set -e
+
+psql -v ON_ERROR_STOP=1 --username "$POSTGRES_USER" --dbname "$POSTGRES_DB" <<SQL
+CREATE ROLE replicator WITH REPLICATION LOGIN PASSWORD '${REPLICATION_PASSWORD:-replicator_password}';
+SQL
+
+echo "host replication replicator all scram-sha-256" >> "$PGDATA/pg_hba.conf"
@@ -0,0 +1,40 @@
+#!/usr/bin/env bash
+# Drives a running server with concurrent requests and reports request and log line throughput,
+# counted from the growth of the JSON log file. The async appender queue depth is published as the
+# soma.logging.queue metric.
+#
+# Usage: docker/log-load.sh [requests] [concurrency]
+#   BASE    server root, default http://localhost:8081
+#   LOG     log file of that server, default logs/soma_server.log
+#   TARGET  path to request, default /soma/api/login-with-spotify (public, no side effects)
+#   DEBUG   send X-Debug: true (needs soma.logging.debug-header-enabled=true on the server)
+set -euo pipefail
+
+REQUESTS="${1:-5000}"
+CONCURRENCY="${2:-32}"
+BASE="${BASE:-http://localhost:8081}"
+TARGET="${TARGET:-/soma/api/login-with-spotify}"
+LOG="${LOG:-logs/soma_server.log}"
+HEADERS=()
+if [ "${DEBUG:-false}" = "true" ]; then
+    HEADERS=(-H 'X-Debug: true')
+fi
+
+lines() {
+    wc -l < "$LOG"
+}
+
+before=$(lines)
+start=$(date +%s%N)
+# each curl reuses one connection for a batch of 50 requests
+seq "$REQUESTS" | sed "s|.*|$BASE$TARGET|" | xargs -P "$CONCURRENCY" -n 50 \
+    curl -s "${HEADERS[@]}" > /dev/null
+elapsed_ms=$(( ($(date +%s%N) - start) / 1000000 ))
+# give the appender thread a moment to drain its queue
+sleep 1
+after=$(lines)
+
+awk -v n="$REQUESTS" -v ms="$elapsed_ms" -v b="$before" -v a="$after" 'BEGIN {
+    printf "requests      %d in %d ms (%.0f req/s)\n", n, ms, n * 1000 / ms
+    printf "log lines     %d (%.1f per request, %.0f/s)\n", a - b, (a - b) / n, (a - b) * 1000 / ms
+}'
@@ -0,0 +1,29 @@
+#!/usr/bin/env bash
+# Accuracy and search-call cost of the Spotify track matcher on the labelled set in
+# docker/match-benchmark.tsv. Every row is searched, the match cache is not used.
+# The benchmark lives in the test sources and runs on the test classpath.
+#
+# Usage (from the repository root, with the compose Postgres running):
+#   SPOTIFY_USER_ID=<linked account> docker/match-benchmark.sh [labels.tsv]
+#
+# The account must be linked in the database (its tokens are used for the searches).
+# DB_URL, DB_USER and DB_PASSWORD point to that database.
+set -euo pipefail
+
+LABELS="$(realpath "${1:-docker/match-benchmark.tsv}")"
+DB_URL="${DB_URL:-jdbc:postgresql://localhost:5433/soma_db}"
+DB_USER="${DB_USER:-soma_user}"
+DB_PASSWORD="${DB_PASSWORD:-soma_password}"
+: "${SPOTIFY_USER_ID:?set SPOTIFY_USER_ID to a linked Spotify account}"
+
+server/mvnw -q -f server/pom.xml test-compile spring-boot:test-run \
+    -Dspring-boot.run.main-class=com.soma.server.service.MatchBenchmark \
+    -Dspring-boot.run.arguments="--spring.datasource.url=$DB_URL \
+        --spring.datasource.username=$DB_USER \
+        --spring.datasource.password=$DB_PASSWORD \
+        --spring.devtools.restart.enabled=false \
+        --soma.ingest.enabled=false \
+        --soma.queue.enabled=false \
+        --soma.matcher.benchmark.file=$LABELS \
+        --soma.matcher.benchmark.spotify-user-id=$SPOTIFY_USER_ID" \
+    | grep -E 'MatchBenchmark|ERROR'
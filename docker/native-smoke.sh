@@ -0,0 +1,94 @@
+#!/usr/bin/env bash
+# Smoke tests for the server build, run against the native executable and the JVM jar side by side.
+# Reports time-to-first-request and resident memory (RSS) of each after the checks.
+#
+# Usage (from the repository root, with the compose Postgres running):
+#   ./mvnw -f server/pom.xml -DskipTests package                      # JVM jar
+#   ./mvnw -f server/pom.xml -Pnative -DskipTests native:compile      # server/target/soma-server
+#   docker/native-smoke.sh
+#
+# DB_URL, DB_USER and DB_PASSWORD point to the database; it must be safe to register test users in it.
+set -uo pipefail
+
+PORT="${PORT:-18090}"
+DB_URL="${DB_URL:-jdbc:postgresql://localhost:5433/soma_db}"
+DB_USER="${DB_USER:-soma_user}"
+DB_PASSWORD="${DB_PASSWORD:-soma_password}"
+NATIVE="${NATIVE:-server/target/soma-server}"
+JAR="${JAR:-$(ls server/target/server-*.jar 2> /dev/null | grep -v plain | head -n 1)}"
+BASE="http://localhost:$PORT"
+
+failures=0
+results=()
+
+check() {
+    local name="$1" expected="$2" actual="$3"
+    if [ "$actual" = "$expected" ]; then
+        echo "  ok   $name"
+    else
+        echo "  FAIL $name: expected $expected, got $actual"
+        failures=$((failures + 1))
+    fi
+}
+
+status() {
+    curl -s -o /dev/null -w '%{http_code}' "$@"
+}
+
+smoke() {
+    local label="$1"
+    shift
+    echo "== $label: $*"
+
+    local start pid
+    start=$(date +%s%N)
+    "$@" --server.port="$PORT" \
+        --spring.profiles.active=prod \
+        --spring.datasource.url="$DB_URL" \
+        --spring.datasource.username="$DB_USER" \
+        --spring.datasource.password="$DB_PASSWORD" \
+        --soma.ingest.enabled=false > "/tmp/soma-smoke-$label.log" 2>&1 &
+    pid=$!
+
+    until [ "$(status "$BASE/actuator/health")" = "200" ]; do
+        if ! kill -0 "$pid" 2> /dev/null; then
+            echo "  FAIL $label exited during startup, see /tmp/soma-smoke-$label.log"
+            failures=$((failures + 1))
+            return
+        fi
+        sleep 0.02
+    done
+    local ready_ms=$(( ($(date +%s%N) - start) / 1000000 ))
+
+    local user="smoke$(date +%s%N)"
+    check "health is UP" '{"status":"UP"}' "$(curl -s "$BASE/actuator/health")"
+    check "register creates a user" "\"username\":\"$user\"" \
+        "$(curl -s -X POST -H 'Content-Type: application/json' \
+            -d "{\"username\":\"$user\",\"email\":\"$user@example.com\",\"password\":\"smoke-password\"}" \
+            "$BASE/soma/api/register" | grep -o "\"username\":\"$user\"")"
+    check "Spotify authorize URL is built" 1 \
+        "$(curl -s "$BASE/soma/api/login-with-spotify" | grep -c '^https://accounts.spotify.com[:0-9]*/authorize')"
+    check "stats require a session" 302 "$(status "$BASE/soma/api/1/stats/summary")"
+
+    local rss_kb
+    rss_kb=$(ps -o rss= -p "$pid" | tr -d ' ')
+    kill "$pid"
+    wait "$pid" 2> /dev/null
+    results+=("$(printf '%-8s %8d ms %8d MB' "$label" "$ready_ms" $((rss_kb / 1024)))")
+}
+
+if [ -x "$NATIVE" ]; then
+    smoke native "$NATIVE"
+else
+    echo "== native: $NATIVE not found, skipped"
+fi
+if [ -n "$JAR" ]; then
+    smoke jvm java -jar "$JAR"
+else
+    echo "== jvm: no jar in server/target, skipped"
+fi
+
+echo
+echo "build    first request      RSS"
+printf '%s\n' "${results[@]}"
+exit $((failures > 0))
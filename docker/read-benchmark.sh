@@ -0,0 +1,55 @@
+#!/usr/bin/env bash
+# Read throughput of the user lookup endpoints, and which database served the reads.
+# Run it against a server with and without soma.datasource.replica-urls to compare:
+#   docker compose --profile replica up -d
+#
+# Usage: docker/read-benchmark.sh [requests] [concurrency]
+#   BASE      server root, default http://localhost:8081
+#   EMAIL     account to look up and authenticate as, registered first if needed (default bench@soma.local)
+#   PASSWORD  its password (default bench-password)
+set -euo pipefail
+
+REQUESTS="${1:-20000}"
+CONCURRENCY="${2:-16}"
+BASE="${BASE:-http://localhost:8081}"
+EMAIL="${EMAIL:-bench@soma.local}"
+PASSWORD="${PASSWORD:-bench-password}"
+LOOKUP="/soma/api/users/by-email/$EMAIL"
+
+curl -s -o /dev/null -H 'Content-Type: application/json' \
+    -d "{\"username\":\"${EMAIL%%@*}\",\"email\":\"$EMAIL\",\"password\":\"$PASSWORD\"}" "$BASE/soma/api/register"
+token=$(curl -s -H 'Content-Type: application/json' \
+    -d "{\"email\":\"$EMAIL\",\"password\":\"$PASSWORD\"}" "$BASE/soma/api/auth/token" \
+    | sed -n 's/.*"accessToken":"\([^"]*\)".*/\1/p')
+AUTH=(-H "Authorization: Bearer $token")
+
+status=$(curl -s -o /dev/null -w '%{http_code}' "${AUTH[@]}" "$BASE$LOOKUP")
+if [ "$status" != "200" ]; then
+    echo "lookup answered $status, check the credentials" >&2
+    exit 1
+fi
+
+reads() {
+    curl -s "${AUTH[@]}" "$BASE/actuator/metrics/soma.datasource.reads?tag=target:$1" \
+        | sed -n 's/.*"value":\([0-9.E]*\).*/\1/p'
+}
+
+run() {
+    local start elapsed_ms
+    start=$(date +%s%N)
+    # each curl reuses one connection for a batch of 50 requests
+    seq "$REQUESTS" | sed "s|.*|$BASE$LOOKUP|" | xargs -P "$CONCURRENCY" -n 50 \
+        curl -s "${AUTH[@]}" > /dev/null
+    elapsed_ms=$(( ($(date +%s%N) - start) / 1000000 ))
+    awk -v name="$1" -v n="$REQUESTS" -v ms="$elapsed_ms" -v c="$CONCURRENCY" 'BEGIN {
+        printf "%-14s %6d requests in %6d ms  %7.0f req/s  %6.2f ms/request\n", name, n, ms, n * 1000 / ms, ms * c / n
+    }'
+}
+
+run warm-up > /dev/null
+replica_before=$(reads replica)
+primary_before=$(reads primary)
+run lookup
+awk -v r0="${replica_before:-0}" -v r1="$(reads replica)" -v p0="${primary_before:-0}" -v p1="$(reads primary)" 'BEGIN {
+    printf "read-only connections: %d from replicas, %d from the primary (fallback)\n", r1 - r0, p1 - p0
+}'
@@ -0,0 +1,50 @@
+#!/usr/bin/env bash
+# Time-to-first-request of the app image: from `docker run` until /actuator/health answers 200.
+#
+# Compares three startup modes of the same image:
+#   update    - docker profile as before: ddl-auto=update, eager beans, no CDS
+#   prod      - docker,prod profiles: Flyway + validate, lazy beans, no CDS
+#   prod-cds  - docker,prod profiles with the AppCDS archive built into the image
+#
+# Usage (from the repository root, with the compose Postgres running):
+#   ./mvnw -f server/pom.xml -DskipTests package
+#   docker build -f docker/Dockerfile -t soma-server .
+#   docker compose -f docker/docker-compose.yml up -d postgres
+#   docker/startup-benchmark.sh [runs]
+set -euo pipefail
+
+RUNS="${1:-5}"
+IMAGE="${IMAGE:-soma-server}"
+NETWORK="${NETWORK:-docker_soma_network}"
+PORT="${PORT:-18080}"
+
+run_mode() {
+    local mode="$1" profiles="$2" ddl="$3" share="$4"
+    local total=0
+    for run in $(seq 1 "$RUNS"); do
+        local start end container
+        start=$(date +%s%N)
+        container=$(docker run -d --rm --network "$NETWORK" -p "$PORT:8080" \
+            -e SPRING_PROFILES_ACTIVE="$profiles" \
+            -e SPRING_JPA_HIBERNATE_DDL_AUTO="$ddl" \
+            -e SOMA_INGEST_ENABLED=false \
+            --entrypoint java "$IMAGE" $share -jar /app/app.jar)
+        until [ "$(curl -s -o /dev/null -w '%{http_code}' "http://localhost:$PORT/actuator/health")" = "200" ]; do
+            if ! docker inspect "$container" > /dev/null 2>&1; then
+                echo "$mode: container exited before answering" >&2
+                exit 1
+            fi
+            sleep 0.05
+        done
+        end=$(date +%s%N)
+        docker stop "$container" > /dev/null
+        local ms=$(( (end - start) / 1000000 ))
+        total=$(( total + ms ))
+        echo "$mode run $run: ${ms} ms"
+    done
+    echo "$mode average: $(( total / RUNS )) ms"
+}
+
+run_mode update   docker      update   "-Xshare:off"
+run_mode prod     docker,prod validate "-Xshare:off"
+run_mode prod-cds docker,prod validate "-XX:SharedArchiveFile=/app/app.jsa -Xshare:auto"
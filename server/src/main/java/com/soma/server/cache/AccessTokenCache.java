@@ -0,0 +1,38 @@
+package com.soma.server.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Current Spotify access token per account, keyed by Spotify user id. A token refreshed on one
+ * node is picked up by every other node instead of each of them refreshing it again.
+ */
+@Component
+public class AccessTokenCache {
+
+    private final NearCache cache;
+    private final Duration ttl;
+
+    public AccessTokenCache(SharedCacheStore store,
+                            @Value("${soma.cache.tokens.local-size:10000}") long localSize,
+                            @Value("${soma.cache.tokens.local-ttl:PT1M}") Duration localTtl,
+                            // Spotify access tokens are valid for one hour
+                            @Value("${soma.cache.tokens.ttl:PT55M}") Duration ttl) {
+        this.cache = new NearCache("token", store, localSize, localTtl);
+        this.ttl = ttl;
+    }
+
+    public String get(String spotifyUserId) {
+        return cache.get(spotifyUserId);
+    }
+
+    public void put(String spotifyUserId, String accessToken) {
+        cache.put(spotifyUserId, accessToken, ttl);
+    }
+
+    public void evict(String spotifyUserId) {
+        cache.evict(spotifyUserId);
+    }
+}
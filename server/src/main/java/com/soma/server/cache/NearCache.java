@@ -0,0 +1,136 @@
+package com.soma.server.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Two-tier cache: a small in-process Caffeine cache in front of a {@link SharedCacheStore}.
+ * <p>
+ * Reads hit the local tier first and fall back to the shared store, so a value resolved on one
+ * node is reused by every other node. Writes and evictions are broadcast on the cache's
+ * invalidation channel; other nodes drop their local copy and re-read the shared one on next use.
+ * The local TTL is kept short so a missed message only leaves a stale entry for that long.
+ */
+public class NearCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(NearCache.class);
+
+    // tells this node's own messages apart from other nodes'
+    private static final String NODE = UUID.randomUUID().toString();
+
+    private final String name;
+    private final SharedCacheStore store;
+    private final Cache<String, String> local;
+    private final String channel;
+
+    public NearCache(String name, SharedCacheStore store, long localMaximumSize, Duration localTtl) {
+        this.name = name;
+        this.store = store;
+        this.local = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(localTtl)
+                .build();
+        this.channel = "soma:invalidate:" + name;
+        store.subscribe(channel, this::onInvalidation);
+    }
+
+    public String get(String key) {
+        String value = local.getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        try {
+            value = store.get(sharedKey(key));
+        } catch (RuntimeException e) {
+            logger.warn("Shared cache {} unavailable: {}", name, e.getMessage());
+            return null;
+        }
+        if (value != null) {
+            local.put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Looks up many keys; keys missing locally are fetched from the shared store in one request.
+     *
+     * @return the keys that were found, with their values
+     */
+    public Map<String, String> getAll(Collection<String> keys) {
+        Map<String, String> found = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String key : keys) {
+            String value = local.getIfPresent(key);
+            if (value != null) {
+                found.put(key, value);
+            } else {
+                misses.add(key);
+            }
+        }
+        if (misses.isEmpty()) {
+            return found;
+        }
+
+        List<String> sharedKeys = new ArrayList<>(misses.size());
+        for (String key : misses) {
+            sharedKeys.add(sharedKey(key));
+        }
+        List<String> values;
+        try {
+            values = store.multiGet(sharedKeys);
+        } catch (RuntimeException e) {
+            logger.warn("Shared cache {} unavailable: {}", name, e.getMessage());
+            return found;
+        }
+        for (int i = 0; i < misses.size(); i++) {
+            String value = values.get(i);
+            if (value != null) {
+                local.put(misses.get(i), value);
+                found.put(misses.get(i), value);
+            }
+        }
+        return found;
+    }
+
+    public void put(String key, String value, Duration ttl) {
+        local.put(key, value);
+        try {
+            store.set(sharedKey(key), value, ttl);
+            store.publish(channel, NODE + ' ' + key);
+        } catch (RuntimeException e) {
+            logger.warn("Shared cache {} unavailable: {}", name, e.getMessage());
+        }
+    }
+
+    public void evict(String key) {
+        local.invalidate(key);
+        try {
+            store.delete(sharedKey(key));
+            store.publish(channel, NODE + ' ' + key);
+        } catch (RuntimeException e) {
+            logger.warn("Shared cache {} unavailable: {}", name, e.getMessage());
+        }
+    }
+
+    private void onInvalidation(String message) {
+        int separator = message.indexOf(' ');
+        if (separator < 0 || message.startsWith(NODE + ' ')) {
+            return;
+        }
+        local.invalidate(message.substring(separator + 1));
+    }
+
+    private String sharedKey(String key) {
+        return "soma:" + name + ':' + key;
+    }
+}
@@ -0,0 +1,54 @@
+package com.soma.server.cache;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Item URIs of Spotify playlists, keyed by playlist id and valid for one {@code snapshot_id}.
+ * <p>
+ * Spotify gives a playlist a new snapshot id whenever its items change, so a cached entry is
+ * current exactly as long as its snapshot id is the playlist's. A cached value is the snapshot id
+ * followed by the URIs, one per line.
+ */
+@Component
+public class PlaylistContentCache {
+
+    private final NearCache cache;
+    private final Duration ttl;
+
+    public PlaylistContentCache(SharedCacheStore store,
+                                @Value("${soma.cache.playlists.local-size:1000}") long localSize,
+                                @Value("${soma.cache.playlists.local-ttl:PT10M}") Duration localTtl,
+                                @Value("${soma.cache.playlists.ttl:P7D}") Duration ttl) {
+        this.cache = new NearCache("playlist", store, localSize, localTtl);
+        this.ttl = ttl;
+    }
+
+    /**
+     * @return the item URIs in playlist order, {@code null} if the snapshot is not cached
+     */
+    public List<String> get(String playlistId, String snapshotId) {
+        String value = cache.get(playlistId);
+        if (value == null) {
+            return null;
+        }
+        int end = value.indexOf('\n');
+        String cachedSnapshot = end < 0 ? value : value.substring(0, end);
+        if (!cachedSnapshot.equals(snapshotId)) {
+            return null;
+        }
+        return end < 0 ? List.of() : Arrays.asList(value.substring(end + 1).split("\n"));
+    }
+
+    public void put(String playlistId, String snapshotId, List<String> uris) {
+        StringBuilder value = new StringBuilder(snapshotId.length() + uris.size() * 40).append(snapshotId);
+        for (String uri : uris) {
+            value.append('\n').append(uri);
+        }
+        cache.put(playlistId, value.toString(), ttl);
+    }
+}
@@ -0,0 +1,32 @@
+package com.soma.server.cache;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Key-value store shared by all app instances, plus a broadcast channel used to tell other
+ * instances to drop entries from their near-caches.
+ * <p>
+ * Implementations: {@link RedisCacheStore} when {@code soma.cache.store=redis}, otherwise
+ * {@link LocalCacheStore}, an in-process stand-in for single-node runs.
+ */
+public interface SharedCacheStore {
+
+    String get(String key);
+
+    /**
+     * Looks up all keys in one round trip.
+     *
+     * @return values in key order, {@code null} for missing keys
+     */
+    List<String> multiGet(List<String> keys);
+
+    void set(String key, String value, Duration ttl);
+
+    void delete(String key);
+
+    void publish(String channel, String message);
+
+    void subscribe(String channel, Consumer<String> listener);
+}
@@ -0,0 +1,140 @@
+package com.soma.server.cache;
+
+import com.soma.server.catalog.TrackCatalog;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Resolved Yandex to Spotify track matches, keyed by {@code TransferService.trackKey}.
+ * Tracks Spotify has no match for are cached too, for a shorter time.
+ * <p>
+ * A cached match is the Spotify URI followed by a space and the match confidence. Entries
+ * written before confidences were recorded hold the URI only.
+ * <p>
+ * When a {@link TrackCatalog} is configured it keeps the matches resolved on this node and answers
+ * for tracks that neither the near-cache nor the shared store has, once the shared entry expired or
+ * was evicted, or while the store is down. It is read last because its entries are never
+ * invalidated: a match replaced on another node is only seen through the near-cache. It holds
+ * matched tracks only; misses expire, so they stay in the near-cache.
+ */
+@Component
+public class TrackMatchCache {
+
+    /**
+     * Cached value of a track that has no Spotify match.
+     */
+    public static final String NO_MATCH = "";
+
+    private static final String TRACK_URI_PREFIX = "spotify:track:";
+
+    private final NearCache cache;
+    private final TrackCatalog catalog;
+    private final Duration ttl;
+    private final Duration noMatchTtl;
+
+    public TrackMatchCache(SharedCacheStore store, ObjectProvider<TrackCatalog> catalog,
+                           @Value("${soma.cache.matches.local-size:50000}") long localSize,
+                           @Value("${soma.cache.matches.local-ttl:PT10M}") Duration localTtl,
+                           @Value("${soma.cache.matches.ttl:P7D}") Duration ttl,
+                           @Value("${soma.cache.matches.no-match-ttl:PT12H}") Duration noMatchTtl) {
+        this.cache = new NearCache("match", store, localSize, localTtl);
+        this.catalog = catalog.getIfAvailable();
+        this.ttl = ttl;
+        this.noMatchTtl = noMatchTtl;
+    }
+
+    /**
+     * @return the cached value, {@link #NO_MATCH}, or {@code null} if the track was never resolved;
+     * see {@link #uri(String)} and {@link #confidence(String)}
+     */
+    public String get(String trackKey) {
+        String value = cache.get(trackKey);
+        return value != null ? value : fromCatalog(trackKey);
+    }
+
+    /**
+     * @return cached results for the keys that have one, see {@link #get(String)}
+     */
+    public Map<String, String> getAll(Collection<String> trackKeys) {
+        Map<String, String> values = cache.getAll(trackKeys);
+        if (catalog == null || values.size() == trackKeys.size()) {
+            return values;
+        }
+        for (String key : trackKeys) {
+            if (!values.containsKey(key)) {
+                String value = fromCatalog(key);
+                if (value != null) {
+                    values.put(key, value);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @param uri        the Spotify URI, or {@code null} if the search found nothing
+     * @param confidence how well the Spotify track matches the source track, 0 to 1
+     */
+    public void put(String trackKey, String uri, double confidence) {
+        if (uri == null) {
+            cache.put(trackKey, NO_MATCH, noMatchTtl);
+        } else {
+            String value = uri + ' ' + String.format(Locale.ROOT, "%.3f", confidence);
+            cache.put(trackKey, value, ttl);
+            toCatalog(trackKey, value);
+        }
+    }
+
+    /**
+     * @return the Spotify URI of a cached value, {@code null} for {@link #NO_MATCH}
+     */
+    public static String uri(String value) {
+        if (NO_MATCH.equals(value)) {
+            return null;
+        }
+        int space = value.indexOf(' ');
+        return space < 0 ? value : value.substring(0, space);
+    }
+
+    /**
+     * @return the confidence of a cached value, {@code NaN} if it was not recorded
+     */
+    public static double confidence(String value) {
+        if (NO_MATCH.equals(value)) {
+            return 0;
+        }
+        int space = value.indexOf(' ');
+        return space < 0 ? Double.NaN : Double.parseDouble(value.substring(space + 1));
+    }
+
+    private String fromCatalog(String trackKey) {
+        int separator = trackKey.indexOf('\u0000');
+        if (catalog == null || separator < 0) {
+            return null;
+        }
+        TrackCatalog.Match match = catalog.get(trackKey.substring(0, separator), trackKey.substring(separator + 1));
+        if (match == null) {
+            return null;
+        }
+        String uri = TRACK_URI_PREFIX + match.spotifyId();
+        return Double.isNaN(match.confidence())
+                ? uri
+                : uri + ' ' + String.format(Locale.ROOT, "%.3f", match.confidence());
+    }
+
+    private void toCatalog(String trackKey, String value) {
+        int separator = trackKey.indexOf('\u0000');
+        String uri = uri(value);
+        if (catalog == null || separator < 0 || uri == null || !uri.startsWith(TRACK_URI_PREFIX)) {
+            return;
+        }
+        catalog.put(trackKey.substring(0, separator), trackKey.substring(separator + 1),
+                uri.substring(TRACK_URI_PREFIX.length()), confidence(value));
+    }
+}
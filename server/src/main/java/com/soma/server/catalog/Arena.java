@@ -0,0 +1,152 @@
+package com.soma.server.catalog;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only byte region that grows by doubling. Kept on the heap, in direct memory, or in a
+ * memory-mapped file whose first 8 bytes hold the number of bytes in use, so the content
+ * survives a restart.
+ * <p>
+ * Reads use absolute positions only and may run concurrently; writes must be serialized by the caller.
+ */
+final class Arena {
+
+    private static final int HEADER = Long.BYTES;
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private final TrackCatalog.Storage storage;
+    private final FileChannel channel;
+    private ByteBuffer buffer;
+    private int used;
+
+    Arena(TrackCatalog.Storage storage, Path file) {
+        this.storage = storage;
+        if (storage == TrackCatalog.Storage.MAPPED) {
+            try {
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                long size = Math.max(channel.size(), INITIAL_CAPACITY);
+                buffer = map(size);
+                used = (int) Math.max(buffer.getLong(0), 0);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot map " + file, e);
+            }
+        } else {
+            channel = null;
+            buffer = allocate(INITIAL_CAPACITY);
+        }
+    }
+
+    /**
+     * @return bytes in use
+     */
+    int size() {
+        return used;
+    }
+
+    long capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Makes room for {@code bytes} more bytes and returns the offset to write them at.
+     */
+    int reserve(int bytes) {
+        long needed = (long) HEADER + used + bytes;
+        if (needed > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Catalog arena is full");
+        }
+        if (needed > buffer.capacity()) {
+            grow(needed);
+        }
+        int offset = used;
+        used += bytes;
+        return offset;
+    }
+
+    /**
+     * Publishes the bytes reserved so far, for a mapped arena to find them after a restart.
+     */
+    void commit() {
+        if (channel != null) {
+            buffer.putLong(0, used);
+        }
+    }
+
+    byte get(int offset) {
+        return buffer.get(HEADER + offset);
+    }
+
+    short getShort(int offset) {
+        return buffer.getShort(HEADER + offset);
+    }
+
+    int getInt(int offset) {
+        return buffer.getInt(HEADER + offset);
+    }
+
+    void get(int offset, byte[] dst) {
+        buffer.get(HEADER + offset, dst);
+    }
+
+    boolean equalsAt(int offset, byte[] bytes) {
+        return buffer.slice(HEADER + offset, bytes.length).mismatch(ByteBuffer.wrap(bytes)) < 0;
+    }
+
+    void putShort(int offset, short value) {
+        buffer.putShort(HEADER + offset, value);
+    }
+
+    void putInt(int offset, int value) {
+        buffer.putInt(HEADER + offset, value);
+    }
+
+    void put(int offset, byte[] src) {
+        buffer.put(HEADER + offset, src);
+    }
+
+    void close() {
+        if (channel != null) {
+            commit();
+            ((MappedByteBuffer) buffer).force();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void grow(long needed) {
+        long capacity = buffer.capacity();
+        while (capacity < needed) {
+            capacity = Math.min(capacity * 2, Integer.MAX_VALUE);
+        }
+        if (channel != null) {
+            try {
+                // the old mapping is released once it is garbage collected
+                buffer = map(capacity);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot grow catalog file", e);
+            }
+            return;
+        }
+        ByteBuffer grown = allocate((int) capacity);
+        grown.put(0, buffer, 0, HEADER + used);
+        buffer = grown;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return storage == TrackCatalog.Storage.DIRECT ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private MappedByteBuffer map(long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+}
@@ -0,0 +1,138 @@
+package com.soma.server.catalog;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Assigns dense int ids to strings. Each distinct string is stored once, as UTF-8 behind its
+ * length in an {@link Arena}. The lookup table is an open-addressing {@code long} array with
+ * linear probing; each slot holds the string's hash next to its id, so a probe only touches the
+ * arena when the hashes are equal.
+ * <p>
+ * Not thread-safe, {@link TrackCatalog} guards it.
+ */
+final class StringDictionary {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private final Arena arena;
+    private int[] offsets = new int[1024];
+    private int size;
+    // hash in the high half, id + 1 in the low half, 0 for a free slot
+    private long[] slots = new long[2048];
+
+    StringDictionary(Arena arena) {
+        this.arena = arena;
+        // a mapped arena comes back with the strings of an earlier run
+        int offset = 0;
+        while (offset < arena.size()) {
+            int length = arena.getInt(offset);
+            byte[] bytes = new byte[length];
+            arena.get(offset + Integer.BYTES, bytes);
+            index(offset, hash(bytes));
+            offset += Integer.BYTES + length;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the id of the string, or -1 if it was never added
+     */
+    int find(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return find(bytes, hash(bytes));
+    }
+
+    /**
+     * @return the id of the string, added if needed
+     */
+    int intern(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int hash = hash(bytes);
+        int id = find(bytes, hash);
+        if (id >= 0) {
+            return id;
+        }
+        int offset = arena.reserve(Integer.BYTES + bytes.length);
+        arena.putInt(offset, bytes.length);
+        arena.put(offset + Integer.BYTES, bytes);
+        arena.commit();
+        return index(offset, hash);
+    }
+
+    String get(int id) {
+        int offset = offsets[id];
+        byte[] bytes = new byte[arena.getInt(offset)];
+        arena.get(offset + Integer.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return bytes held on the heap by the lookup structures, the arena not included
+     */
+    long indexBytes() {
+        return 4L * offsets.length + 8L * slots.length;
+    }
+
+    private int find(byte[] bytes, int hash) {
+        int mask = slots.length - 1;
+        for (int slot = hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            long entry = slots[slot];
+            if ((int) (entry >>> 32) == hash) {
+                int id = (int) entry - 1;
+                int offset = offsets[id];
+                if (arena.getInt(offset) == bytes.length && arena.equalsAt(offset + Integer.BYTES, bytes)) {
+                    return id;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private int index(int offset, int hash) {
+        if (size == offsets.length) {
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        if (size + 1 > slots.length * LOAD_FACTOR) {
+            rehash(slots.length * 2);
+        }
+        int id = size++;
+        offsets[id] = offset;
+        insert(slots, ((long) hash << 32) | (id + 1));
+        return id;
+    }
+
+    private static void insert(long[] table, long entry) {
+        int mask = table.length - 1;
+        int slot = (int) (entry >>> 32) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry;
+    }
+
+    private void rehash(int capacity) {
+        long[] table = new long[capacity];
+        for (long entry : slots) {
+            if (entry != 0) {
+                insert(table, entry);
+            }
+        }
+        slots = table;
+    }
+
+    // FNV-1a with a final avalanche, the low bits pick the slot
+    static int hash(byte[] bytes) {
+        int h = 0x811c9dc5;
+        for (byte b : bytes) {
+            h = (h ^ b) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return h;
+    }
+}
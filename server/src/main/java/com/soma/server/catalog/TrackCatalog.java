@@ -0,0 +1,233 @@
+package com.soma.server.catalog;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Compact map from a source track (artists, title) to its Spotify track id and match confidence,
+ * sized for millions of entries.
+ * <p>
+ * Artist and title strings are dictionary-encoded to int ids, so an artist with a thousand
+ * tracks is stored once; the pair of ids forms a {@code long} key in a primitive open-addressing
+ * map pointing at a fixed 32-byte record. Nothing is allocated per entry on the Java heap apart
+ * from the index arrays. Strings and records live in {@link Storage heap, direct or memory-mapped}
+ * arenas; a mapped catalog reloads its entries after a restart.
+ * <p>
+ * Entries are never removed. Once {@code maxTracks} entries are stored, new tracks are not added.
+ */
+public class TrackCatalog implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TrackCatalog.class);
+
+    // artist id, title id, confidence in thousandths (-1 unknown), base62 Spotify id
+    private static final int RECORD = 32;
+    private static final int ID_LENGTH = 22;
+    private static final int ARTIST = 0;
+    private static final int TITLE = 4;
+    private static final int CONFIDENCE = 8;
+    private static final int SPOTIFY_ID = 10;
+
+    public enum Storage {
+        HEAP, DIRECT, MAPPED
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private final int maxTracks;
+    private final Storage storage;
+    private final Arena strings;
+    private final Arena records;
+    private final StringDictionary dictionary;
+    private final LongIntHashMap index;
+    private boolean full;
+
+    /**
+     * @param directory where a {@link Storage#MAPPED} catalog keeps its files, unused otherwise
+     */
+    public TrackCatalog(Storage storage, Path directory, int maxTracks) {
+        this.storage = storage;
+        this.maxTracks = maxTracks;
+        if (storage == Storage.MAPPED) {
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot create catalog directory " + directory, e);
+            }
+        }
+        this.strings = new Arena(storage, storage == Storage.MAPPED ? directory.resolve("strings.bin") : null);
+        this.records = new Arena(storage, storage == Storage.MAPPED ? directory.resolve("tracks.bin") : null);
+        this.dictionary = new StringDictionary(strings);
+        this.index = new LongIntHashMap(records.size() / RECORD);
+        for (int offset = 0; offset < records.size(); offset += RECORD) {
+            index.put(key(records.getInt(offset + ARTIST), records.getInt(offset + TITLE)), offset / RECORD);
+        }
+        if (index.size() > 0) {
+            logger.info("Track catalog loaded {} tracks, {} strings from {}", index.size(), dictionary.size(), directory);
+        }
+    }
+
+    /**
+     * @return the match, or {@code null} if the track is not in the catalog
+     */
+    public Match get(String artists, String title) {
+        // lookups run without locking and are retried under the read lock if a write overlapped
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                Match match = find(artists, title);
+                if (lock.validate(stamp)) {
+                    return match;
+                }
+            } catch (RuntimeException e) {
+                // read a half-resized table, the stamp is invalid
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return find(artists, title);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private Match find(String artists, String title) {
+        int artist = dictionary.find(artists);
+        if (artist < 0) {
+            return null;
+        }
+        int titleId = dictionary.find(title);
+        if (titleId < 0) {
+            return null;
+        }
+        int record = index.get(key(artist, titleId));
+        if (record < 0) {
+            return null;
+        }
+        int offset = record * RECORD;
+        byte[] id = new byte[ID_LENGTH];
+        records.get(offset + SPOTIFY_ID, id);
+        short confidence = records.getShort(offset + CONFIDENCE);
+        return new Match(new String(id, StandardCharsets.US_ASCII), confidence < 0 ? Double.NaN : confidence / 1000.0);
+    }
+
+    /**
+     * Adds or replaces a track.
+     *
+     * @param spotifyId  22-character base62 Spotify track id
+     * @param confidence 0 to 1, {@code NaN} if unknown
+     * @return {@code false} if the id is malformed or the catalog is full
+     */
+    public boolean put(String artists, String title, String spotifyId, double confidence) {
+        if (!isSpotifyId(spotifyId)) {
+            return false;
+        }
+        short encoded = Double.isNaN(confidence) ? -1 : (short) Math.round(Math.max(0, Math.min(1, confidence)) * 1000);
+        long stamp = lock.writeLock();
+        try {
+            int artist = dictionary.find(artists);
+            int titleId = dictionary.find(title);
+            int record = artist >= 0 && titleId >= 0 ? index.get(key(artist, titleId)) : -1;
+            if (record < 0) {
+                if (index.size() >= maxTracks) {
+                    if (!full) {
+                        full = true;
+                        logger.warn("Track catalog is full at {} tracks, new tracks are not added", maxTracks);
+                    }
+                    return false;
+                }
+                artist = dictionary.intern(artists);
+                titleId = dictionary.intern(title);
+                int offset = records.reserve(RECORD);
+                records.putInt(offset + ARTIST, artist);
+                records.putInt(offset + TITLE, titleId);
+                record = offset / RECORD;
+                index.put(key(artist, titleId), record);
+            }
+            int offset = record * RECORD;
+            records.putShort(offset + CONFIDENCE, encoded);
+            records.put(offset + SPOTIFY_ID, spotifyId.getBytes(StandardCharsets.US_ASCII));
+            records.commit();
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        long stamp = lock.readLock();
+        try {
+            return index.size();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public Storage storage() {
+        return storage;
+    }
+
+    /**
+     * @return bytes on the Java heap: the index arrays, plus the arenas of a {@link Storage#HEAP} catalog
+     */
+    public long heapBytes() {
+        long stamp = lock.readLock();
+        try {
+            long arenas = storage == Storage.HEAP ? strings.capacity() + records.capacity() : 0;
+            return dictionary.indexBytes() + index.bytes() + arenas;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return bytes in direct memory or mapped files, 0 for a {@link Storage#HEAP} catalog
+     */
+    public long offHeapBytes() {
+        long stamp = lock.readLock();
+        try {
+            return storage == Storage.HEAP ? 0 : strings.capacity() + records.capacity();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void close() {
+        long stamp = lock.writeLock();
+        try {
+            strings.close();
+            records.close();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private static long key(int artist, int title) {
+        return ((long) artist << 32) | (title & 0xFFFFFFFFL);
+    }
+
+    private static boolean isSpotifyId(String id) {
+        if (id == null || id.length() != ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < ID_LENGTH; i++) {
+            char c = id.charAt(i);
+            if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param confidence 0 to 1, {@code NaN} if unknown
+     */
+    public record Match(String spotifyId, double confidence) {
+    }
+}
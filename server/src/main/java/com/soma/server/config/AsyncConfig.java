@@ -0,0 +1,21 @@
+package com.soma.server.config;
+
+import com.soma.server.logging.MdcPropagation;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.TaskDecorator;
+
+/**
+ * Carries the request's MDC into the application task executor, which runs streamed responses
+ * (match previews, result exports) for Spring MVC. Their log lines, and the API telemetry recorded
+ * while they run, keep the request's correlation id.
+ */
+@Configuration
+public class AsyncConfig {
+
+    // picked up by the auto-configured applicationTaskExecutor
+    @Bean
+    TaskDecorator mdcTaskDecorator() {
+        return MdcPropagation::wrap;
+    }
+}
@@ -0,0 +1,60 @@
+package com.soma.server.config;
+
+import com.soma.server.cache.LocalCacheStore;
+import com.soma.server.cache.RedisCacheStore;
+import com.soma.server.cache.SharedCacheStore;
+import com.soma.server.catalog.TrackCatalog;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.file.Path;
+
+/**
+ * Chooses the shared tier of the near-caches: Redis with {@code soma.cache.store=redis},
+ * otherwise an in-process stand-in. Also sets up the {@link TrackCatalog} fallback tier of the
+ * match cache, unless {@code soma.catalog.enabled=false}.
+ */
+@Configuration
+public class CacheConfig {
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "soma.catalog.enabled", havingValue = "true", matchIfMissing = true)
+    TrackCatalog trackCatalog(@Value("${soma.catalog.storage:heap}") TrackCatalog.Storage storage,
+                              @Value("${soma.catalog.directory:./data/catalog}") Path directory,
+                              @Value("${soma.catalog.max-tracks:2000000}") int maxTracks) {
+        return new TrackCatalog(storage, directory, maxTracks);
+    }
+
+    @Configuration
+    @ConditionalOnProperty(name = "soma.cache.store", havingValue = "redis")
+    static class Redis {
+
+        @Bean
+        RedisMessageListenerContainer cacheListenerContainer(RedisConnectionFactory connectionFactory) {
+            RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+            container.setConnectionFactory(connectionFactory);
+            return container;
+        }
+
+        @Bean
+        SharedCacheStore sharedCacheStore(StringRedisTemplate redisTemplate,
+                                          RedisMessageListenerContainer cacheListenerContainer) {
+            return new RedisCacheStore(redisTemplate, cacheListenerContainer);
+        }
+    }
+
+    @Configuration
+    @ConditionalOnProperty(name = "soma.cache.store", havingValue = "local", matchIfMissing = true)
+    static class Local {
+
+        @Bean
+        SharedCacheStore sharedCacheStore(@Value("${soma.cache.local.maximum-size:200000}") long maximumSize) {
+            return new LocalCacheStore(maximumSize);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.soma.server.config;
+
+import com.soma.server.datasource.ReplicaDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends read-only transactions to the read replicas in {@code soma.datasource.replica-urls} and
+ * everything else to the primary in {@code spring.datasource.url}.
+ * <p>
+ * Connections are taken lazily, once the transaction is known to be read-only, which is the case
+ * for {@code @Transactional(readOnly = true)} services and for the finder methods the Spring Data
+ * repositories inherit, unless a repository redeclares them. Writes, and reads outside a
+ * transaction, use the primary. Without replicas
+ * every connection comes from the primary. Each database has its own Hikari pool, configured by
+ * {@code spring.datasource.hikari.*} and reporting the {@code hikaricp.*} metrics under its pool
+ * name. Replica pools are read-only, sized by {@code soma.datasource.replica-pool-size} and give up
+ * on a connection after {@code soma.datasource.replica-connection-timeout}.
+ */
+@Configuration
+public class DataSourceConfig {
+
+    @Bean
+    RoutingDataSource dataSource(DataSourceProperties properties, Environment environment, MeterRegistry meterRegistry,
+                                 @Value("${soma.datasource.replica-urls:}") List<String> replicaUrls,
+                                 @Value("${soma.datasource.replica-pool-size:10}") int replicaPoolSize,
+                                 @Value("${soma.datasource.replica-connection-timeout:PT1S}") Duration replicaConnectionTimeout,
+                                 @Value("${soma.datasource.replica-max-lag:PT5S}") Duration maxLag,
+                                 @Value("${soma.datasource.replica-check-interval:PT2S}") Duration checkInterval) {
+        MicrometerMetricsTrackerFactory metrics = new MicrometerMetricsTrackerFactory(meterRegistry);
+        HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(primary));
+        if (!StringUtils.hasText(primary.getPoolName())) {
+            primary.setPoolName("primary");
+        }
+        primary.setMetricsTrackerFactory(metrics);
+
+        List<HikariDataSource> replicas = new ArrayList<>();
+        for (String url : replicaUrls) {
+            if (url.isBlank()) {
+                continue;
+            }
+            HikariConfig config = new HikariConfig();
+            primary.copyStateTo(config);
+            config.setJdbcUrl(url.trim());
+            config.setPoolName("replica-" + (replicas.size() + 1));
+            config.setMaximumPoolSize(replicaPoolSize);
+            if (config.getMinimumIdle() > replicaPoolSize) {
+                config.setMinimumIdle(replicaPoolSize);
+            }
+            config.setReadOnly(true);
+            // fall back to the primary quickly rather than wait for a replica that went away
+            config.setConnectionTimeout(replicaConnectionTimeout.toMillis());
+            // a replica that is down at startup is skipped by the lag checks, not fatal
+            config.setInitializationFailTimeout(-1);
+            config.setMetricsTrackerFactory(metrics);
+            replicas.add(new HikariDataSource(config));
+        }
+        ReplicaDataSource replicaDataSource = null;
+        if (!replicas.isEmpty()) {
+            replicaDataSource = new ReplicaDataSource(primary, replicas, maxLag, checkInterval, meterRegistry);
+            replicaDataSource.start();
+        }
+        return new RoutingDataSource(primary, replicaDataSource);
+    }
+
+    /**
+     * The application's data source; closes the pools with the context.
+     */
+    static class RoutingDataSource extends LazyConnectionDataSourceProxy implements DisposableBean {
+
+        private final HikariDataSource primary;
+        private final ReplicaDataSource replicas;
+
+        RoutingDataSource(HikariDataSource primary, ReplicaDataSource replicas) {
+            super(primary);
+            this.primary = primary;
+            this.replicas = replicas;
+            if (replicas != null) {
+                setReadOnlyDataSource(replicas);
+            }
+        }
+
+        @Override
+        public void destroy() {
+            if (replicas != null) {
+                replicas.close();
+            }
+            primary.close();
+        }
+    }
+}
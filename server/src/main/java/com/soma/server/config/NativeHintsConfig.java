@@ -0,0 +1,91 @@
+package com.soma.server.config;
+
+import com.soma.server.repository.ListeningRollupRepository;
+import com.soma.server.repository.TelemetryRepository;
+import com.soma.server.security.TokenService;
+import com.soma.server.service.BulkTransferProgress;
+import com.soma.server.service.BulkTransferService;
+import com.soma.server.service.MatchPreviewService;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.aot.hint.annotation.RegisterReflectionForBinding;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Reachability metadata for the native image (see the {@code native} Maven profile).
+ * <p>
+ * Libraries without published metadata are covered here. The Spotify client maps JSON with one
+ * {@code JsonUtil} per model class; its base class resolves the model type through
+ * {@code getGenericSuperclass()} and creates result arrays with {@code Array.newInstance}, so both
+ * the model classes and their array types must be registered. {@code org.json} is only used
+ * through its parsing constructors and needs nothing. Response bodies that controllers return
+ * as {@code ResponseEntity<?>} are registered for Jackson explicitly, because AOT cannot infer them.
+ */
+@Configuration
+@ImportRuntimeHints(NativeHintsConfig.SpotifyClientHints.class)
+@RegisterReflectionForBinding({
+        BulkTransferService.JobView.class,
+        BulkTransferService.Payload.class,
+        BulkTransferProgress.class,
+        BulkTransferProgress.PlaylistResult.class,
+        MatchPreviewService.TrackLine.class,
+        MatchPreviewService.Summary.class,
+        ListeningRollupRepository.PeriodTotals.class,
+        ListeningRollupRepository.ArtistStat.class,
+        ListeningRollupRepository.TrackStat.class,
+        TelemetryRepository.UsageAggregate.class,
+        TelemetryRepository.ErrorAggregate.class,
+        TokenService.Claims.class,
+        TokenService.TokenPair.class
+})
+public class NativeHintsConfig {
+
+    static class SpotifyClientHints implements RuntimeHintsRegistrar {
+
+        private static final String MODEL_CLASSES = "classpath*:se/michaelthelin/spotify/model_objects/**/*.class";
+
+        @Override
+        public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+            Resource[] resources;
+            try {
+                resources = new PathMatchingResourcePatternResolver(classLoader).getResources(MODEL_CLASSES);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (Resource resource : resources) {
+                String className = className(resource);
+                if (className == null) {
+                    continue;
+                }
+                hints.reflection().registerType(TypeReference.of(className),
+                        MemberCategory.INVOKE_DECLARED_CONSTRUCTORS,
+                        MemberCategory.INVOKE_PUBLIC_METHODS,
+                        MemberCategory.DECLARED_FIELDS);
+                if (!className.contains("$")) {
+                    hints.reflection().registerType(TypeReference.of(className + "[]"));
+                }
+            }
+        }
+
+        private static String className(Resource resource) {
+            try {
+                String url = resource.getURL().toString();
+                int start = url.lastIndexOf("se/michaelthelin/spotify/model_objects/");
+                if (start < 0) {
+                    return null;
+                }
+                return url.substring(start, url.length() - ".class".length()).replace('/', '.');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
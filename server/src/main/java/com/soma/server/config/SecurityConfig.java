@@ -1,48 +1,77 @@
 package com.soma.server.config;
 
+import com.soma.server.security.PasswordHasher;
+import com.soma.server.security.TokenAuthenticationFilter;
+import com.soma.server.security.TokenService;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.AllArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.HttpStatusEntryPoint;
+import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
+
+import java.time.Duration;
 
 @AllArgsConstructor
 @Configuration
 @EnableWebSecurity
 @EnableMethodSecurity
 public class SecurityConfig {
+    private final TokenService tokenService;
+
     @Bean
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
         http
             //.cors().and()
             .csrf(AbstractHttpConfigurer::disable)
+            // requests authenticate with signed access tokens, no session is kept on any node
+            .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
             .authorizeHttpRequests(auth -> auth
                 .requestMatchers(
-                        "/login",
                         "/soma/api/register",
+                        "/soma/api/auth/token",
+                        "/soma/api/auth/refresh",
                         "/soma/api/login-with-spotify",
                         "/soma/api/callback",
-                        "/soma/api/welcome"
+                        "/soma/api/welcome",
+                        "/actuator/health",
+                        // errors of permitted requests are forwarded here and keep their status
+                        "/error"
                 ).permitAll()
+                // API usage of every account, error messages included
+                .requestMatchers("/soma/api/usage/platforms", "/soma/api/usage/errors").hasRole(TokenService.ADMIN_ROLE)
                 .anyRequest().authenticated()
             )
-            .formLogin(formLogin -> formLogin
-                .loginPage("/login")
-                .permitAll()
-            ); // setup login form (replace with normal one)
-            // deny access to pages without authorization
-        
+            .addFilterBefore(new TokenAuthenticationFilter(tokenService), UsernamePasswordAuthenticationFilter.class)
+            .exceptionHandling(exceptions -> exceptions
+                .authenticationEntryPoint(new HttpStatusEntryPoint(HttpStatus.UNAUTHORIZED))
+            );
+
         return http.build();
     }
-    // Password Encoding
+    // Password Encoding: BCrypt on a bounded pool, cost calibrated to the machine unless fixed
     @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    public PasswordEncoder passwordEncoder(MeterRegistry meterRegistry,
+                                           @Value("${soma.auth.password.cost:0}") int cost,
+                                           @Value("${soma.auth.password.target-latency:PT0.25S}") Duration targetLatency,
+                                           @Value("${soma.auth.password.min-cost:10}") int minCost,
+                                           @Value("${soma.auth.password.max-cost:14}") int maxCost,
+                                           @Value("${soma.auth.password.threads:0}") int threads,
+                                           @Value("${soma.auth.password.queue-size:32}") int queueSize,
+                                           @Value("${soma.auth.password.max-wait:PT2S}") Duration maxWait) {
+        return new PasswordHasher(
+                cost > 0 ? cost : PasswordHasher.calibrate(targetLatency, minCost, maxCost),
+                threads > 0 ? threads : Runtime.getRuntime().availableProcessors(),
+                queueSize, maxWait, meterRegistry);
     }
 
 }
@@ -0,0 +1,28 @@
+package com.soma.server.config;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.MethodIntrospector;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Controller;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Keeps hot beans eager when {@code spring.main.lazy-initialization} is on (prod profile).
+ * <p>
+ * Controllers, and everything they depend on, are created at startup so the first request does
+ * not pay for them. Beans with {@code @Scheduled} methods must be eager too, because their
+ * schedules are only registered when the bean is created.
+ */
+@Configuration
+public class StartupConfig {
+
+    @Bean
+    static LazyInitializationExcludeFilter eagerHotBeans() {
+        return (beanName, beanDefinition, beanType) -> AnnotatedElementUtils.hasAnnotation(beanType, Controller.class)
+                || !MethodIntrospector.selectMethods(beanType, (ReflectionUtils.MethodFilter) method ->
+                        AnnotatedElementUtils.hasAnnotation(method, Scheduled.class)).isEmpty();
+    }
+}
@@ -0,0 +1,72 @@
+package com.soma.server.controller;
+
+import com.soma.server.security.PasswordHasher;
+import com.soma.server.security.TokenService.TokenPair;
+import com.soma.server.service.AuthService;
+import jakarta.validation.constraints.Email;
+import jakarta.validation.constraints.NotBlank;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Optional;
+
+@RestController
+@RequestMapping("/soma/api/auth")
+@Validated
+public class AuthController {
+
+    private final AuthService authService;
+
+    public AuthController(AuthService authService) {
+        this.authService = authService;
+    }
+
+    @PostMapping("/token")
+    public ResponseEntity<?> token(@RequestBody @Validated TokenRequest request) {
+        try {
+            return tokens(authService.login(request.getEmail(), request.getPassword()), "Invalid email or password");
+        } catch (PasswordHasher.BusyException e) {
+            return RegisterController.serviceUnavailable(e);
+        }
+    }
+
+    @PostMapping("/refresh")
+    public ResponseEntity<?> refresh(@RequestBody @Validated RefreshRequest request) {
+        return tokens(authService.refresh(request.getRefreshToken()), "Invalid or expired refresh token");
+    }
+
+    private static ResponseEntity<?> tokens(Optional<TokenPair> tokens, String error) {
+        if (tokens.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(error);
+        }
+        return ResponseEntity.ok(tokens.get());
+    }
+
+    @Getter
+    @Setter
+    @ToString(exclude = "password")
+    public static class TokenRequest {
+        @Email
+        @NotBlank
+        private String email;
+
+        @NotBlank
+        private String password;
+    }
+
+    @Getter
+    @Setter
+    @ToString(exclude = "refreshToken")
+    public static class RefreshRequest {
+        @NotBlank
+        private String refreshToken;
+    }
+}
@@ -1,12 +1,15 @@
 package com.soma.server.controller;
 
 import com.soma.server.entity.User;
+import com.soma.server.security.PasswordHasher;
 import com.soma.server.service.RegistrationService;
 import jakarta.validation.constraints.Email;
 import jakarta.validation.constraints.NotBlank;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.ToString;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
@@ -35,11 +38,19 @@ public class RegisterController {
 
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (PasswordHasher.BusyException e) {
+            return serviceUnavailable(e);
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body("Registration failed");
         }
     }
 
+    static ResponseEntity<String> serviceUnavailable(PasswordHasher.BusyException e) {
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, "1")
+                .body(e.getMessage());
+    }
+
     @Getter
     @Setter
     @ToString(exclude = "password")
@@ -3,11 +3,13 @@ package com.soma.server.controller;
 
 import java.io.IOException;
 import java.net.URI;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
 
 
 import org.slf4j.Logger;
@@ -15,36 +17,50 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.PropertySource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.soma.server.config.SpotifyConfig;
 import com.soma.server.entity.SpotifyUserDetails;
+import com.soma.server.security.TokenService;
+import com.soma.server.service.BulkTransferService;
+import com.soma.server.service.MatchPreviewService;
+import com.soma.server.service.PlaylistContentService;
+import com.soma.server.service.SubmissionCoalescer;
+import com.soma.server.service.TransferResultExporter;
+import com.soma.server.service.TransferScheduler;
+import com.soma.server.service.TransferService;
 import com.soma.server.service.UserService;
 import com.soma.server.parser.YmParser;
+import com.soma.server.parser.YmPlaylist;
 
-import se.michaelthelin.spotify.model_objects.specification.Paging;
-import se.michaelthelin.spotify.model_objects.specification.Playlist;
-import se.michaelthelin.spotify.model_objects.specification.Track;
 import se.michaelthelin.spotify.model_objects.specification.User;
 
 import jakarta.servlet.http.HttpServletResponse;
 import se.michaelthelin.spotify.SpotifyApi;
 import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
 import se.michaelthelin.spotify.model_objects.credentials.AuthorizationCodeCredentials;
-import se.michaelthelin.spotify.model_objects.special.SnapshotResult;
 import se.michaelthelin.spotify.requests.authorization.authorization_code.AuthorizationCodeRequest;
 import se.michaelthelin.spotify.requests.authorization.authorization_code.AuthorizationCodeUriRequest;
-import se.michaelthelin.spotify.requests.data.playlists.AddItemsToPlaylistRequest;
-import se.michaelthelin.spotify.requests.data.playlists.CreatePlaylistRequest;
-import se.michaelthelin.spotify.requests.data.search.simplified.SearchTracksRequest;
 import se.michaelthelin.spotify.requests.data.users_profile.GetCurrentUsersProfileRequest;
 
 import org.apache.hc.core5.http.ParseException;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import lombok.Getter;
+import lombok.Setter;
 
 @RestController
 @RequestMapping("/soma/api")
@@ -53,6 +69,10 @@ public class SpotifyController {
 
     private static final Logger logger = LoggerFactory.getLogger(SpotifyController.class);
 
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final String SUBMISSION_HEADER = "X-Submission";
+    private static final String IN_PROGRESS = "The same transfer is already in progress";
+
     @Value("${spotify.client-id}")
     private String clientID;
 
@@ -70,10 +90,35 @@ public class SpotifyController {
 
     private final YmParser ymParser;
 
+    private final TransferService transferService;
+
+    private final BulkTransferService bulkTransferService;
+
+    private final MatchPreviewService matchPreviewService;
+
+    private final SubmissionCoalescer submissionCoalescer;
+
+    private final TransferScheduler transferScheduler;
+
+    private final PlaylistContentService playlistContentService;
+
+    private final TransferResultExporter transferResultExporter;
+
     @Autowired
-    public SpotifyController(SpotifyConfig spotifyConfig, YmParser ymParser) {
+    public SpotifyController(SpotifyConfig spotifyConfig, YmParser ymParser, TransferService transferService,
+                             BulkTransferService bulkTransferService, MatchPreviewService matchPreviewService,
+                             SubmissionCoalescer submissionCoalescer, TransferScheduler transferScheduler,
+                             PlaylistContentService playlistContentService,
+                             TransferResultExporter transferResultExporter) {
         this.spotifyConfig = spotifyConfig;
         this.ymParser = ymParser;
+        this.transferService = transferService;
+        this.bulkTransferService = bulkTransferService;
+        this.matchPreviewService = matchPreviewService;
+        this.submissionCoalescer = submissionCoalescer;
+        this.transferScheduler = transferScheduler;
+        this.playlistContentService = playlistContentService;
+        this.transferResultExporter = transferResultExporter;
     }
 
     @Autowired
@@ -89,6 +134,7 @@ public class SpotifyController {
                 .scope(
                         "user-read-private " +
                                 "user-top-read " +
+                                "user-read-recently-played " +
                                 "user-library-read " +
                                 "user-library-modify " +
                                 "playlist-read-private " +
@@ -163,133 +209,261 @@ public class SpotifyController {
     }
 
     @PostMapping("add-playlist")
-    public String addPlaylist(@RequestParam("playlistName") String playlistName,
-            @RequestParam("playlistLink") String playlistLink, @RequestParam("userId") String userId) {
+    public ResponseEntity<String> addPlaylist(@RequestParam("playlistName") String playlistName,
+            @RequestParam("playlistLink") String playlistLink, @RequestParam("userId") String userId,
+            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+            Authentication authentication) {
         
-        Optional<SpotifyUserDetails> userDetailsOptional = userService.getSpotifyUserDetails(userId);
+        Optional<SpotifyUserDetails> userDetailsOptional =
+                userService.getSpotifyUserDetails(userId, TokenService.userId(authentication));
         if (userDetailsOptional.isEmpty()) {
-            return "User not found";
+            return ResponseEntity.ok("User not found");
         }
         SpotifyUserDetails userDetails = userDetailsOptional.get();
-        String accessToken = userDetails.getAccessToken();
 
-        Map<String, List<String>> songs = ymParser.parsing(playlistLink);
+        return submitOnce("add-playlist", userDetails, idempotencyKey, List.of(playlistLink, playlistName), () -> {
+            YmPlaylist songs = ymParser.parsePlaylist(playlistLink);
 
-        if (songs.isEmpty()) {
-            return "No songs available";
-        }
+            if (songs == null || songs.tracks().isEmpty()) {
+                // thrown, not returned: nothing was transferred, the quota is refunded
+                throw new TransferFailedException("No songs available");
+            }
 
-        List<String> urisList = getTracksURI(songs, accessToken);
+            List<String> urisList = transferService.findTrackUris(userDetails, songs.tracks());
 
-        String[] uris = urisList.toArray(new String[0]);
+            String playlistId;
+            try {
+                playlistId = transferService.createPlaylist(userDetails, playlistName);
+            } catch (IOException | SpotifyWebApiException | ParseException e) {
+                logger.error("Error creating playlist for user {}: {}", userId, e.getMessage());
+                throw new TransferFailedException("Error creating playlist");
+            }
 
-        SpotifyApi spotifyApi = new SpotifyApi.Builder()
-                .setAccessToken(accessToken)
-                .build();
+            try {
+                addingItemsToPLayList(urisList, userDetails, playlistId);
+            } catch (TransferFailedException e) {
+                // the playlist exists: completed with this result, a retry must not create another one
+                return "Playlist created, but its tracks could not be added; add them with add-to-existing to "
+                        + "https://open.spotify.com/playlist/" + playlistId;
+            }
+            return "Playlist created successfully";
+        });
+    }
 
-        CreatePlaylistRequest createPlaylistRequest = spotifyApi.createPlaylist(userDetails.getSpotifyUserId(), playlistName)
-                .build();
+    /**
+     * Dry run of {@code add-playlist}: streams the match of every track as NDJSON while the tracks
+     * are resolved, without touching the user's Spotify library. While it streams it counts as one
+     * of the user's transfers in progress, not against the monthly quota.
+     */
+    @GetMapping("match-preview")
+    public ResponseEntity<StreamingResponseBody> matchPreview(@RequestParam("playlistLink") String playlistLink,
+                                                              @RequestParam("userId") String userId,
+                                                              Authentication authentication) {
+        Optional<SpotifyUserDetails> userDetailsOptional =
+                userService.getSpotifyUserDetails(userId, TokenService.userId(authentication));
+        if (userDetailsOptional.isEmpty()) {
+            return streamingBadRequest("User not found");
+        }
+        SpotifyUserDetails userDetails = userDetailsOptional.get();
+
+        YmPlaylist songs = ymParser.parsePlaylist(playlistLink);
+        if (songs == null || songs.tracks().isEmpty()) {
+            return streamingBadRequest("No songs available");
+        }
 
-        String playlistId = "";
+        // searches on the user's token, counted like a transfer in progress until the stream ends
+        TransferScheduler.Permit permit;
         try {
-            final Playlist playlist = createPlaylistRequest.execute();
-            playlistId = playlist.getId();
-        } catch (IOException | SpotifyWebApiException | ParseException e) {
-            System.out.println("Error: " + e.getMessage());
+            permit = transferScheduler.admit(userDetails.getSpotifyUserId());
+        } catch (TransferScheduler.RejectedException e) {
+            return streamingTooManyRequests(e);
         }
+        StreamingResponseBody body = out -> {
+            try (permit) {
+                matchPreviewService.writeMatches(userDetails, songs, out);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(body);
+    }
+
+    @PostMapping("add-to-existing")
+    public ResponseEntity<String> addToExisting(@RequestParam("yandexLink") String yandexPlaylistLink,
+                              @RequestParam("spotifyLink") String spotifyPlaylistLink,
+                              @RequestParam("userId") String userId,
+                              @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                              Authentication authentication) {
+        
+        Optional<SpotifyUserDetails> userDetailsOptional =
+                userService.getSpotifyUserDetails(userId, TokenService.userId(authentication));
+        if (userDetailsOptional.isEmpty()) {
+            logger.warn("User not found: {}", userId);
+            return ResponseEntity.ok("User not found");
+        }
+        SpotifyUserDetails userDetails = userDetailsOptional.get();
+
+        String playlistId = extractPlaylistId(spotifyPlaylistLink);
 
         if (playlistId.isEmpty()) {
-            return "Error creating playlist";
+            return ResponseEntity.badRequest().body("Invalid Spotify playlist link");
         }
 
-        addingItemsToPLayList(uris, spotifyApi, playlistId);
-        return "Playlist created successfully";
-    }
+        return submitOnce("add-to-existing", userDetails, idempotencyKey, List.of(yandexPlaylistLink, playlistId), () -> {
+            YmPlaylist songs = ymParser.parsePlaylist(yandexPlaylistLink);
 
-    private List<String> getTracksURI(Map<String, List<String>> songs, String accessToken) {
-        List<String> uris = new ArrayList<>();
+            if (songs == null || songs.tracks().isEmpty()) {
+                logger.warn("No songs available in {}", yandexPlaylistLink);
+                throw new TransferFailedException("No songs available");
+            }
 
-        SpotifyApi spotifyApi = new SpotifyApi.Builder()
-                .setAccessToken(accessToken)
-                .build();
+            List<String> urisList = transferService.findTrackUris(userDetails, songs.tracks());
 
-        for (Map.Entry<String, List<String>> entry : songs.entrySet()) {
-            String artist = entry.getKey();
-            List<String> songList = entry.getValue();
-
-            for (String song : songList) {
-                String q = artist + " " + song;
-                String uri;
-                Track track = null;
-
-                SearchTracksRequest searchTracksRequest = spotifyApi.searchTracks(q)
-                        .limit(1)
-                        .build();
-
-                try {
-                    final Paging<Track> trackPaging = searchTracksRequest.execute();
-                    if (trackPaging.getItems().length > 0) {
-                        track = trackPaging.getItems()[0];
-                    }
-                } catch (IOException | SpotifyWebApiException | ParseException e) {
-                    System.out.println("Error: " + e.getMessage());
-                }
-
-                if (track != null) {
-                    uri = track.getUri();
-                    uris.add(uri);
-                }
+            // every track ends up in the playlist once, whether it was there already or is listed twice
+            Set<String> existing;
+            try {
+                existing = new HashSet<>(playlistContentService.getItemUris(userDetails, playlistId));
+            } catch (IOException | SpotifyWebApiException | ParseException e) {
+                logger.error("Error reading playlist {}: {}", playlistId, e.getMessage());
+                throw new TransferFailedException("Error reading playlist");
             }
-        }
+            List<String> missing = urisList.stream().filter(existing::add).toList();
+            logger.debug("{} of {} tracks already in playlist {}", urisList.size() - missing.size(), urisList.size(),
+                    playlistId);
 
-        return uris;
+            addingItemsToPLayList(missing, userDetails, playlistId);
+            return "Tracks added successfully";
+        });
     }
 
-    @PostMapping("add-to-existing")
-    public void addToExisting(@RequestParam("yandexLink") String yandexPlaylistLink,
-                              @RequestParam("spotifyLink") String spotifyPlaylistLink,
-                              @RequestParam("userId") String userId) {
-        
-        Optional<SpotifyUserDetails> userDetailsOptional = userService.getSpotifyUserDetails(userId);
+    @PostMapping("bulk-transfer")
+    public ResponseEntity<?> bulkTransfer(@RequestBody BulkTransferRequest request,
+                                          @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                          Authentication authentication)
+            throws Exception {
+        boolean hasLinks = request.getPlaylistLinks() != null && !request.getPlaylistLinks().isEmpty();
+        boolean hasLibrary = request.getYandexLogin() != null && !request.getYandexLogin().isBlank();
+        if (!hasLinks && !hasLibrary) {
+            return ResponseEntity.badRequest().body("Either yandexLogin or playlistLinks is required");
+        }
+
+        // a Spotify account linked to another user is not found, its quota and library are not the caller's
+        Optional<SpotifyUserDetails> userDetailsOptional =
+                userService.getSpotifyUserDetails(request.getUserId(), TokenService.userId(authentication));
         if (userDetailsOptional.isEmpty()) {
-            System.out.println("User not found");
-            return;
+            return ResponseEntity.badRequest().body("User not found");
         }
-        String accessToken = userDetailsOptional.get().getAccessToken();
 
-        Map<String, List<String>> songs = ymParser.parsing(yandexPlaylistLink);
+        try {
+            return bulkTransferService.submit(userDetailsOptional.get(), request.getYandexLogin(),
+                            request.getPlaylistLinks(), idempotencyKey)
+                    .<ResponseEntity<?>>map(job -> ResponseEntity.accepted().body(job))
+                    .orElseGet(() -> ResponseEntity.status(HttpStatus.CONFLICT).body(IN_PROGRESS));
+        } catch (TransferScheduler.RejectedException e) {
+            return tooManyRequests(e);
+        }
+    }
 
-        if (songs.isEmpty()) {
-            System.out.println("No songs available");
-            return;
+    @GetMapping("bulk-transfer/{jobId}")
+    public ResponseEntity<?> bulkTransferStatus(@PathVariable String jobId, Authentication authentication) {
+        UUID id;
+        try {
+            id = UUID.fromString(jobId);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid job id");
         }
+        // other users' jobs are answered as missing
+        return bulkTransferService.getJob(id, TokenService.userId(authentication))
+                .<ResponseEntity<?>>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
 
-        List<String> urisList = getTracksURI(songs, accessToken);
+    /**
+     * Streams the outcome of every source track of a bulk transfer as {@code csv}, {@code ndjson}
+     * or {@code binary} (see {@link TransferResultExporter}). Results of a running job are partial.
+     */
+    @GetMapping("bulk-transfer/{jobId}/results")
+    public ResponseEntity<StreamingResponseBody> bulkTransferResults(
+            @PathVariable String jobId,
+            @RequestParam(value = "format", defaultValue = "csv") String format,
+            Authentication authentication) {
+        UUID id;
+        TransferResultExporter.Format exportFormat;
+        try {
+            id = UUID.fromString(jobId);
+            exportFormat = TransferResultExporter.Format.of(format);
+        } catch (IllegalArgumentException e) {
+            return streamingBadRequest(e.getMessage());
+        }
+        if (bulkTransferService.getJob(id, TokenService.userId(authentication)).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
 
-        String[] uris = urisList.toArray(new String[0]);
+        StreamingResponseBody body = out -> transferResultExporter.export(id, exportFormat, out);
+        return ResponseEntity.ok()
+                .contentType(exportFormat.mediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename("transfer-" + id + "." + exportFormat.extension()).build().toString())
+                .body(body);
+    }
 
-        SpotifyApi spotifyApi = new SpotifyApi.Builder()
-                .setAccessToken(accessToken)
-                .build();
+    /**
+     * Runs a synchronous transfer through {@link SubmissionCoalescer}, so a double click or a
+     * retry of a running or recently completed transfer gets its result instead of a second
+     * playlist, and {@link TransferScheduler}, which may refuse it with a 429. The response says
+     * which one it was in {@code X-Submission}.
+     */
+    private ResponseEntity<String> submitOnce(String kind, SpotifyUserDetails userDetails, String idempotencyKey,
+                                              List<String> identity, Callable<String> transfer) {
+        SubmissionCoalescer.Outcome outcome;
+        try {
+            outcome = submissionCoalescer.submit(kind, userDetails.getSpotifyUserId(), idempotencyKey, identity,
+                    () -> transferScheduler.run(userDetails.getSpotifyUserId(), transfer));
+        } catch (TransferScheduler.RejectedException e) {
+            return tooManyRequests(e);
+        } catch (TransferFailedException e) {
+            return ResponseEntity.ok(e.getMessage());
+        } catch (Exception e) {
+            logger.error("Error in {} for user {}: {}", kind, userDetails.getSpotifyUserId(), e.getMessage(), e);
+            return ResponseEntity.internalServerError().body("Transfer failed");
+        }
+        if (outcome.status() == SubmissionCoalescer.Status.IN_PROGRESS) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).header(SUBMISSION_HEADER, outcome.status().name())
+                    .body(IN_PROGRESS);
+        }
+        return ResponseEntity.ok().header(SUBMISSION_HEADER, outcome.status().name()).body(outcome.result());
+    }
 
-        String playlistId = extractPlaylistId(spotifyPlaylistLink);
+    // streamed bodies are only handled as such when declared, errors of those endpoints are streamed too
+    private static ResponseEntity<StreamingResponseBody> streamingBadRequest(String message) {
+        return ResponseEntity.badRequest()
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(out -> out.write(message.getBytes(StandardCharsets.UTF_8)));
+    }
 
-        if (playlistId.isEmpty()) {
-            return;
-        }
+    private static ResponseEntity<StreamingResponseBody> streamingTooManyRequests(TransferScheduler.RejectedException e) {
+        ResponseEntity<String> response = tooManyRequests(e);
+        return ResponseEntity.status(response.getStatusCode())
+                .headers(response.getHeaders())
+                .contentType(MediaType.TEXT_PLAIN)
+                .body(out -> out.write(e.getMessage().getBytes(StandardCharsets.UTF_8)));
+    }
 
-        addingItemsToPLayList(uris, spotifyApi, playlistId);
+    private static ResponseEntity<String> tooManyRequests(TransferScheduler.RejectedException e) {
+        long seconds = Math.max(1, (e.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(seconds))
+                .body(e.getMessage());
     }
 
-    private void addingItemsToPLayList(String[] uris, SpotifyApi spotifyApi, String playlistId) {
-        AddItemsToPlaylistRequest addItemsToPlaylistRequest = spotifyApi
-                .addItemsToPlaylist(playlistId, uris)
-                .build();
+    private void addingItemsToPLayList(List<String> uris, SpotifyUserDetails userDetails, String playlistId) {
         try {
-            final SnapshotResult snapshotResult = addItemsToPlaylistRequest.execute();
-            System.out.println("Snapshot ID: " + snapshotResult.getSnapshotId());
+            String snapshotId = transferService.addTracks(userDetails, playlistId, uris);
+            logger.debug("Snapshot ID: {}", snapshotId);
         } catch (IOException | SpotifyWebApiException | ParseException e) {
-            System.out.println("Error: " + e.getMessage());
+            logger.error("Error adding tracks to playlist {}: {}", playlistId, e.getMessage());
+            // not remembered, a retry adds the tracks again
+            throw new TransferFailedException("Error adding tracks to playlist");
         }
     }
 
@@ -304,4 +478,21 @@ public class SpotifyController {
 
         return url.substring(startIndex, endIndex);
     }
+
+    // failed transfers answer with a message like the others, but are not replayed to duplicates
+    private static class TransferFailedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        TransferFailedException(String message) {
+            super(message);
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class BulkTransferRequest {
+        private String userId;
+        private String yandexLogin;
+        private List<String> playlistLinks;
+    }
 }
\ No newline at end of file
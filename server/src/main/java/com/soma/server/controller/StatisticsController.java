@@ -0,0 +1,76 @@
+package com.soma.server.controller;
+
+import com.soma.server.security.TokenService;
+import com.soma.server.service.ListeningStatisticsService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/soma/api/{userId}/stats")
+@RequiredArgsConstructor
+public class StatisticsController {
+
+    private static final int MAX_LIMIT = 100;
+
+    private final ListeningStatisticsService listeningStatisticsService;
+
+    @GetMapping("/summary")
+    public ResponseEntity<?> summary(@PathVariable Long userId,
+                                     @RequestParam(defaultValue = "28") int days,
+                                     @RequestParam(required = false) String period,
+                                     Authentication authentication) {
+        if (!owns(authentication, userId)) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            return ResponseEntity.ok(listeningStatisticsService.getSummary(userId, period, days));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/top-artists")
+    public ResponseEntity<?> topArtists(@PathVariable Long userId,
+                                        @RequestParam(defaultValue = "28") int days,
+                                        @RequestParam(defaultValue = "10") int limit,
+                                        Authentication authentication) {
+        if (!owns(authentication, userId)) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            return ResponseEntity.ok(listeningStatisticsService.getTopArtists(userId, days, clamp(limit)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/top-tracks")
+    public ResponseEntity<?> topTracks(@PathVariable Long userId,
+                                       @RequestParam(defaultValue = "28") int days,
+                                       @RequestParam(defaultValue = "10") int limit,
+                                       Authentication authentication) {
+        if (!owns(authentication, userId)) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            return ResponseEntity.ok(listeningStatisticsService.getTopTracks(userId, days, clamp(limit)));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    // other users' statistics are answered as missing
+    private static boolean owns(Authentication authentication, Long userId) {
+        return userId == TokenService.userId(authentication);
+    }
+
+    private static int clamp(int limit) {
+        return Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+}
@@ -0,0 +1,57 @@
+package com.soma.server.controller;
+
+import com.soma.server.repository.SpotifyUserDetailsRepository;
+import com.soma.server.security.TokenService;
+import com.soma.server.service.ApiUsageService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/soma/api/usage")
+@RequiredArgsConstructor
+public class UsageController {
+
+    private final ApiUsageService apiUsageService;
+    private final SpotifyUserDetailsRepository spotifyUserDetailsRepository;
+
+    @GetMapping("/users/{spotifyUserId}")
+    public ResponseEntity<?> userUsage(@PathVariable String spotifyUserId,
+                                       @RequestParam(defaultValue = "24") int hours,
+                                       Authentication authentication) {
+        // usage of Spotify accounts linked to other users is answered as missing
+        if (!spotifyUserDetailsRepository.existsBySpotifyUserIdAndUserId(spotifyUserId,
+                TokenService.userId(authentication))) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            return ResponseEntity.ok(apiUsageService.getUserUsage(spotifyUserId, hours));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/platforms")
+    public ResponseEntity<?> platformUsage(@RequestParam(required = false) String platform,
+                                           @RequestParam(defaultValue = "24") int hours) {
+        try {
+            return ResponseEntity.ok(apiUsageService.getPlatformUsage(platform, hours));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/errors")
+    public ResponseEntity<?> errors(@RequestParam(defaultValue = "24") int hours) {
+        try {
+            return ResponseEntity.ok(apiUsageService.getErrors(hours));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.soma.server.entity.User;
 import com.soma.server.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Optional;
@@ -11,6 +12,8 @@ import java.util.Optional;
 @RestController
 @RequestMapping("/soma/api/users")
 @RequiredArgsConstructor
+// public lookups, a read replica a few seconds behind the primary is good enough for them
+@Transactional(readOnly = true)
 public class UsersController {
 
     private final UserRepository userRepository;
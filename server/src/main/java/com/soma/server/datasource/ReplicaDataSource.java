@@ -0,0 +1,172 @@
+package com.soma.server.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connections for read-only transactions: round robin over the replica pools whose replication
+ * lag is at most {@code maxLag}, the primary when none of them is.
+ * <p>
+ * Once {@link #start() started}, the lag of every replica is checked every {@code checkInterval}
+ * on a background thread. A replica that lags too far, cannot be reached or fails to hand out a
+ * connection is skipped until a later check finds it caught up again; until the first check,
+ * reads go to the primary. The lag is published as {@code soma.datasource.replica.lag} per pool,
+ * and where reads went as {@code soma.datasource.reads}.
+ */
+public class ReplicaDataSource extends AbstractDataSource implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaDataSource.class);
+
+    // replay lag in seconds; a streaming standby that has replayed all WAL it received is current,
+    // however long ago the primary last committed. One whose WAL receiver is not streaming cannot
+    // know what it missed, it is as far behind as its last replayed commit. The receiver status is
+    // only shown to roles with pg_read_all_stats, for others a running receiver counts as streaming
+    private static final String LAG = """
+            SELECT CASE
+                       WHEN NOT pg_is_in_recovery() THEN 0
+                       WHEN NOT EXISTS (SELECT 1
+                                          FROM pg_stat_wal_receiver
+                                         WHERE COALESCE(status, 'streaming') = 'streaming')
+                           THEN COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 'Infinity')
+                       WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0
+                       ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()), 0)
+                   END
+            """;
+
+    private final DataSource primary;
+    private final List<Replica> replicas;
+    private final long maxLagMillis;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Counter replicaReads;
+    private final Counter primaryReads;
+    private final Duration checkInterval;
+    private final ScheduledExecutorService checker;
+
+    public ReplicaDataSource(DataSource primary, List<HikariDataSource> pools, Duration maxLag,
+                             Duration checkInterval, MeterRegistry meterRegistry) {
+        this.primary = primary;
+        this.replicas = pools.stream().map(Replica::new).toList();
+        this.maxLagMillis = maxLag.toMillis();
+        this.replicaReads = reads(meterRegistry, "replica");
+        this.primaryReads = reads(meterRegistry, "primary");
+        this.checkInterval = checkInterval;
+        for (Replica replica : replicas) {
+            Gauge.builder("soma.datasource.replica.lag", replica, r -> r.lagMillis < 0 ? Double.NaN : r.lagMillis / 1000.0)
+                    .tag("pool", replica.pool.getPoolName())
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+        }
+        this.checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-lag-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts the lag checks, the first one right away.
+     */
+    public void start() {
+        checker.scheduleWithFixedDelay(this::checkLag, 0, checkInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        int size = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        for (int i = 0; i < size; i++) {
+            Replica replica = replicas.get((start + i) % size);
+            if (!replica.available) {
+                continue;
+            }
+            try {
+                Connection connection = replica.pool.getConnection();
+                replicaReads.increment();
+                return connection;
+            } catch (SQLException e) {
+                replica.down(e.getMessage());
+            }
+        }
+        primaryReads.increment();
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLException("Replica connections use the credentials of their pools");
+    }
+
+    @Override
+    public void close() {
+        checker.shutdownNow();
+        replicas.forEach(replica -> replica.pool.close());
+    }
+
+    void checkLag() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.pool.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(LAG)) {
+                resultSet.next();
+                long lagMillis = (long) (resultSet.getDouble(1) * 1000);
+                replica.lagMillis = lagMillis;
+                if (lagMillis <= maxLagMillis) {
+                    replica.up();
+                } else {
+                    replica.down("lagging " + lagMillis + " ms behind the primary");
+                }
+            } catch (SQLException | RuntimeException e) {
+                replica.lagMillis = -1;
+                replica.down(e.getMessage());
+            }
+        }
+    }
+
+    private static Counter reads(MeterRegistry meterRegistry, String target) {
+        return Counter.builder("soma.datasource.reads").tag("target", target).register(meterRegistry);
+    }
+
+    private static final class Replica {
+
+        final HikariDataSource pool;
+        volatile boolean available;
+        // -1 while unknown or unreachable
+        volatile long lagMillis = -1;
+
+        Replica(HikariDataSource pool) {
+            this.pool = pool;
+        }
+
+        void up() {
+            if (!available) {
+                available = true;
+                logger.info("Replica {} serves reads", pool.getPoolName());
+            }
+        }
+
+        void down(String reason) {
+            if (available) {
+                available = false;
+                logger.warn("Replica {} skipped, reads go to the other replicas or the primary: {}",
+                        pool.getPoolName(), reason);
+            }
+        }
+    }
+}
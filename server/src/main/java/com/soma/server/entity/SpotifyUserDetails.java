@@ -4,6 +4,8 @@ import jakarta.persistence.*;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 
+import java.time.Instant;
+
 @Data
 @EqualsAndHashCode(callSuper = true)
 @Entity
@@ -24,4 +26,10 @@ public class SpotifyUserDetails extends UserDetailsInterface {
     
     @Column(name = "country", length = 10)
     private String country;
+
+    @Column(name = "recently_played_cursor")
+    private Long recentlyPlayedCursor; // epoch millis of the newest ingested play
+
+    @Column(name = "top_tracks_synced_at")
+    private Instant topTracksSyncedAt;
 }
\ No newline at end of file
@@ -0,0 +1,66 @@
+package com.soma.server.logging;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+
+/**
+ * Tags every log line of a request with a correlation id, taken from the {@code X-Request-Id}
+ * header or generated, and returns it in the response.
+ * <p>
+ * A request also logs at DEBUG when it sends {@code X-Debug: true} and
+ * {@code soma.logging.debug-header-enabled} is on, or when it falls into the
+ * {@code soma.logging.debug-sample-rate} sample (see {@link SampledDebugTurboFilter}).
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class CorrelationIdFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "X-Request-Id";
+    public static final String CORRELATION_ID_KEY = "correlationId";
+    public static final String DEBUG_KEY = "debugSampled";
+
+    // ids from clients end up in log files, so only accept plain tokens
+    private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
+    @Value("${soma.logging.debug-sample-rate:0}")
+    private double debugSampleRate;
+
+    @Value("${soma.logging.debug-header-enabled:false}")
+    private boolean debugHeaderEnabled;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String correlationId = request.getHeader(HEADER);
+        if (correlationId == null || !VALID_ID.matcher(correlationId).matches()) {
+            correlationId = UUID.randomUUID().toString();
+        }
+        boolean debug = (debugHeaderEnabled && "true".equalsIgnoreCase(request.getHeader("X-Debug")))
+                || (debugSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < debugSampleRate);
+
+        MDC.put(CORRELATION_ID_KEY, correlationId);
+        if (debug) {
+            MDC.put(DEBUG_KEY, "true");
+        }
+        response.setHeader(HEADER, correlationId);
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            MDC.remove(CORRELATION_ID_KEY);
+            MDC.remove(DEBUG_KEY);
+        }
+    }
+}
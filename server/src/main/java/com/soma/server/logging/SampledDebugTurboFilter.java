@@ -0,0 +1,30 @@
+package com.soma.server.logging;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.MDC;
+import org.slf4j.Marker;
+
+/**
+ * Lets DEBUG events of our own loggers through for sampled requests and jobs, whatever the
+ * configured level. A request is sampled when {@link CorrelationIdFilter} puts
+ * {@value CorrelationIdFilter#DEBUG_KEY}={@code true} into the MDC.
+ */
+public class SampledDebugTurboFilter extends TurboFilter {
+
+    private String loggerPrefix = "com.soma";
+
+    public void setLoggerPrefix(String loggerPrefix) {
+        this.loggerPrefix = loggerPrefix;
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (level != Level.DEBUG || !logger.getName().startsWith(loggerPrefix)) {
+            return FilterReply.NEUTRAL;
+        }
+        return "true".equals(MDC.get(CorrelationIdFilter.DEBUG_KEY)) ? FilterReply.ACCEPT : FilterReply.NEUTRAL;
+    }
+}
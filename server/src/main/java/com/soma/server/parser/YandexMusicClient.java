@@ -0,0 +1,377 @@
+package com.soma.server.parser;
+
+import com.soma.server.logging.CorrelationIdFilter;
+import com.soma.server.telemetry.ApiTelemetry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP client for the Yandex Music web handlers.
+ * <p>
+ * The same handlers are served by several hosts ({@code soma.yandex.hosts}, base URLs). A request goes to
+ * the first host whose circuit breaker is closed; if it is still running after the endpoint's
+ * {@code soma.yandex.hedge-percentile} latency, a duplicate is sent to the next host and the
+ * first answer wins. Failed requests are retried a bounded number of times with backoff.
+ * Latencies are recorded per endpoint and host under {@code soma.yandex.request}, and per call
+ * (hedges and retries included) under {@code soma.yandex.call}.
+ */
+@Component
+public class YandexMusicClient {
+
+    public enum Endpoint {
+        PLAYLIST("/handlers/playlist.jsx"),
+        ALBUM("/handlers/album.jsx"),
+        LIBRARY("/handlers/library.jsx"),
+        TRACK_ENTRIES("/handlers/track-entries.jsx");
+
+        private final String path;
+
+        Endpoint(String path) {
+            this.path = path;
+        }
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(YandexMusicClient.class);
+
+    // hedge on measured latency only once there are enough samples
+    private static final long MIN_SAMPLES = 20;
+
+    private final HttpClient httpClient;
+    private final MeterRegistry meterRegistry;
+    private final ApiTelemetry apiTelemetry;
+    private final Duration requestTimeout;
+    private final int maxAttempts;
+    private final Duration retryBackoff;
+    private final double hedgePercentile;
+    private final Duration hedgeMinDelay;
+    private final Duration hedgeInitialDelay;
+    private final String userAgent;
+
+    private final Map<Endpoint, Map<String, CircuitBreaker>> breakers = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, Timer> latencies = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, Timer> calls = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, Counter> hedges = new EnumMap<>(Endpoint.class);
+
+    public YandexMusicClient(MeterRegistry meterRegistry, ApiTelemetry apiTelemetry,
+                             @Value("${soma.yandex.hosts:https://music.yandex.ru,https://music.yandex.com}") List<String> hosts,
+                             @Value("${soma.yandex.connect-timeout:PT3S}") Duration connectTimeout,
+                             @Value("${soma.yandex.request-timeout:PT10S}") Duration requestTimeout,
+                             @Value("${soma.yandex.max-attempts:3}") int maxAttempts,
+                             @Value("${soma.yandex.retry-backoff:PT0.2S}") Duration retryBackoff,
+                             @Value("${soma.yandex.hedge-percentile:0.95}") double hedgePercentile,
+                             @Value("${soma.yandex.hedge-min-delay:PT0.1S}") Duration hedgeMinDelay,
+                             @Value("${soma.yandex.hedge-initial-delay:PT1S}") Duration hedgeInitialDelay,
+                             @Value("${soma.yandex.breaker.failure-threshold:5}") int failureThreshold,
+                             @Value("${soma.yandex.breaker.open-duration:PT30S}") Duration openDuration,
+                             @Value("${soma.yandex.user-agent:Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0 Safari/537.36}") String userAgent) {
+        this.meterRegistry = meterRegistry;
+        this.apiTelemetry = apiTelemetry;
+        this.requestTimeout = requestTimeout;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoff = retryBackoff;
+        this.hedgePercentile = hedgePercentile;
+        this.hedgeMinDelay = hedgeMinDelay;
+        this.hedgeInitialDelay = hedgeInitialDelay;
+        this.userAgent = userAgent;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+
+        for (Endpoint endpoint : Endpoint.values()) {
+            Map<String, CircuitBreaker> byHost = new LinkedHashMap<>();
+            for (String host : hosts) {
+                CircuitBreaker breaker = new CircuitBreaker(failureThreshold, openDuration);
+                byHost.put(host, breaker);
+                Gauge.builder("soma.yandex.breaker.open", breaker, b -> b.state() == CircuitBreaker.State.CLOSED ? 0 : 1)
+                        .tag("endpoint", endpoint.name())
+                        .tag("host", host)
+                        .register(meterRegistry);
+            }
+            breakers.put(endpoint, byHost);
+            latencies.put(endpoint, Timer.builder("soma.yandex.latency")
+                    .description("Latency of single successful Yandex Music handler requests, drives hedging")
+                    .tag("endpoint", endpoint.name())
+                    .publishPercentiles(0.5, hedgePercentile, 0.99)
+                    .register(meterRegistry));
+            calls.put(endpoint, Timer.builder("soma.yandex.call")
+                    .description("Time until a Yandex Music handler call succeeded or gave up, including hedges and retries")
+                    .tag("endpoint", endpoint.name())
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry));
+            hedges.put(endpoint, Counter.builder("soma.yandex.hedges")
+                    .tag("endpoint", endpoint.name())
+                    .register(meterRegistry));
+        }
+    }
+
+    public String get(Endpoint endpoint, Map<String, String> query) throws IOException {
+        String queryString = encode(query);
+        return execute(endpoint, host -> newRequest(endpoint, host, queryString).GET().build());
+    }
+
+    public String postForm(Endpoint endpoint, Map<String, String> form) throws IOException {
+        String body = encode(form);
+        return execute(endpoint, host -> newRequest(endpoint, host, "")
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build());
+    }
+
+    private String execute(Endpoint endpoint, RequestFactory requestFactory) throws IOException {
+        long started = System.nanoTime();
+        try {
+            IOException last = null;
+            for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+                try {
+                    return hedged(endpoint, requestFactory);
+                } catch (IOException e) {
+                    last = e;
+                    if (e instanceof NonRetryableException || attempt == maxAttempts) {
+                        break;
+                    }
+                    logger.debug("Yandex {} attempt {} failed: {}", endpoint, attempt, e.getMessage());
+                    sleep(backoff(attempt));
+                }
+            }
+            throw last;
+        } finally {
+            calls.get(endpoint).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private String hedged(Endpoint endpoint, RequestFactory requestFactory) throws IOException {
+        String primaryHost = acquireHost(endpoint, null);
+        if (primaryHost == null) {
+            throw new IOException("Circuit open for Yandex " + endpoint + " on all hosts");
+        }
+
+        CompletableFuture<String> primary = send(endpoint, primaryHost, requestFactory);
+        try {
+            return primary.get(hedgeDelay(endpoint).toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            String backupHost = acquireHost(endpoint, primaryHost);
+            if (backupHost == null) {
+                return await(primary);
+            }
+            hedges.get(endpoint).increment();
+            CompletableFuture<String> backup = send(endpoint, backupHost, requestFactory);
+            try {
+                return await(firstSuccessful(primary, backup));
+            } finally {
+                backup.cancel(true);
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e.getCause());
+            String backupHost = cause instanceof NonRetryableException ? null : acquireHost(endpoint, primaryHost);
+            if (backupHost == null) {
+                return await(primary);
+            }
+            // primary failed fast, fail over right away
+            return await(send(endpoint, backupHost, requestFactory));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for Yandex " + endpoint, e);
+        } finally {
+            primary.cancel(true);
+        }
+    }
+
+    /**
+     * @return the first host other than {@code exclude} whose breaker lets a call through, or {@code null}
+     */
+    private String acquireHost(Endpoint endpoint, String exclude) {
+        for (Map.Entry<String, CircuitBreaker> entry : breakers.get(endpoint).entrySet()) {
+            if (!entry.getKey().equals(exclude) && entry.getValue().tryAcquire()) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    private CompletableFuture<String> send(Endpoint endpoint, String host, RequestFactory requestFactory) {
+        CircuitBreaker breaker = breakers.get(endpoint).get(host);
+        long started = System.nanoTime();
+        HttpRequest request = requestFactory.create(host);
+        // the callback runs on a client thread without the request's MDC
+        String correlationId = MDC.get(CorrelationIdFilter.CORRELATION_ID_KEY);
+        CompletableFuture<HttpResponse<String>> exchange = httpClient
+                .sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        CompletableFuture<String> result = exchange
+                .thenApply(response -> {
+                    int status = response.statusCode();
+                    if (status == 200) {
+                        return response.body();
+                    }
+                    if (status >= 500 || status == 429) {
+                        throw new CompletionException(new IOException("HTTP " + status + " from " + host));
+                    }
+                    throw new CompletionException(new NonRetryableException("HTTP " + status + " from " + host));
+                });
+        result.whenComplete((body, error) -> {
+            Throwable cause = unwrap(error);
+            String outcome;
+            long elapsed = System.nanoTime() - started;
+            if (cause == null) {
+                outcome = "success";
+                breaker.onSuccess();
+                latencies.get(endpoint).record(elapsed, TimeUnit.NANOSECONDS);
+            } else if (cause instanceof CancellationException) {
+                // the other host answered first; abort this exchange
+                outcome = "cancelled";
+                exchange.cancel(true);
+                breaker.onIgnored();
+            } else if (cause instanceof NonRetryableException) {
+                // the host answered, the request itself was bad
+                outcome = "client_error";
+                breaker.onSuccess();
+            } else {
+                outcome = "error";
+                breaker.onFailure();
+            }
+            Timer.builder("soma.yandex.request")
+                    .tag("endpoint", endpoint.name())
+                    .tag("host", host)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry)
+                    .record(elapsed, TimeUnit.NANOSECONDS);
+            int status = exchange.isDone() && !exchange.isCompletedExceptionally() ? exchange.join().statusCode() : 0;
+            apiTelemetry.record(ApiTelemetry.YANDEX, endpoint.path, request.method(), status,
+                    TimeUnit.NANOSECONDS.toMillis(elapsed), null,
+                    cause instanceof CancellationException ? null : cause, correlationId);
+        });
+        return result;
+    }
+
+    private Duration hedgeDelay(Endpoint endpoint) {
+        Timer timer = latencies.get(endpoint);
+        if (timer.count() < MIN_SAMPLES) {
+            return hedgeInitialDelay;
+        }
+        for (ValueAtPercentile value : timer.takeSnapshot().percentileValues()) {
+            if (value.percentile() == hedgePercentile) {
+                long nanos = (long) value.value(TimeUnit.NANOSECONDS);
+                return Duration.ofNanos(Math.min(Math.max(nanos, hedgeMinDelay.toNanos()), requestTimeout.toNanos()));
+            }
+        }
+        return hedgeInitialDelay;
+    }
+
+    private HttpRequest.Builder newRequest(Endpoint endpoint, String host, String query) {
+        String uri = host + endpoint.path + (query.isEmpty() ? "" : "?" + query);
+        return HttpRequest.newBuilder(URI.create(uri))
+                .timeout(requestTimeout)
+                .header("User-Agent", userAgent)
+                .header("Accept", "application/json");
+    }
+
+    private static CompletableFuture<String> firstSuccessful(CompletableFuture<String> a, CompletableFuture<String> b) {
+        CompletableFuture<String> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        for (CompletableFuture<String> future : List.of(a, b)) {
+            future.whenComplete((body, error) -> {
+                if (error == null) {
+                    winner.complete(body);
+                } else if (failures.incrementAndGet() == 2) {
+                    winner.completeExceptionally(error);
+                }
+            });
+        }
+        return winner;
+    }
+
+    private static String await(CompletableFuture<String> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for Yandex Music", e);
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e.getCause());
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    private Duration backoff(int attempt) {
+        long base = retryBackoff.toMillis() << (attempt - 1);
+        return Duration.ofMillis(base / 2 + ThreadLocalRandom.current().nextLong(base / 2 + 1));
+    }
+
+    private static void sleep(Duration duration) throws IOException {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while retrying Yandex Music request", e);
+        }
+    }
+
+    private static String encode(Map<String, String> params) {
+        StringBuilder encoded = new StringBuilder();
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            if (!encoded.isEmpty()) {
+                encoded.append('&');
+            }
+            encoded.append(URLEncoder.encode(param.getKey(), StandardCharsets.UTF_8))
+                    .append('=')
+                    .append(URLEncoder.encode(param.getValue(), StandardCharsets.UTF_8));
+        }
+        return encoded.toString();
+    }
+
+    @FunctionalInterface
+    private interface RequestFactory {
+        HttpRequest create(String host);
+    }
+
+    /**
+     * A 4xx answer: the host is healthy, repeating the request will not help.
+     */
+    private static class NonRetryableException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        NonRetryableException(String message) {
+            super(message);
+        }
+    }
+}
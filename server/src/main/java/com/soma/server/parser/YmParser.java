@@ -1,14 +1,18 @@
 package com.soma.server.parser;
 
+import com.soma.server.parser.YandexMusicClient.Endpoint;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
-import org.jsoup.Connection;
-import org.jsoup.Jsoup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -17,12 +21,37 @@ import java.util.regex.Pattern;
 
 @Component
 public class YmParser {
-    public Map<String, List<String>> parsing(String url) {
-        HashMap<String, List<String>> data = new HashMap<>();
+
+    private static final Logger logger = LoggerFactory.getLogger(YmParser.class);
+
+    // track-entries.jsx accepts at most this many ids per request
+    private static final int TRACKS_PER_REQUEST = 100;
+
+    private final YandexMusicClient yandexMusicClient;
+    private final Timer parseTimer;
+
+    public YmParser(YandexMusicClient yandexMusicClient, MeterRegistry meterRegistry) {
+        this.yandexMusicClient = yandexMusicClient;
+        this.parseTimer = Timer.builder("soma.yandex.parse")
+                .description("Time to load a whole playlist or album with all its tracks")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Parses a playlist or album link.
+     *
+     * @return the title and the tracks in playlist order, or {@code null} if the link is not a
+     * Yandex Music playlist/album or could not be loaded
+     */
+    public YmPlaylist parsePlaylist(String url) {
         if (!isValidYandexMusicLink(url)) {
-            return data;
+            return null;
         }
-        
+        return parseTimer.record(() -> loadPlaylist(url));
+    }
+
+    private YmPlaylist loadPlaylist(String url) {
         try {
             // getting URL of GET request for playlist or album (they are different( )
             Pattern playlistPattern = Pattern.compile("users/([^/]+)/playlists/(\\d+)");
@@ -30,63 +59,89 @@ public class YmParser {
             Matcher playlistMatcher = playlistPattern.matcher(url);
             Matcher albumMatcher = albumPattern.matcher(url);
 
-            String newUrl;
+            String jsonResponse;
             boolean isPlaylist = false;
             if (playlistMatcher.find()) {
                 String owner = playlistMatcher.group(1);
                 String kinds = playlistMatcher.group(2);
-                newUrl = "https://music.yandex.ru/handlers/playlist.jsx?owner=" + owner + "&kinds=" + kinds
-                        + "&light=true";
+                jsonResponse = yandexMusicClient.get(Endpoint.PLAYLIST,
+                        Map.of("owner", owner, "kinds", kinds, "light", "true"));
                 isPlaylist = true;
             } else if (albumMatcher.find()) {
                 String albumId = albumMatcher.group(1);
-                newUrl = "https://music.yandex.com/handlers/album.jsx?album=" + albumId + "&light=true";
+                jsonResponse = yandexMusicClient.get(Endpoint.ALBUM, Map.of("album", albumId, "light", "true"));
             } else {
-                return data;
+                return null;
             }
 
-            Connection.Response response = Jsoup.connect(newUrl)
-                    .ignoreContentType(true)
-                    .execute();
-
-            String jsonResponse = response.body();
             JSONObject jsonObject = new JSONObject(jsonResponse);
 
             // JSONArray tracks =
             // jsonObject.getJSONObject("playlist").getJSONArray("tracks"); можно сделать
             // if at all less than 100 songs
-            JSONArray ids;
-            if (isPlaylist) {
-                ids = jsonObject.getJSONObject("playlist").getJSONArray("trackIds");
-            } else {
-                ids = jsonObject.getJSONArray("trackIds");
-            }
-            int len = ids.length();
-            for (int i = 0; i < ids.length() - 100; i += 100) {
-                StringBuilder ans = getStringForGetRequest(ids, i, 100);
-                connection(data, ans);
-                len -= 100;
+            JSONObject source = isPlaylist ? jsonObject.getJSONObject("playlist") : jsonObject;
+            JSONArray ids = source.getJSONArray("trackIds");
+
+            List<YmTrack> tracks = new ArrayList<>(ids.length());
+            for (int i = 0; i < ids.length(); i += TRACKS_PER_REQUEST) {
+                StringBuilder ans = getStringForGetRequest(ids, i, Math.min(TRACKS_PER_REQUEST, ids.length() - i));
+                tracks.addAll(connection(ans));
             }
+            return new YmPlaylist(source.optString("title", ""), tracks);
+        } catch (IOException | JSONException e) {
+            logger.warn("Could not parse Yandex Music link {}: {}", url, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Lists the playlists in a user's library, including the "liked" playlist.
+     *
+     * @param owner the Yandex login of the library owner
+     * @return playlist links that {@link #parsePlaylist(String)} accepts; empty if the library
+     * is private or could not be loaded
+     */
+    public List<String> parseLibraryPlaylistLinks(String owner) {
+        List<String> links = new ArrayList<>();
+        if (owner == null || !YANDEX_LOGIN_PATTERN.matcher(owner).matches()) {
+            return links;
+        }
 
-            StringBuilder ans = getStringForGetRequest(ids, ids.length() - len, len);
-            connection(data, ans);
-        } catch (IOException e) {
-            e.printStackTrace();
+        try {
+            Map<String, String> query = new LinkedHashMap<>();
+            query.put("owner", owner);
+            query.put("filter", "playlists");
+            JSONObject library = new JSONObject(yandexMusicClient.get(Endpoint.LIBRARY, query));
+
+            JSONArray playlists = library.optJSONArray("playlists");
+            if (playlists != null) {
+                for (int i = 0; i < playlists.length(); i++) {
+                    JSONObject playlist = playlists.getJSONObject(i);
+                    String login = playlist.optJSONObject("owner") != null
+                            ? playlist.getJSONObject("owner").optString("login", owner)
+                            : owner;
+                    links.add(playlistLink(login, playlist.get("kind").toString()));
+                }
+            } else {
+                JSONArray kinds = library.optJSONArray("playlistIds");
+                for (int i = 0; kinds != null && i < kinds.length(); i++) {
+                    links.add(playlistLink(owner, kinds.get(i).toString()));
+                }
+            }
+        } catch (IOException | JSONException e) {
+            logger.warn("Could not load Yandex Music library of {}: {}", owner, e.getMessage());
         }
-        return data;
+        return links;
     }
 
-    private void connection(HashMap<String, List<String>> data, StringBuilder ans) throws IOException {
-        Connection.Response postResponse = Jsoup.connect("https://music.yandex.ru/handlers/track-entries.jsx")
-                .method(Connection.Method.POST)
-                .data("entries", ans.toString())
-                .ignoreContentType(true)
-                .execute();
+    private static String playlistLink(String owner, String kind) {
+        return "https://music.yandex.ru/users/" + owner + "/playlists/" + kind;
+    }
 
-        String postJsonResponse = postResponse.body();
+    private List<YmTrack> connection(StringBuilder ans) throws IOException {
+        String postJsonResponse = yandexMusicClient.postForm(Endpoint.TRACK_ENTRIES, Map.of("entries", ans.toString()));
         JSONArray postJsonArray = new JSONArray(postJsonResponse);
-        HashMap<String, List<String>> data1 = makeMapOfTracks(postJsonArray);
-        data.putAll(data1);
+        return makeListOfTracks(postJsonArray);
     }
 
     private StringBuilder getStringForGetRequest(JSONArray ids, int i, int size) {
@@ -104,8 +159,8 @@ public class YmParser {
         return ans;
     }
 
-    private HashMap<String, List<String>> makeMapOfTracks(JSONArray postJsonArray) {
-        HashMap<String, List<String>> data = new HashMap<>();
+    private List<YmTrack> makeListOfTracks(JSONArray postJsonArray) {
+        List<YmTrack> tracks = new ArrayList<>(postJsonArray.length());
         for (int k = 0; k < postJsonArray.length(); k++) {
             JSONObject track = postJsonArray.getJSONObject(k);
             String title = track.getString("title");
@@ -117,16 +172,18 @@ public class YmParser {
                 }
                 artistNames.append(artists.getJSONObject(j).getString("name"));
             }
-            String artistName = artistNames.toString();
-            data.computeIfAbsent(artistName, c -> new ArrayList<>()).add(title);
+            tracks.add(new YmTrack(track.opt("id") != null ? track.get("id").toString() : null,
+                    title, artistNames.toString(), track.optLong("durationMs", 0L), track.optString("isrc", null)));
         }
-        return data;
+        return tracks;
     }
 
     private static final String YANDEX_MUSIC_URL_REGEX = "https://music\\.yandex\\.(?:ru|com)/(?:playlist|users|album|artist|label)/[^/]+(?:/playlists|/albums)?/?[^/]*/?[^/]*";
 
     private static final Pattern YANDEX_MUSIC_PATTERN = Pattern.compile(YANDEX_MUSIC_URL_REGEX);
 
+    private static final Pattern YANDEX_LOGIN_PATTERN = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+
     /**
      * Validates if the given URL is a valid Yandex Music playlist or album link.
      *
@@ -134,6 +191,6 @@ public class YmParser {
      * @return true if the URL is a valid Yandex Music link, false otherwise
      */
     private static boolean isValidYandexMusicLink(String url) {
-        return YANDEX_MUSIC_PATTERN.matcher(url).matches();
+        return url != null && YANDEX_MUSIC_PATTERN.matcher(url).matches();
     }
 }
@@ -0,0 +1,9 @@
+package com.soma.server.parser;
+
+import java.util.List;
+
+/**
+ * A parsed Yandex Music playlist or album, tracks in their original order.
+ */
+public record YmPlaylist(String title, List<YmTrack> tracks) {
+}
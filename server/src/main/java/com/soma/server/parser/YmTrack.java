@@ -0,0 +1,10 @@
+package com.soma.server.parser;
+
+/**
+ * A track as returned by the Yandex Music handlers.
+ *
+ * @param artists artist names joined with ", "
+ * @param isrc    recording code, {@code null} if Yandex does not return one
+ */
+public record YmTrack(String id, String title, String artists, long durationMs, String isrc) {
+}
@@ -0,0 +1,154 @@
+package com.soma.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Per-user daily and weekly rollups of the listening history. Rows are only ever incremented,
+ * so reads touch a handful of pre-aggregated rows instead of the raw plays.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ListeningRollupRepository {
+
+    private static final String UPSERT_TOTALS = """
+            INSERT INTO user_statistics (user_id, period, period_start, tracks_listened, listening_ms)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT (user_id, period, period_start) DO UPDATE
+                SET tracks_listened = user_statistics.tracks_listened + EXCLUDED.tracks_listened,
+                    listening_ms = user_statistics.listening_ms + EXCLUDED.listening_ms
+            """;
+
+    private static final String UPSERT_ARTIST = """
+            INSERT INTO user_artist_statistics (user_id, period, period_start, artist, plays, listening_ms)
+            VALUES (?, ?, ?, ?, ?, ?)
+            ON CONFLICT (user_id, period, period_start, artist) DO UPDATE
+                SET plays = user_artist_statistics.plays + EXCLUDED.plays,
+                    listening_ms = user_artist_statistics.listening_ms + EXCLUDED.listening_ms
+            """;
+
+    private static final String UPSERT_TRACK = """
+            INSERT INTO user_track_statistics (user_id, period, period_start, track_id, track_name, artist_names,
+                                               plays, listening_ms)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (user_id, period, period_start, track_id) DO UPDATE
+                SET plays = user_track_statistics.plays + EXCLUDED.plays,
+                    listening_ms = user_track_statistics.listening_ms + EXCLUDED.listening_ms
+            """;
+
+    private static final String SELECT_TOTALS = """
+            SELECT s.period_start, s.tracks_listened, s.listening_ms,
+                   (SELECT count(*) FROM user_artist_statistics a
+                     WHERE a.user_id = s.user_id AND a.period = s.period AND a.period_start = s.period_start) AS artists
+              FROM user_statistics s
+             WHERE s.user_id = ? AND s.period = ? AND s.period_start BETWEEN ? AND ?
+             ORDER BY s.period_start
+            """;
+
+    private static final String SELECT_TOP_ARTISTS = """
+            SELECT artist, sum(plays) AS plays, sum(listening_ms) AS listening_ms
+              FROM user_artist_statistics
+             WHERE user_id = ? AND period = ? AND period_start BETWEEN ? AND ?
+             GROUP BY artist
+             ORDER BY plays DESC, listening_ms DESC
+             LIMIT ?
+            """;
+
+    private static final String SELECT_TOP_TRACKS = """
+            SELECT track_id, max(track_name) AS track_name, max(artist_names) AS artist_names,
+                   sum(plays) AS plays, sum(listening_ms) AS listening_ms
+              FROM user_track_statistics
+             WHERE user_id = ? AND period = ? AND period_start BETWEEN ? AND ?
+             GROUP BY track_id
+             ORDER BY plays DESC, listening_ms DESC
+             LIMIT ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void incrementTotals(List<TotalsDelta> deltas) {
+        jdbcTemplate.batchUpdate(UPSERT_TOTALS, deltas, deltas.size(), (ps, d) -> {
+            ps.setLong(1, d.userId());
+            ps.setString(2, d.period());
+            ps.setDate(3, Date.valueOf(d.periodStart()));
+            ps.setInt(4, d.plays());
+            ps.setLong(5, d.listeningMs());
+        });
+    }
+
+    public void incrementArtists(List<ArtistDelta> deltas) {
+        jdbcTemplate.batchUpdate(UPSERT_ARTIST, deltas, deltas.size(), (ps, d) -> {
+            ps.setLong(1, d.userId());
+            ps.setString(2, d.period());
+            ps.setDate(3, Date.valueOf(d.periodStart()));
+            ps.setString(4, d.artist());
+            ps.setInt(5, d.plays());
+            ps.setLong(6, d.listeningMs());
+        });
+    }
+
+    public void incrementTracks(List<TrackDelta> deltas) {
+        jdbcTemplate.batchUpdate(UPSERT_TRACK, deltas, deltas.size(), (ps, d) -> {
+            ps.setLong(1, d.userId());
+            ps.setString(2, d.period());
+            ps.setDate(3, Date.valueOf(d.periodStart()));
+            ps.setString(4, d.trackId());
+            ps.setString(5, d.trackName());
+            ps.setString(6, d.artistNames());
+            ps.setInt(7, d.plays());
+            ps.setLong(8, d.listeningMs());
+        });
+    }
+
+    public List<PeriodTotals> findTotals(long userId, String period, LocalDate from, LocalDate to) {
+        return jdbcTemplate.query(SELECT_TOTALS, (rs, i) -> new PeriodTotals(
+                rs.getDate("period_start").toLocalDate(),
+                rs.getInt("tracks_listened"),
+                rs.getLong("listening_ms") / 60_000,
+                rs.getInt("artists")
+        ), userId, period, Date.valueOf(from), Date.valueOf(to));
+    }
+
+    public List<ArtistStat> findTopArtists(long userId, String period, LocalDate from, LocalDate to, int limit) {
+        return jdbcTemplate.query(SELECT_TOP_ARTISTS, (rs, i) -> new ArtistStat(
+                rs.getString("artist"),
+                rs.getLong("plays"),
+                rs.getLong("listening_ms") / 60_000
+        ), userId, period, Date.valueOf(from), Date.valueOf(to), limit);
+    }
+
+    public List<TrackStat> findTopTracks(long userId, String period, LocalDate from, LocalDate to, int limit) {
+        return jdbcTemplate.query(SELECT_TOP_TRACKS, (rs, i) -> new TrackStat(
+                rs.getString("track_id"),
+                rs.getString("track_name"),
+                rs.getString("artist_names"),
+                rs.getLong("plays"),
+                rs.getLong("listening_ms") / 60_000
+        ), userId, period, Date.valueOf(from), Date.valueOf(to), limit);
+    }
+
+    public record TotalsDelta(long userId, String period, LocalDate periodStart, int plays, long listeningMs) {
+    }
+
+    public record ArtistDelta(long userId, String period, LocalDate periodStart, String artist,
+                              int plays, long listeningMs) {
+    }
+
+    public record TrackDelta(long userId, String period, LocalDate periodStart, String trackId, String trackName,
+                             String artistNames, int plays, long listeningMs) {
+    }
+
+    public record PeriodTotals(LocalDate periodStart, int tracksListened, long minutesListened, int uniqueArtists) {
+    }
+
+    public record ArtistStat(String artist, long plays, long minutesListened) {
+    }
+
+    public record TrackStat(String trackId, String trackName, String artistNames, long plays, long minutesListened) {
+    }
+}
@@ -0,0 +1,141 @@
+package com.soma.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.List;
+
+/**
+ * JDBC access to the listening history. {@code listening_statistics} is range-partitioned by
+ * month on {@code listened_at} (see db/migration), so it is not mapped as a JPA entity; rows are
+ * written with batched inserts instead.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ListeningStatisticsRepository {
+
+    private static final String INSERT_EVENT = """
+            INSERT INTO listening_statistics (user_id, platform, track_id, track_name, artist_names,
+                                              listened_at, play_duration_ms, context_type, context_id)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (user_id, platform, listened_at) DO NOTHING
+            """;
+
+    private static final String UPSERT_TOP_TRACK = """
+            INSERT INTO listening_top_tracks (user_id, time_range, rank, track_id, track_name, artist_names, captured_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?)
+            ON CONFLICT (user_id, time_range, rank) DO UPDATE
+                SET track_id = EXCLUDED.track_id,
+                    track_name = EXCLUDED.track_name,
+                    artist_names = EXCLUDED.artist_names,
+                    captured_at = EXCLUDED.captured_at
+            """;
+
+    private static final String UPDATE_CURSOR = """
+            UPDATE spotify_user_details
+               SET recently_played_cursor = COALESCE(?, recently_played_cursor),
+                   top_tracks_synced_at = COALESCE(?, top_tracks_synced_at)
+             WHERE id = ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Inserts the events in one JDBC batch. Plays that were already stored are skipped.
+     *
+     * @return per-event update counts, 1 for a new row and 0 for a duplicate
+     */
+    public int[] insertEvents(List<ListeningEvent> events) {
+        if (events.isEmpty()) {
+            return new int[0];
+        }
+        return jdbcTemplate.batchUpdate(INSERT_EVENT, events, events.size(), (ps, e) -> {
+            ps.setLong(1, e.userId());
+            ps.setString(2, e.platform());
+            ps.setString(3, e.trackId());
+            ps.setString(4, e.trackName());
+            ps.setString(5, String.join(", ", e.artists()));
+            ps.setTimestamp(6, Timestamp.from(e.listenedAt()));
+            if (e.playDurationMs() != null) {
+                ps.setInt(7, e.playDurationMs());
+            } else {
+                ps.setNull(7, Types.INTEGER);
+            }
+            ps.setString(8, e.contextType());
+            ps.setString(9, e.contextId());
+        })[0];
+    }
+
+    public void upsertTopTracks(List<TopTrack> tracks) {
+        jdbcTemplate.batchUpdate(UPSERT_TOP_TRACK, tracks, tracks.size(), (ps, t) -> {
+            ps.setLong(1, t.userId());
+            ps.setString(2, t.timeRange());
+            ps.setInt(3, t.rank());
+            ps.setString(4, t.trackId());
+            ps.setString(5, t.trackName());
+            ps.setString(6, t.artistNames());
+            ps.setTimestamp(7, Timestamp.from(t.capturedAt()));
+        });
+    }
+
+    /**
+     * Drops ranks that fell off a shorter top list. Each element carries the user, the time
+     * range and the last rank that is still valid.
+     */
+    public void deleteTopTracksBeyond(List<TopTrack> lastRanks) {
+        jdbcTemplate.batchUpdate("DELETE FROM listening_top_tracks WHERE user_id = ? AND time_range = ? AND rank > ?",
+                lastRanks, lastRanks.size(), (ps, t) -> {
+                    ps.setLong(1, t.userId());
+                    ps.setString(2, t.timeRange());
+                    ps.setInt(3, t.rank());
+                });
+    }
+
+    /**
+     * Advances the ingestion cursors of several Spotify accounts in one batch.
+     * {@code null} values keep the stored cursor.
+     */
+    public void updateCursors(List<IngestCursor> cursors) {
+        jdbcTemplate.batchUpdate(UPDATE_CURSOR, cursors, cursors.size(), (ps, c) -> {
+            if (c.recentlyPlayedCursor() != null) {
+                ps.setLong(1, c.recentlyPlayedCursor());
+            } else {
+                ps.setNull(1, Types.BIGINT);
+            }
+            ps.setTimestamp(2, c.topTracksSyncedAt() != null ? Timestamp.from(c.topTracksSyncedAt()) : null);
+            ps.setLong(3, c.detailsId());
+        });
+    }
+
+    /**
+     * Creates the monthly partition covering {@code month} unless it already exists.
+     */
+    public void createMonthlyPartition(YearMonth month) {
+        LocalDate from = month.atDay(1);
+        LocalDate to = month.plusMonths(1).atDay(1);
+        String partition = "listening_statistics_p%d_%02d".formatted(month.getYear(), month.getMonthValue());
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + partition
+                + " PARTITION OF listening_statistics FOR VALUES FROM ('"
+                + from.atStartOfDay().toInstant(ZoneOffset.UTC) + "') TO ('"
+                + to.atStartOfDay().toInstant(ZoneOffset.UTC) + "')");
+    }
+
+    public record ListeningEvent(long userId, String platform, String trackId, String trackName,
+                                 List<String> artists, Instant listenedAt, Integer playDurationMs,
+                                 String contextType, String contextId) {
+    }
+
+    public record TopTrack(long userId, String timeRange, int rank, String trackId, String trackName,
+                           String artistNames, Instant capturedAt) {
+    }
+
+    public record IngestCursor(long detailsId, Long recentlyPlayedCursor, Instant topTracksSyncedAt) {
+    }
+}
@@ -2,9 +2,33 @@ package com.soma.server.repository;
 
 import com.soma.server.entity.SpotifyUserDetails;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.List;
 import java.util.Optional;
 
 public interface SpotifyUserDetailsRepository extends JpaRepository<SpotifyUserDetails, Long> {
     Optional<SpotifyUserDetails> findBySpotifyUserId(String spotifyUserId);
+
+    Optional<SpotifyUserDetails> findBySpotifyUserIdAndUserId(String spotifyUserId, Long userId);
+
+    boolean existsBySpotifyUserIdAndUserId(String spotifyUserId, Long userId);
+
+    // keyset pagination, used by background jobs that walk every linked account
+    List<SpotifyUserDetails> findTop500ByIdGreaterThanAndUserIsNotNullOrderByIdAsc(Long id);
+
+    @Modifying
+    @Transactional
+    @Query("update SpotifyUserDetails d set d.accessToken = :accessToken where d.id = :id")
+    int updateAccessToken(@Param("id") Long id, @Param("accessToken") String accessToken);
+
+    // Spotify may rotate the refresh token on a refresh, the old one stops working
+    @Modifying
+    @Transactional
+    @Query("update SpotifyUserDetails d set d.accessToken = :accessToken, d.refreshToken = :refreshToken where d.id = :id")
+    int updateTokens(@Param("id") Long id, @Param("accessToken") String accessToken,
+                     @Param("refreshToken") String refreshToken);
 }
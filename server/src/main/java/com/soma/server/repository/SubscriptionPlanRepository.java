@@ -0,0 +1,49 @@
+package com.soma.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+/**
+ * Subscription plans and the plan of each linked Spotify account.
+ */
+@Repository
+@RequiredArgsConstructor
+public class SubscriptionPlanRepository {
+
+    public static final String FREE = "free";
+
+    private static final RowMapper<Plan> PLAN_MAPPER = (rs, i) -> new Plan(
+            rs.getString("plan_type"),
+            (Integer) rs.getObject("max_monthly_transfers"),
+            rs.getBoolean("priority_processing")
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * @return the user's plan, or the free plan if the user's plan is inactive
+     */
+    public Optional<Plan> findPlan(String spotifyUserId) {
+        return jdbcTemplate.query("""
+                        SELECT p.plan_type, p.max_monthly_transfers, p.priority_processing
+                          FROM subscription_plans p
+                          LEFT JOIN spotify_user_details u
+                            ON u.plan_type = p.plan_type AND u.spotify_user_id = ?
+                         WHERE p.is_active AND (u.id IS NOT NULL OR p.plan_type = 'free')
+                         ORDER BY u.id IS NULL
+                         LIMIT 1
+                        """, PLAN_MAPPER, spotifyUserId)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * @param maxMonthlyTransfers {@code null} for no limit
+     */
+    public record Plan(String planType, Integer maxMonthlyTransfers, boolean priorityProcessing) {
+    }
+}
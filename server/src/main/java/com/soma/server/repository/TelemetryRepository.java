@@ -0,0 +1,154 @@
+package com.soma.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * JDBC access to {@code api_usage_logs} and {@code error_logs}. Rows only arrive in batches from
+ * the telemetry drainer; the aggregates are computed over the raw rows of a recent window.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TelemetryRepository {
+
+    private static final String INSERT_USAGE = """
+            INSERT INTO api_usage_logs (spotify_user_id, platform, endpoint, request_method, response_code,
+                                        response_time_ms, correlation_id, created_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String INSERT_ERROR = """
+            INSERT INTO error_logs (spotify_user_id, platform, endpoint, error_type, error_message, severity,
+                                    correlation_id, created_at)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String USAGE_COLUMNS = """
+            SELECT platform, endpoint,
+                   count(*) AS calls,
+                   count(*) FILTER (WHERE response_code IS NULL OR response_code >= 400) AS errors,
+                   avg(response_time_ms) AS avg_ms,
+                   percentile_cont(0.95) WITHIN GROUP (ORDER BY response_time_ms) AS p95_ms
+              FROM api_usage_logs
+            """;
+
+    private static final RowMapper<UsageAggregate> USAGE_MAPPER = (rs, i) -> new UsageAggregate(
+            rs.getString("platform"),
+            rs.getString("endpoint"),
+            rs.getLong("calls"),
+            rs.getLong("errors"),
+            Math.round(rs.getDouble("avg_ms")),
+            Math.round(rs.getDouble("p95_ms"))
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void insertUsage(List<UsageRow> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT_USAGE, rows, rows.size(), (ps, r) -> {
+            ps.setString(1, r.spotifyUserId());
+            ps.setString(2, r.platform());
+            ps.setString(3, r.endpoint());
+            ps.setString(4, r.method());
+            if (r.status() > 0) {
+                ps.setInt(5, r.status());
+            } else {
+                ps.setNull(5, Types.INTEGER);
+            }
+            ps.setInt(6, r.latencyMillis());
+            ps.setString(7, r.correlationId());
+            ps.setTimestamp(8, Timestamp.from(r.at()));
+        });
+    }
+
+    public void insertErrors(List<ErrorRow> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT_ERROR, rows, rows.size(), (ps, r) -> {
+            ps.setString(1, r.spotifyUserId());
+            ps.setString(2, r.platform());
+            ps.setString(3, r.endpoint());
+            ps.setString(4, r.errorType());
+            ps.setString(5, r.message());
+            ps.setString(6, r.severity());
+            ps.setString(7, r.correlationId());
+            ps.setTimestamp(8, Timestamp.from(r.at()));
+        });
+    }
+
+    /**
+     * Calls of one user by platform and endpoint since {@code since}, the busiest first.
+     */
+    public List<UsageAggregate> usageByUser(String spotifyUserId, Instant since) {
+        return jdbcTemplate.query(USAGE_COLUMNS + """
+                 WHERE spotify_user_id = ? AND created_at >= ?
+                 GROUP BY platform, endpoint
+                 ORDER BY calls DESC
+                """, USAGE_MAPPER, spotifyUserId, Timestamp.from(since));
+    }
+
+    /**
+     * Calls of all users by platform and endpoint since {@code since}, optionally of one platform.
+     */
+    public List<UsageAggregate> usageByPlatform(String platform, Instant since) {
+        return jdbcTemplate.query(USAGE_COLUMNS + """
+                 WHERE (?::varchar IS NULL OR platform = ?) AND created_at >= ?
+                 GROUP BY platform, endpoint
+                 ORDER BY platform, calls DESC
+                """, USAGE_MAPPER, platform, platform, Timestamp.from(since));
+    }
+
+    public List<ErrorAggregate> errorsByPlatform(Instant since) {
+        return jdbcTemplate.query("""
+                SELECT platform, error_type, severity, count(*) AS errors, max(created_at) AS last_at
+                  FROM error_logs
+                 WHERE created_at >= ?
+                 GROUP BY platform, error_type, severity
+                 ORDER BY errors DESC
+                """, (rs, i) -> new ErrorAggregate(
+                rs.getString("platform"),
+                rs.getString("error_type"),
+                rs.getString("severity"),
+                rs.getLong("errors"),
+                rs.getTimestamp("last_at").toInstant()
+        ), Timestamp.from(since));
+    }
+
+    /**
+     * @return rows deleted from both tables
+     */
+    public int deleteOlderThan(Duration retention) {
+        Timestamp cutoff = Timestamp.from(Instant.now().minus(retention));
+        return jdbcTemplate.update("DELETE FROM api_usage_logs WHERE created_at < ?", cutoff)
+                + jdbcTemplate.update("DELETE FROM error_logs WHERE created_at < ?", cutoff);
+    }
+
+    /**
+     * @param status HTTP status, 0 if no response was received
+     */
+    public record UsageRow(String spotifyUserId, String platform, String endpoint, String method, int status,
+                           int latencyMillis, String correlationId, Instant at) {
+    }
+
+    public record ErrorRow(String spotifyUserId, String platform, String endpoint, String errorType,
+                           String message, String severity, String correlationId, Instant at) {
+    }
+
+    public record UsageAggregate(String platform, String endpoint, long calls, long errors, long avgMillis,
+                                 long p95Millis) {
+    }
+
+    public record ErrorAggregate(String platform, String errorType, String severity, long errors, Instant lastAt) {
+    }
+}
@@ -0,0 +1,179 @@
+package com.soma.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Durable work queue for transfer jobs, shared by every app instance.
+ * <p>
+ * Workers claim jobs with {@code FOR UPDATE SKIP LOCKED}, so instances never block on or
+ * double-claim each other's rows. A claimed job carries a lease that its worker extends with
+ * heartbeats; if a node dies the lease runs out and the job becomes claimable again.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TransferJobRepository {
+
+    public static final String QUEUED = "QUEUED";
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+
+    private static final String COLUMNS = """
+            id, job_type, spotify_user_id, payload, progress, status, attempts, max_attempts,
+            locked_by, lease_until, error, created_at, finished_at
+            """;
+
+    private static final String CLAIM = """
+            UPDATE transfer_jobs
+               SET status = 'RUNNING',
+                   attempts = attempts + 1,
+                   locked_by = ?,
+                   lease_until = now() + ? * interval '1 millisecond',
+                   heartbeat_at = now(),
+                   updated_at = now()
+             WHERE id IN (SELECT id
+                            FROM transfer_jobs
+                           WHERE status = 'QUEUED' AND run_after <= now()
+                           ORDER BY priority DESC, run_after
+                           LIMIT ?
+                             FOR UPDATE SKIP LOCKED)
+            RETURNING\s""" + COLUMNS;
+
+    // jobs whose worker stopped heartbeating go back to the queue, or fail when out of attempts
+    private static final String RELEASE_EXPIRED = """
+            UPDATE transfer_jobs
+               SET status = CASE WHEN attempts >= max_attempts THEN 'FAILED' ELSE 'QUEUED' END,
+                   error = 'Lease expired on ' || coalesce(locked_by, 'unknown node'),
+                   finished_at = CASE WHEN attempts >= max_attempts THEN now() END,
+                   run_after = now(),
+                   locked_by = NULL,
+                   lease_until = NULL,
+                   updated_at = now()
+             WHERE id IN (SELECT id
+                            FROM transfer_jobs
+                           WHERE status = 'RUNNING' AND lease_until < now()
+                             FOR UPDATE SKIP LOCKED)
+            RETURNING\s""" + COLUMNS;
+
+    private static final String RETRY = """
+            UPDATE transfer_jobs
+               SET status = CASE WHEN attempts >= max_attempts THEN 'FAILED' ELSE 'QUEUED' END,
+                   finished_at = CASE WHEN attempts >= max_attempts THEN now() END,
+                   run_after = now() + ? * interval '1 millisecond',
+                   error = ?,
+                   progress = coalesce(?::jsonb, progress),
+                   locked_by = NULL,
+                   lease_until = NULL,
+                   updated_at = now()
+             WHERE id = ? AND locked_by = ? AND status = 'RUNNING'
+            """;
+
+    private static final RowMapper<QueuedJob> JOB_MAPPER = (rs, i) -> new QueuedJob(
+            rs.getObject("id", UUID.class),
+            rs.getString("job_type"),
+            rs.getString("spotify_user_id"),
+            rs.getString("payload"),
+            rs.getString("progress"),
+            rs.getString("status"),
+            rs.getInt("attempts"),
+            rs.getInt("max_attempts"),
+            rs.getString("locked_by"),
+            toInstant(rs.getTimestamp("lease_until")),
+            rs.getString("error"),
+            toInstant(rs.getTimestamp("created_at")),
+            toInstant(rs.getTimestamp("finished_at"))
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * @param priority due jobs with a higher priority are claimed first
+     */
+    public UUID enqueue(String jobType, String spotifyUserId, String payload, int maxAttempts, int priority) {
+        UUID id = UUID.randomUUID();
+        jdbcTemplate.update("""
+                INSERT INTO transfer_jobs (id, job_type, spotify_user_id, payload, max_attempts, priority)
+                VALUES (?, ?, ?, ?::jsonb, ?, ?)
+                """, id, jobType, spotifyUserId, payload, maxAttempts, priority);
+        return id;
+    }
+
+    public Optional<QueuedJob> findById(UUID id) {
+        return jdbcTemplate.query("SELECT " + COLUMNS + " FROM transfer_jobs WHERE id = ?", JOB_MAPPER, id)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Atomically moves up to {@code limit} due jobs to RUNNING under this node's lease.
+     */
+    public List<QueuedJob> claim(String nodeId, Duration lease, int limit) {
+        return jdbcTemplate.query(CLAIM, JOB_MAPPER, nodeId, lease.toMillis(), limit);
+    }
+
+    /**
+     * @return the released jobs, QUEUED again or FAILED
+     */
+    public List<QueuedJob> releaseExpiredLeases() {
+        return jdbcTemplate.query(RELEASE_EXPIRED, JOB_MAPPER);
+    }
+
+    /**
+     * Extends the lease and stores the latest progress snapshot.
+     *
+     * @return {@code false} if this node no longer owns the job
+     */
+    public boolean heartbeat(UUID id, String nodeId, Duration lease, String progress) {
+        return jdbcTemplate.update("""
+                UPDATE transfer_jobs
+                   SET lease_until = now() + ? * interval '1 millisecond',
+                       heartbeat_at = now(),
+                       progress = coalesce(?::jsonb, progress),
+                       updated_at = now()
+                 WHERE id = ? AND locked_by = ? AND status = 'RUNNING'
+                """, lease.toMillis(), progress, id, nodeId) == 1;
+    }
+
+    public boolean complete(UUID id, String nodeId, String progress) {
+        return jdbcTemplate.update("""
+                UPDATE transfer_jobs
+                   SET status = 'COMPLETED',
+                       progress = ?::jsonb,
+                       error = NULL,
+                       finished_at = now(),
+                       locked_by = NULL,
+                       lease_until = NULL,
+                       updated_at = now()
+                 WHERE id = ? AND locked_by = ? AND status = 'RUNNING'
+                """, progress, id, nodeId) == 1;
+    }
+
+    /**
+     * Puts a failed attempt back into the queue after {@code backoff}, or marks the job FAILED
+     * once it has used all of its attempts.
+     *
+     * @param progress progress of the failed attempt, kept for the next one; {@code null} keeps the stored one
+     */
+    public boolean retryOrFail(UUID id, String nodeId, Duration backoff, String error, String progress) {
+        return jdbcTemplate.update(RETRY, backoff.toMillis(), error, progress, id, nodeId) == 1;
+    }
+
+    private static Instant toInstant(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toInstant() : null;
+    }
+
+    public record QueuedJob(UUID id, String jobType, String spotifyUserId, String payload, String progress,
+                            String status, int attempts, int maxAttempts, String lockedBy, Instant leaseUntil,
+                            String error, Instant createdAt, Instant finishedAt) {
+    }
+}
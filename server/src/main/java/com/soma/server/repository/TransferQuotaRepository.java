@@ -0,0 +1,42 @@
+package com.soma.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+
+/**
+ * Transfers started per user and calendar month, summed over all app instances.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TransferQuotaRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public int findUsage(String spotifyUserId, LocalDate month) {
+        return jdbcTemplate.query("""
+                        SELECT transfers FROM transfer_quota_usage WHERE spotify_user_id = ? AND month = ?
+                        """, (rs, i) -> rs.getInt(1), spotifyUserId, month)
+                .stream()
+                .findFirst()
+                .orElse(0);
+    }
+
+    /**
+     * Adds transfers counted on this node.
+     *
+     * @return the month's total, including transfers counted by other nodes
+     */
+    public int addUsage(String spotifyUserId, LocalDate month, int transfers) {
+        return jdbcTemplate.queryForObject("""
+                INSERT INTO transfer_quota_usage (spotify_user_id, month, transfers)
+                VALUES (?, ?, ?)
+                ON CONFLICT (spotify_user_id, month) DO UPDATE
+                   SET transfers = transfer_quota_usage.transfers + EXCLUDED.transfers,
+                       updated_at = now()
+                RETURNING transfers
+                """, Integer.class, spotifyUserId, month, transfers);
+    }
+}
@@ -0,0 +1,143 @@
+package com.soma.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
+import java.sql.Types;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * JDBC access to {@code transfer_track_results}, the per track outcome of bulk transfers.
+ * <p>
+ * Results are read back with a server side cursor, {@code soma.export.fetch-size} rows at a time,
+ * so exporting a job holds one fetch worth of rows in memory however many tracks it had.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TransferResultRepository {
+
+    public static final String MATCHED = "MATCHED";
+    public static final String NOT_FOUND = "NOT_FOUND";
+    public static final String FAILED = "FAILED";
+
+    // a retried job may list its sources in a different order, rows of either key are replaced
+    private static final String DELETE_SOURCE = """
+            DELETE FROM transfer_track_results
+             WHERE job_id = ? AND (source_index = ? OR source_link = ?)
+            """;
+
+    private static final String INSERT = """
+            INSERT INTO transfer_track_results (job_id, source_index, position, source_link, playlist_name,
+                                               artists, title, status, spotify_uri, confidence, cached)
+            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+            """;
+
+    private static final String SELECT = """
+            SELECT source_index, position, source_link, playlist_name, artists, title, status, spotify_uri,
+                   confidence, cached
+              FROM transfer_track_results
+             WHERE job_id = ?
+             ORDER BY source_index, position
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${soma.export.fetch-size:1000}")
+    private int fetchSize;
+
+    /**
+     * Replaces the results of one source of a job with {@code rows}.
+     */
+    @Transactional
+    public void replaceSource(UUID jobId, int sourceIndex, String sourceLink, List<TrackResult> rows) {
+        jdbcTemplate.update(DELETE_SOURCE, jobId, sourceIndex, sourceLink);
+        if (rows.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT, rows, rows.size(), (ps, r) -> {
+            ps.setObject(1, jobId);
+            ps.setInt(2, r.sourceIndex());
+            ps.setInt(3, r.position());
+            ps.setString(4, r.sourceLink());
+            ps.setString(5, r.playlistName());
+            ps.setString(6, r.artists());
+            ps.setString(7, r.title());
+            ps.setString(8, r.status());
+            ps.setString(9, r.spotifyUri());
+            if (Double.isNaN(r.confidence())) {
+                ps.setNull(10, Types.REAL);
+            } else {
+                ps.setFloat(10, (float) r.confidence());
+            }
+            ps.setBoolean(11, r.cached());
+        });
+    }
+
+    /**
+     * Streams the results of a job in source order. Runs in a transaction, which the cursor needs,
+     * on the primary: a replica may not have the last results of a job that has just finished.
+     */
+    @Transactional
+    public void forEach(UUID jobId, ResultHandler handler) throws IOException {
+        try {
+            jdbcTemplate.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement(SELECT);
+                ps.setFetchSize(fetchSize);
+                ps.setObject(1, jobId);
+                return ps;
+            }, (RowCallbackHandler) rs -> {
+                double confidence = rs.getFloat("confidence");
+                if (rs.wasNull()) {
+                    confidence = Double.NaN;
+                }
+                TrackResult result = new TrackResult(
+                        rs.getInt("source_index"),
+                        rs.getInt("position"),
+                        rs.getString("source_link"),
+                        rs.getString("playlist_name"),
+                        rs.getString("artists"),
+                        rs.getString("title"),
+                        rs.getString("status"),
+                        rs.getString("spotify_uri"),
+                        confidence,
+                        rs.getBoolean("cached"));
+                try {
+                    handler.handle(result);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @FunctionalInterface
+    public interface ResultHandler {
+        void handle(TrackResult result) throws IOException;
+    }
+
+    /**
+     * Outcome for one source track.
+     *
+     * @param sourceIndex  index of the source among the job's sources, from 0
+     * @param position     index of the track in its source playlist, from 0
+     * @param playlistName title of the source playlist, {@code null} if it has none
+     * @param status       {@link #MATCHED}, {@link #NOT_FOUND} or {@link #FAILED} (the search failed)
+     * @param spotifyUri   the matched track, {@code null} unless matched
+     * @param confidence   match score, {@code NaN} if unknown
+     * @param cached       whether the match came from the match cache instead of a search
+     */
+    public record TrackResult(int sourceIndex, int position, String sourceLink, String playlistName,
+                              String artists, String title, String status, String spotifyUri,
+                              double confidence, boolean cached) {
+    }
+}
@@ -0,0 +1,98 @@
+package com.soma.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Claims on transfer submissions, shared by every app instance.
+ * <p>
+ * A submission is claimed by inserting its key. While the row is RUNNING or COMPLETED and not
+ * expired, other claims of the same key fail and see the row instead; a RUNNING row expires
+ * after its lease so that a claim held by a dead node is taken over, a COMPLETED one after the
+ * window in which its result is replayed to duplicates.
+ */
+@Repository
+@RequiredArgsConstructor
+public class TransferSubmissionRepository {
+
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+
+    private static final String CLAIM = """
+            INSERT INTO transfer_submissions (submission_key, kind, spotify_user_id, status, locked_by, expires_at)
+            VALUES (?, ?, ?, 'RUNNING', ?, now() + ? * interval '1 millisecond')
+            ON CONFLICT (submission_key) DO UPDATE
+               SET kind = EXCLUDED.kind,
+                   spotify_user_id = EXCLUDED.spotify_user_id,
+                   status = 'RUNNING',
+                   result = NULL,
+                   locked_by = EXCLUDED.locked_by,
+                   created_at = now(),
+                   finished_at = NULL,
+                   expires_at = EXCLUDED.expires_at
+             WHERE transfer_submissions.expires_at < now()
+            """;
+
+    private static final RowMapper<Submission> SUBMISSION_MAPPER = (rs, i) -> new Submission(
+            rs.getString("submission_key"),
+            rs.getString("status"),
+            rs.getString("result"),
+            rs.getString("locked_by")
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * @param lease how long the claim holds if this node never completes or releases it
+     * @return {@code true} if this node now owns the submission and should run it
+     */
+    public boolean claim(String key, String kind, String spotifyUserId, String nodeId, Duration lease) {
+        return jdbcTemplate.update(CLAIM, key, kind, spotifyUserId, nodeId, lease.toMillis()) == 1;
+    }
+
+    public Optional<Submission> find(String key) {
+        return jdbcTemplate.query("""
+                        SELECT submission_key, status, result, locked_by
+                          FROM transfer_submissions
+                         WHERE submission_key = ? AND expires_at >= now()
+                        """, SUBMISSION_MAPPER, key)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Stores the result, which is returned to duplicates for {@code retention}.
+     */
+    public boolean complete(String key, String nodeId, String result, Duration retention) {
+        return jdbcTemplate.update("""
+                UPDATE transfer_submissions
+                   SET status = 'COMPLETED',
+                       result = ?,
+                       finished_at = now(),
+                       expires_at = now() + ? * interval '1 millisecond'
+                 WHERE submission_key = ? AND locked_by = ? AND status = 'RUNNING'
+                """, result, retention.toMillis(), key, nodeId) == 1;
+    }
+
+    /**
+     * Drops a claim whose transfer failed, the next submission with this key runs it again.
+     */
+    public boolean release(String key, String nodeId) {
+        return jdbcTemplate.update("""
+                DELETE FROM transfer_submissions
+                 WHERE submission_key = ? AND locked_by = ? AND status = 'RUNNING'
+                """, key, nodeId) == 1;
+    }
+
+    public int deleteExpired() {
+        return jdbcTemplate.update("DELETE FROM transfer_submissions WHERE expires_at < now()");
+    }
+
+    public record Submission(String key, String status, String result, String lockedBy) {
+    }
+}
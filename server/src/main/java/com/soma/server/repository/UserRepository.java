@@ -2,12 +2,29 @@ package com.soma.server.repository;
 
 import com.soma.server.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Optional;
 
+// login, token refresh and registration read users right after they were written, all of it runs on
+// the primary; only the public lookups of UsersController opt into a read replica
 public interface UserRepository extends JpaRepository<User, Long> {
+    // inherited as read-only, which would send it to a replica
+    @Override
+    @Transactional
+    Optional<User> findById(Long id);
+
     Optional<User> findByEmail(String email);
     Optional<User> findByUsername(String username);
     boolean existsByEmail(String email);
     boolean existsByUsername(String username);
+
+    // only if the hash is still the one it replaces, a concurrent password change wins
+    @Modifying
+    @Transactional
+    @Query("update User u set u.password = :password where u.id = :id and u.password = :previous")
+    int updatePassword(@Param("id") Long id, @Param("previous") String previous, @Param("password") String password);
 }
@@ -0,0 +1,183 @@
+package com.soma.server.security;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * BCrypt password encoder that hashes on its own bounded pool instead of the calling request
+ * thread, so that a burst of signups or logins cannot take every request thread.
+ * <p>
+ * At most {@code threads} hashes run at a time and {@code queueSize} more may wait. A hash that
+ * finds the queue full, or that would have to wait and not be done within {@code maxWait} at the
+ * recent hashing time, fails at once with {@link BusyException}. A hash that finds a thread free
+ * always runs, so a stale estimate after one slow hash is corrected by the next ones. Hashing
+ * time is published as {@code soma.auth.password.hash} per operation, the waiting hashes as
+ * {@code soma.auth.password.queue} and refusals in {@code soma.auth.password.rejected}.
+ */
+public class PasswordHasher implements PasswordEncoder, AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PasswordHasher.class);
+
+    private final BCryptPasswordEncoder delegate;
+    private final ThreadPoolExecutor executor;
+    private final int threads;
+    private final long maxWaitNanos;
+    private final Timer encodeTimer;
+    private final Timer matchTimer;
+    private final Counter rejected;
+
+    // callers waiting for a hash, queued or running
+    private final AtomicInteger admitted = new AtomicInteger();
+    // moving average of the recent hashes, written by the pool threads
+    private final AtomicLong hashNanos = new AtomicLong();
+
+    public PasswordHasher(int cost, int threads, int queueSize, Duration maxWait, MeterRegistry meterRegistry) {
+        this.delegate = new BCryptPasswordEncoder(cost);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+            Thread thread = new Thread(runnable, "password-hash-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.threads = threads;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.encodeTimer = hashTimer(meterRegistry, "encode");
+        this.matchTimer = hashTimer(meterRegistry, "matches");
+        this.rejected = Counter.builder("soma.auth.password.rejected").register(meterRegistry);
+        Gauge.builder("soma.auth.password.queue", executor, pool -> pool.getQueue().size()).register(meterRegistry);
+        Gauge.builder("soma.auth.password.cost", () -> cost).register(meterRegistry);
+    }
+
+    /**
+     * Finds the BCrypt cost to hash with: the highest one, from {@code minCost} up to
+     * {@code maxCost}, at which a hash on this machine takes at most {@code target}. Each step up
+     * doubles the hashing time.
+     */
+    public static int calibrate(Duration target, int minCost, int maxCost) {
+        long targetNanos = target.toNanos();
+        int cost = minCost;
+        // the first hash includes class loading and JIT, measure the second
+        time(cost);
+        long nanos = time(cost);
+        while (cost < maxCost && nanos * 2 <= targetNanos) {
+            cost++;
+            nanos = time(cost);
+        }
+        logger.info("Password hashing calibrated to BCrypt cost {}, {} ms per hash (target {} ms)",
+                cost, TimeUnit.NANOSECONDS.toMillis(nanos), target.toMillis());
+        return cost;
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return run(encodeTimer, () -> delegate.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return run(matchTimer, () -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    /**
+     * @return whether the hash was made with a lower cost than the current one; a cheap check
+     * of the hash prefix, not run on the pool
+     */
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        return delegate.upgradeEncoding(encodedPassword);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private <T> T run(Timer timer, Supplier<T> hash) {
+        // refuse right away what would wait and not be done within maxWait at the recent hashing
+        // time, rather than at the end of it
+        int ahead = admitted.incrementAndGet();
+        try {
+            if (ahead > threads && ((ahead - 1) / threads + 1) * hashNanos.get() > maxWaitNanos) {
+                rejected.increment();
+                throw new BusyException();
+            }
+            return execute(timer, hash);
+        } finally {
+            admitted.decrementAndGet();
+        }
+    }
+
+    private <T> T execute(Timer timer, Supplier<T> hash) {
+        Future<T> future;
+        try {
+            future = executor.submit(() -> {
+                long started = System.nanoTime();
+                T result = hash.get();
+                long nanos = System.nanoTime() - started;
+                timer.record(nanos, TimeUnit.NANOSECONDS);
+                hashNanos.updateAndGet(average -> average == 0 ? nanos : (average * 7 + nanos) / 8);
+                return result;
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new BusyException();
+        }
+        try {
+            return future.get(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejected.increment();
+            throw new BusyException();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new BusyException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static long time(int cost) {
+        BCryptPasswordEncoder encoder = new BCryptPasswordEncoder(cost);
+        long started = System.nanoTime();
+        encoder.encode("calibration");
+        return System.nanoTime() - started;
+    }
+
+    private static Timer hashTimer(MeterRegistry meterRegistry, String operation) {
+        return Timer.builder("soma.auth.password.hash").tag("operation", operation).register(meterRegistry);
+    }
+
+    /**
+     * Password hashing is saturated; the request should be retried shortly.
+     */
+    public static class BusyException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public BusyException() {
+            super("Too many password checks in progress, try again shortly");
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package com.soma.server.security;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Issues and verifies the signed access and refresh tokens that replace login sessions.
+ * <p>
+ * Tokens are compact JWTs signed with HMAC-SHA256 and carry everything a request needs to be
+ * authenticated, so no node keeps sessions and no request looks the user up. Tokens are signed
+ * with the first of {@code soma.auth.token-secrets} and accepted with any of them, which lets a
+ * secret be rotated without logging everybody out. Every node must share the secrets; without any,
+ * a node signs with a random key of its own, or refuses to start when
+ * {@code soma.auth.require-token-secrets} is set, as in production. The users of
+ * {@code soma.auth.admin-emails} are authenticated with the {@link #ADMIN_ROLE} role.
+ * <p>
+ * Verified access tokens are kept for {@code soma.auth.principal-cache-ttl} in a local cache, a
+ * request with a recently seen token costs one lookup instead of a signature check and a JSON
+ * parse. Lookups are counted in {@code soma.auth.tokens} by outcome.
+ */
+@Service
+public class TokenService {
+
+    public static final String ACCESS = "access";
+    public static final String REFRESH = "refresh";
+    public static final String ADMIN_ROLE = "ADMIN";
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenService.class);
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final String HEADER = base64("{\"alg\":\"HS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8));
+    private static final int MIN_SECRET_BYTES = 32;
+
+    private final ObjectMapper objectMapper;
+    private final List<SecretKeySpec> keys = new ArrayList<>();
+    private final ThreadLocal<Mac[]> macs;
+    private final Duration accessTtl;
+    private final Duration refreshTtl;
+    private final Set<String> adminEmails;
+    private final Cache<String, CachedPrincipal> principals;
+    private final Counter cached;
+    private final Counter verified;
+    private final Counter rejected;
+
+    public TokenService(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                        @Value("${soma.auth.token-secrets:}") List<String> secrets,
+                        @Value("${soma.auth.require-token-secrets:false}") boolean requireSecrets,
+                        @Value("${soma.auth.access-token-ttl:PT15M}") Duration accessTtl,
+                        @Value("${soma.auth.refresh-token-ttl:P14D}") Duration refreshTtl,
+                        @Value("${soma.auth.principal-cache-ttl:PT1M}") Duration principalCacheTtl,
+                        @Value("${soma.auth.principal-cache-size:10000}") long principalCacheSize,
+                        @Value("${soma.auth.admin-emails:}") List<String> adminEmails) {
+        this.objectMapper = objectMapper;
+        this.adminEmails = adminEmails.stream()
+                .filter(email -> !email.isBlank())
+                .map(email -> email.trim().toLowerCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+        this.accessTtl = accessTtl;
+        this.refreshTtl = refreshTtl;
+        for (String secret : secrets) {
+            if (secret.isBlank()) {
+                continue;
+            }
+            byte[] bytes = Base64.getDecoder().decode(secret.trim());
+            if (bytes.length < MIN_SECRET_BYTES) {
+                throw new IllegalArgumentException("Token secrets must be at least " + MIN_SECRET_BYTES + " bytes");
+            }
+            keys.add(new SecretKeySpec(bytes, ALGORITHM));
+        }
+        if (keys.isEmpty() && requireSecrets) {
+            throw new IllegalStateException("soma.auth.token-secrets is not set, every node needs the same secrets "
+                    + "to accept the tokens of the others");
+        }
+        if (keys.isEmpty()) {
+            byte[] bytes = new byte[MIN_SECRET_BYTES];
+            new SecureRandom().nextBytes(bytes);
+            keys.add(new SecretKeySpec(bytes, ALGORITHM));
+            logger.warn("soma.auth.token-secrets is not set, tokens are signed with a random key and only valid "
+                    + "on this node until it restarts");
+        }
+        this.macs = ThreadLocal.withInitial(this::newMacs);
+        this.principals = Caffeine.newBuilder()
+                .maximumSize(principalCacheSize)
+                .expireAfterWrite(principalCacheTtl)
+                .build();
+        this.cached = tokens(meterRegistry, "cached");
+        this.verified = tokens(meterRegistry, "verified");
+        this.rejected = tokens(meterRegistry, "rejected");
+    }
+
+    public TokenPair issue(long userId, String email) {
+        Instant now = Instant.now();
+        return new TokenPair(
+                sign(new Claims(userId, email, ACCESS, now.getEpochSecond(), now.plus(accessTtl).getEpochSecond())),
+                sign(new Claims(userId, email, REFRESH, now.getEpochSecond(), now.plus(refreshTtl).getEpochSecond())),
+                accessTtl.toSeconds());
+    }
+
+    /**
+     * @return the authenticated user of a valid access token, empty if the token is invalid or expired
+     */
+    public Optional<Authentication> authenticate(String accessToken) {
+        long now = System.currentTimeMillis();
+        CachedPrincipal principal = principals.getIfPresent(accessToken);
+        if (principal != null && principal.expiresAtMillis() > now) {
+            cached.increment();
+            return Optional.of(principal.authentication());
+        }
+        Optional<Claims> claims = verify(accessToken, ACCESS);
+        if (claims.isEmpty()) {
+            rejected.increment();
+            return Optional.empty();
+        }
+        verified.increment();
+        List<GrantedAuthority> authorities = adminEmails.contains(claims.get().email().toLowerCase(Locale.ROOT))
+                ? List.of(new SimpleGrantedAuthority("ROLE_" + ADMIN_ROLE))
+                : List.of();
+        User user = new User(claims.get().email(), "", authorities);
+        UsernamePasswordAuthenticationToken authentication =
+                UsernamePasswordAuthenticationToken.authenticated(user, null, user.getAuthorities());
+        authentication.setDetails(claims.get());
+        principals.put(accessToken, new CachedPrincipal(authentication, claims.get().expiresAt() * 1000));
+        return Optional.of(authentication);
+    }
+
+    /**
+     * @return id of the user that an authentication of {@link #authenticate} belongs to
+     */
+    public static long userId(Authentication authentication) {
+        return ((Claims) authentication.getDetails()).userId();
+    }
+
+    /**
+     * Checks the signature, type and expiry of a token.
+     *
+     * @param type {@link #ACCESS} or {@link #REFRESH}
+     */
+    public Optional<Claims> verify(String token, String type) {
+        int first = token.indexOf('.');
+        int second = token.indexOf('.', first + 1);
+        if (first < 0 || second < 0 || token.indexOf('.', second + 1) >= 0) {
+            return Optional.empty();
+        }
+        byte[] signature;
+        try {
+            signature = Base64.getUrlDecoder().decode(token.substring(second + 1));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+        byte[] signed = token.substring(0, second).getBytes(StandardCharsets.US_ASCII);
+        boolean valid = false;
+        for (Mac mac : macs.get()) {
+            if (MessageDigest.isEqual(mac.doFinal(signed), signature)) {
+                valid = true;
+                break;
+            }
+        }
+        if (!valid) {
+            return Optional.empty();
+        }
+        try {
+            Claims claims = objectMapper.readValue(Base64.getUrlDecoder().decode(token.substring(first + 1, second)),
+                    Claims.class);
+            if (!type.equals(claims.type()) || claims.expiresAt() <= Instant.now().getEpochSecond()) {
+                return Optional.empty();
+            }
+            return Optional.of(claims);
+        } catch (IllegalArgumentException | IOException e) {
+            return Optional.empty();
+        }
+    }
+
+    private String sign(Claims claims) {
+        try {
+            String unsigned = HEADER + "." + base64(objectMapper.writeValueAsBytes(claims));
+            byte[] signature = macs.get()[0].doFinal(unsigned.getBytes(StandardCharsets.US_ASCII));
+            return unsigned + "." + base64(signature);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize token claims", e);
+        }
+    }
+
+    private Mac[] newMacs() {
+        try {
+            Mac[] result = new Mac[keys.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = Mac.getInstance(ALGORITHM);
+                result[i].init(keys.get(i));
+            }
+            return result;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        }
+    }
+
+    private static Counter tokens(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("soma.auth.tokens").tag("outcome", outcome).register(meterRegistry);
+    }
+
+    private static String base64(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Token payload, with the registered JWT claim names.
+     *
+     * @param userId    id of the user in {@code users}
+     * @param issuedAt  epoch seconds
+     * @param expiresAt epoch seconds
+     */
+    public record Claims(@JsonProperty("uid") long userId,
+                         @JsonProperty("sub") String email,
+                         @JsonProperty("typ") String type,
+                         @JsonProperty("iat") long issuedAt,
+                         @JsonProperty("exp") long expiresAt) {
+    }
+
+    /**
+     * @param expiresIn lifetime of the access token in seconds
+     */
+    public record TokenPair(String accessToken, String refreshToken, long expiresIn) {
+    }
+
+    private record CachedPrincipal(Authentication authentication, long expiresAtMillis) {
+    }
+}
@@ -0,0 +1,51 @@
+package com.soma.server.service;
+
+import com.soma.server.repository.TelemetryRepository;
+import com.soma.server.repository.TelemetryRepository.ErrorAggregate;
+import com.soma.server.repository.TelemetryRepository.UsageAggregate;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Usage and error aggregates of outbound API calls over the last hours, from the rows written
+ * by {@link com.soma.server.telemetry.ApiTelemetry}.
+ */
+@Service
+@RequiredArgsConstructor
+@Transactional(readOnly = true)
+public class ApiUsageService {
+
+    private final TelemetryRepository telemetryRepository;
+
+    @Value("${soma.telemetry.retention:P30D}")
+    private Duration retention;
+
+    public List<UsageAggregate> getUserUsage(String spotifyUserId, int hours) {
+        return telemetryRepository.usageByUser(spotifyUserId, since(hours));
+    }
+
+    /**
+     * @param platform {@code spotify} or {@code yandex}, {@code null} for both
+     */
+    public List<UsageAggregate> getPlatformUsage(String platform, int hours) {
+        return telemetryRepository.usageByPlatform(platform, since(hours));
+    }
+
+    public List<ErrorAggregate> getErrors(int hours) {
+        return telemetryRepository.errorsByPlatform(since(hours));
+    }
+
+    private Instant since(int hours) {
+        long maxHours = retention.toHours();
+        if (hours < 1 || hours > maxHours) {
+            throw new IllegalArgumentException("hours must be between 1 and " + maxHours);
+        }
+        return Instant.now().minus(Duration.ofHours(hours));
+    }
+}
@@ -0,0 +1,74 @@
+package com.soma.server.service;
+
+import com.soma.server.entity.User;
+import com.soma.server.repository.UserRepository;
+import com.soma.server.security.TokenService;
+import com.soma.server.security.TokenService.Claims;
+import com.soma.server.security.TokenService.TokenPair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+/**
+ * Exchanges credentials and refresh tokens for token pairs. These are the only requests that
+ * look the user up, everything else is authenticated from the access token alone.
+ */
+@Service
+public class AuthService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthService.class);
+
+    private final UserRepository userRepository;
+    private final PasswordEncoder passwordEncoder;
+    private final TokenService tokenService;
+
+    // compared against for unknown emails, so that they take as long as a wrong password
+    private final String unknownUserHash;
+
+    public AuthService(UserRepository userRepository, PasswordEncoder passwordEncoder, TokenService tokenService) {
+        this.userRepository = userRepository;
+        this.passwordEncoder = passwordEncoder;
+        this.tokenService = tokenService;
+        this.unknownUserHash = passwordEncoder.encode("unknown-user");
+    }
+
+    public Optional<TokenPair> login(String email, String rawPassword) {
+        Optional<User> user = userRepository.findByEmail(email);
+        if (user.isEmpty()) {
+            passwordEncoder.matches(rawPassword, unknownUserHash);
+            return Optional.empty();
+        }
+        if (!passwordEncoder.matches(rawPassword, user.get().getPassword())) {
+            return Optional.empty();
+        }
+        if (passwordEncoder.upgradeEncoding(user.get().getPassword())) {
+            rehash(user.get(), rawPassword);
+        }
+        return Optional.of(tokenService.issue(user.get().getId(), user.get().getEmail()));
+    }
+
+    // the hash predates the current cost; the password is at hand only now, on login
+    private void rehash(User user, String rawPassword) {
+        try {
+            userRepository.updatePassword(user.getId(), user.getPassword(), passwordEncoder.encode(rawPassword));
+        } catch (RuntimeException e) {
+            logger.warn("Could not rehash the password of user {}: {}", user.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Issues a new pair for a valid refresh token whose user still exists under the same email.
+     */
+    public Optional<TokenPair> refresh(String refreshToken) {
+        Optional<Claims> claims = tokenService.verify(refreshToken, TokenService.REFRESH);
+        if (claims.isEmpty()) {
+            return Optional.empty();
+        }
+        return userRepository.findById(claims.get().userId())
+                .filter(user -> user.getEmail().equals(claims.get().email()))
+                .map(user -> tokenService.issue(user.getId(), user.getEmail()));
+    }
+}
@@ -0,0 +1,85 @@
+package com.soma.server.service;
+
+import lombok.Getter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of a whole-library transfer. Updated by the worker thread and persisted with every
+ * queue heartbeat, so status requests on any node can read it.
+ */
+@Getter
+public class BulkTransferProgress {
+
+    public enum Phase { PARSING, MATCHING, WRITING, DONE }
+
+    private final List<PlaylistResult> playlists = new CopyOnWriteArrayList<>();
+
+    private volatile Phase phase = Phase.PARSING;
+    private volatile int sources;
+    private volatile int tracksTotal;
+    private volatile int uniqueTracks;
+
+    private final AtomicInteger resolved = new AtomicInteger();
+    private final AtomicInteger matched = new AtomicInteger();
+
+    public int getResolved() {
+        return resolved.get();
+    }
+
+    public int getMatched() {
+        return matched.get();
+    }
+
+    void setPhase(Phase phase) {
+        this.phase = phase;
+    }
+
+    void setSources(int sources) {
+        this.sources = sources;
+    }
+
+    void setTracks(int tracksTotal, int uniqueTracks) {
+        this.tracksTotal = tracksTotal;
+        this.uniqueTracks = uniqueTracks;
+    }
+
+    /**
+     * Replaces the result of the same source, or appends it.
+     */
+    void putPlaylist(PlaylistResult result) {
+        for (int i = 0; i < playlists.size(); i++) {
+            if (playlists.get(i).sourceLink().equals(result.sourceLink())) {
+                playlists.set(i, result);
+                return;
+            }
+        }
+        playlists.add(result);
+    }
+
+    /**
+     * @return whether a playlist was written completely
+     */
+    boolean wrotePlaylist() {
+        return playlists.stream().anyMatch(result -> result.error() == null);
+    }
+
+    void trackResolved(boolean found) {
+        resolved.incrementAndGet();
+        if (found) {
+            matched.incrementAndGet();
+        }
+    }
+
+    /**
+     * Outcome for one source playlist.
+     *
+     * @param spotifyPlaylistId set as soon as the playlist was created, also when adding its tracks failed
+     * @param error             {@code null} once the playlist is complete
+     */
+    public record PlaylistResult(String sourceLink, String name, String spotifyPlaylistId,
+                                 int tracks, int added, String error) {
+    }
+}
@@ -0,0 +1,472 @@
+package com.soma.server.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.soma.server.entity.SpotifyUserDetails;
+import com.soma.server.logging.CorrelationIdFilter;
+import com.soma.server.logging.MdcPropagation;
+import com.soma.server.parser.YmParser;
+import com.soma.server.parser.YmPlaylist;
+import com.soma.server.parser.YmTrack;
+import com.soma.server.repository.SpotifyUserDetailsRepository;
+import com.soma.server.repository.SubscriptionPlanRepository;
+import com.soma.server.repository.TransferJobRepository;
+import com.soma.server.repository.TransferJobRepository.QueuedJob;
+import com.soma.server.repository.TransferResultRepository;
+import com.soma.server.repository.TransferResultRepository.TrackResult;
+import com.soma.server.service.TransferService.TrackMatch;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transfers a whole Yandex Music library (or any list of playlist links) to Spotify as one job.
+ * <p>
+ * Jobs are stored in the {@code transfer_jobs} queue and executed by {@link TransferQueueWorker}
+ * on whichever instance claims them. All sources are parsed concurrently first, then tracks are
+ * deduplicated across playlists so every distinct track is searched on Spotify exactly once.
+ * Only after that are the target playlists created and filled, which keeps the number of
+ * Spotify calls proportional to the number of unique tracks rather than to the total track count.
+ * The outcome of every source track is kept in {@code transfer_track_results} for export.
+ */
+@Service
+@RequiredArgsConstructor
+public class BulkTransferService {
+
+    public static final String JOB_TYPE = "BULK";
+
+    private static final Logger logger = LoggerFactory.getLogger(BulkTransferService.class);
+
+    private final YmParser ymParser;
+    private final TransferService transferService;
+    private final PlaylistContentService playlistContentService;
+    private final TransferJobRepository transferJobRepository;
+    private final TransferResultRepository transferResultRepository;
+    private final SpotifyUserDetailsRepository spotifyUserDetailsRepository;
+    private final SubmissionCoalescer submissionCoalescer;
+    private final TransferScheduler transferScheduler;
+    private final ObjectMapper objectMapper;
+
+    @Value("${soma.transfer.parse-parallelism:4}")
+    private int parseParallelism;
+
+    @Value("${soma.transfer.search-parallelism:4}")
+    private int searchParallelism;
+
+    @Value("${soma.queue.max-attempts:5}")
+    private int maxAttempts;
+
+    // jobs executing on this node, read by the queue heartbeat
+    private final Map<UUID, BulkTransferProgress> running = new ConcurrentHashMap<>();
+
+    private ExecutorService parsePool;
+    private ExecutorService searchPool;
+
+    @PostConstruct
+    void startPools() {
+        parsePool = Executors.newFixedThreadPool(parseParallelism, threadFactory("bulk-parse-"));
+        searchPool = Executors.newFixedThreadPool(searchParallelism, threadFactory("bulk-search-"));
+    }
+
+    @PreDestroy
+    void stopPools() {
+        parsePool.shutdownNow();
+        searchPool.shutdownNow();
+    }
+
+    /**
+     * Queues a transfer job. A duplicate of a recent submission, same idempotency key or same
+     * sources, gets the job queued for it instead of a new one.
+     *
+     * @param yandexLogin    owner of a library whose playlists should all be transferred, may be {@code null}
+     * @param playlistLinks  additional playlist or album links, may be empty
+     * @param idempotencyKey client supplied key, may be {@code null}
+     * @return the job, empty if the same submission is still being queued by another request
+     * @throws TransferScheduler.RejectedException if the user's monthly transfers are used up
+     */
+    public Optional<JobView> submit(SpotifyUserDetails details, String yandexLogin, List<String> playlistLinks,
+                                    String idempotencyKey) throws Exception {
+        Payload payload = new Payload(yandexLogin, playlistLinks != null ? playlistLinks : List.of(),
+                MDC.get(CorrelationIdFilter.CORRELATION_ID_KEY));
+        List<String> identity = new ArrayList<>();
+        identity.add(yandexLogin);
+        identity.addAll(payload.playlistLinks().stream().map(String::trim).sorted().toList());
+        SubmissionCoalescer.Outcome outcome = submissionCoalescer.submit(JOB_TYPE, details.getSpotifyUserId(),
+                idempotencyKey, identity, () -> enqueue(details.getSpotifyUserId(), payload));
+        if (outcome.status() == SubmissionCoalescer.Status.IN_PROGRESS) {
+            return Optional.empty();
+        }
+        return getJob(UUID.fromString(outcome.result()));
+    }
+
+    // counts against the monthly quota, jobs of priority plans are claimed first
+    private String enqueue(String spotifyUserId, Payload payload) {
+        SubscriptionPlanRepository.Plan plan = transferScheduler.acquireQuota(spotifyUserId);
+        try {
+            return transferJobRepository.enqueue(JOB_TYPE, spotifyUserId, toJson(payload), maxAttempts,
+                    plan.priorityProcessing() ? 1 : 0).toString();
+        } catch (RuntimeException e) {
+            transferScheduler.refundQuota(spotifyUserId);
+            throw e;
+        }
+    }
+
+    public Optional<JobView> getJob(UUID jobId) {
+        return transferJobRepository.findById(jobId).map(this::toView);
+    }
+
+    /**
+     * @param userId id of the user asking
+     * @return the job, empty if there is none or it was submitted from a Spotify account not linked to the user
+     */
+    public Optional<JobView> getJob(UUID jobId, long userId) {
+        return transferJobRepository.findById(jobId)
+                .filter(job -> spotifyUserDetailsRepository.existsBySpotifyUserIdAndUserId(job.spotifyUserId(), userId))
+                .map(this::toView);
+    }
+
+    /**
+     * @return the JSON progress of a job running on this node, or {@code null}
+     */
+    public String progressJson(UUID jobId) {
+        BulkTransferProgress progress = running.get(jobId);
+        return progress != null ? toJson(progress) : null;
+    }
+
+    /**
+     * @return whether the job running on this node wrote a playlist, in this or an earlier attempt
+     */
+    public boolean wrotePlaylist(UUID jobId) {
+        BulkTransferProgress progress = running.get(jobId);
+        return progress != null && progress.wrotePlaylist();
+    }
+
+    /**
+     * Gives back the monthly transfer counted when a job was queued, for a job that failed or
+     * wrote no playlist.
+     */
+    public void refundQuota(String spotifyUserId) {
+        transferScheduler.refundQuota(spotifyUserId);
+    }
+
+    /**
+     * Forgets a job that stopped running on this node, after its outcome was stored.
+     */
+    public void release(UUID jobId) {
+        running.remove(jobId);
+    }
+
+    /**
+     * Runs a claimed job to the end. Sources whose playlist was already written by an earlier
+     * attempt are not written again; a playlist an earlier attempt created but did not fill is
+     * filled with the tracks it is missing.
+     *
+     * @param checkpoint persists the progress, run right after every playlist is created
+     * @return the final progress as JSON
+     * @throws Exception if the attempt failed and the job should be retried, also when a playlist
+     *                   could not be created or filled; the next attempt writes only those
+     */
+    public String execute(QueuedJob job, Runnable checkpoint) throws Exception {
+        SpotifyUserDetails details = spotifyUserDetailsRepository.findBySpotifyUserId(job.spotifyUserId())
+                .orElseThrow(() -> new IllegalStateException("Spotify account " + job.spotifyUserId() + " is no longer linked"));
+        Payload payload = objectMapper.readValue(job.payload(), Payload.class);
+        if (payload.correlationId() != null) {
+            // the worker clears the MDC after the job, log lines of every attempt share the submitting request's id
+            MDC.put(CorrelationIdFilter.CORRELATION_ID_KEY, payload.correlationId());
+        }
+        Map<String, BulkTransferProgress.PlaylistResult> written = previouslyWritten(job.progress());
+
+        BulkTransferProgress progress = new BulkTransferProgress();
+        // heartbeats of this attempt must not drop what earlier attempts wrote
+        written.values().forEach(progress::putPlaylist);
+        running.put(job.id(), progress);
+        run(job.id(), progress, details, payload, written, checkpoint);
+        return toJson(progress);
+    }
+
+    private void run(UUID jobId, BulkTransferProgress progress, SpotifyUserDetails details, Payload payload,
+                     Map<String, BulkTransferProgress.PlaylistResult> written, Runnable checkpoint)
+            throws InterruptedException, ExecutionException {
+        Set<String> links = new LinkedHashSet<>();
+        if (payload.yandexLogin() != null && !payload.yandexLogin().isBlank()) {
+            links.addAll(ymParser.parseLibraryPlaylistLinks(payload.yandexLogin().trim()));
+        }
+        payload.playlistLinks().stream().map(String::trim).forEach(links::add);
+        progress.setSources(links.size());
+
+        Set<String> pending = new LinkedHashSet<>(links);
+        written.values().stream()
+                .filter(result -> result.error() == null)
+                .map(BulkTransferProgress.PlaylistResult::sourceLink)
+                .forEach(pending::remove);
+        Map<String, YmPlaylist> sources = parseAll(pending);
+
+        // one search per distinct track, however many playlists contain it
+        Map<String, YmTrack> unique = new LinkedHashMap<>();
+        int total = 0;
+        for (YmPlaylist playlist : sources.values()) {
+            if (playlist == null) {
+                continue;
+            }
+            total += playlist.tracks().size();
+            for (YmTrack track : playlist.tracks()) {
+                unique.putIfAbsent(TransferService.trackKey(track), track);
+            }
+        }
+        progress.setTracks(total, unique.size());
+
+        progress.setPhase(BulkTransferProgress.Phase.MATCHING);
+        Map<String, TrackMatch> matches = resolveAll(progress, details, unique);
+        Map<String, String> uris = new HashMap<>();
+        matches.forEach((key, match) -> {
+            if (match.uri() != null) {
+                uris.put(key, match.uri());
+            }
+        });
+
+        progress.setPhase(BulkTransferProgress.Phase.WRITING);
+        int index = 0;
+        int failed = 0;
+        String error = null;
+        for (String link : links) {
+            index++;
+            BulkTransferProgress.PlaylistResult previous = written.get(link);
+            if (previous != null && previous.error() == null) {
+                continue;
+            }
+            String writeError = write(progress, details, link, sources.get(link), uris, index, previous, checkpoint);
+            recordResults(jobId, index - 1, link, sources.get(link), matches);
+            if (writeError != null) {
+                failed++;
+                error = writeError;
+            }
+        }
+        if (failed > 0) {
+            // the other playlists are done, the next attempt only writes these
+            throw new IllegalStateException("Could not write " + failed + " of " + links.size() + " playlists: " + error);
+        }
+        progress.setPhase(BulkTransferProgress.Phase.DONE);
+        logger.info("Bulk transfer for {} finished: {} sources, {} tracks, {} unique, {} matched",
+                details.getSpotifyUserId(), links.size(), total, unique.size(), progress.getMatched());
+    }
+
+    private Map<String, YmPlaylist> parseAll(Set<String> links) throws InterruptedException, ExecutionException {
+        Map<String, Future<YmPlaylist>> futures = new LinkedHashMap<>();
+        for (String link : links) {
+            futures.put(link, parsePool.submit(MdcPropagation.wrap(() -> ymParser.parsePlaylist(link))));
+        }
+        Map<String, YmPlaylist> sources = new HashMap<>();
+        try {
+            for (Map.Entry<String, Future<YmPlaylist>> future : futures.entrySet()) {
+                sources.put(future.getKey(), future.getValue().get());
+            }
+        } finally {
+            futures.values().forEach(f -> f.cancel(true));
+        }
+        return sources;
+    }
+
+    /**
+     * @return the match of every track key, none for tracks whose search failed
+     */
+    private Map<String, TrackMatch> resolveAll(BulkTransferProgress progress, SpotifyUserDetails details,
+                                               Map<String, YmTrack> unique)
+            throws InterruptedException, ExecutionException {
+        Map<String, TrackMatch> matches = new ConcurrentHashMap<>();
+        // one batched cache lookup first, only the misses are searched
+        Map<String, TrackMatch> cached = transferService.findCachedMatches(unique.keySet());
+        cached.forEach((key, match) -> {
+            matches.put(key, match);
+            progress.trackResolved(match.uri() != null);
+        });
+
+        List<Future<?>> futures = new ArrayList<>(unique.size() - cached.size());
+        for (Map.Entry<String, YmTrack> entry : unique.entrySet()) {
+            if (cached.containsKey(entry.getKey())) {
+                continue;
+            }
+            futures.add(searchPool.submit(MdcPropagation.wrap(() -> {
+                TrackMatch match = transferService.matchTrack(details, entry.getValue());
+                if (match != null) {
+                    matches.put(entry.getKey(), match);
+                }
+                progress.trackResolved(match != null && match.uri() != null);
+            })));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            // no-op for finished searches; stops the rest when the job was interrupted
+            futures.forEach(f -> f.cancel(true));
+        }
+        return matches;
+    }
+
+    /**
+     * Creates and fills the playlist of one source and puts its result into the progress.
+     *
+     * @param previous result of an earlier attempt that created the playlist but did not fill it, or {@code null}
+     * @return the error if creating or filling the playlist failed and is worth another attempt, else {@code null}
+     */
+    private String write(BulkTransferProgress progress, SpotifyUserDetails details, String link, YmPlaylist playlist,
+                       Map<String, String> uris, int index, BulkTransferProgress.PlaylistResult previous,
+                       Runnable checkpoint) {
+        String playlistId = previous != null ? previous.spotifyPlaylistId() : null;
+        if (playlist == null) {
+            progress.putPlaylist(new BulkTransferProgress.PlaylistResult(link, previous != null ? previous.name() : null,
+                    playlistId, 0, 0, "Could not parse playlist"));
+            return null;
+        }
+        String name = playlist.title() == null || playlist.title().isBlank()
+                ? "Yandex playlist " + index
+                : playlist.title();
+        int tracks = playlist.tracks().size();
+
+        List<String> playlistUris = new ArrayList<>(tracks);
+        Set<String> seen = new LinkedHashSet<>();
+        for (YmTrack track : playlist.tracks()) {
+            String uri = uris.get(TransferService.trackKey(track));
+            if (uri != null && seen.add(uri)) {
+                playlistUris.add(uri);
+            }
+        }
+        if (playlistUris.isEmpty()) {
+            progress.putPlaylist(new BulkTransferProgress.PlaylistResult(link, name, playlistId, tracks, 0,
+                    "No songs available"));
+            return null;
+        }
+
+        if (playlistId == null) {
+            try {
+                playlistId = transferService.createPlaylist(details, name);
+            } catch (Exception e) {
+                logger.warn("Could not create playlist '{}' for {}: {}", name, details.getSpotifyUserId(), e.getMessage());
+                progress.putPlaylist(new BulkTransferProgress.PlaylistResult(link, name, null, tracks, 0, e.getMessage()));
+                return e.getMessage();
+            }
+            // stored before any track is added, so a later attempt fills this playlist instead of creating another
+            progress.putPlaylist(new BulkTransferProgress.PlaylistResult(link, name, playlistId, tracks, 0,
+                    "Tracks not added yet"));
+            checkpoint.run();
+        }
+
+        try {
+            List<String> missing = playlistUris;
+            if (previous != null) {
+                // the earlier attempt may have added some of the tracks already
+                Set<String> present = new HashSet<>(playlistContentService.getItemUris(details, playlistId));
+                missing = playlistUris.stream().filter(uri -> !present.contains(uri)).toList();
+            }
+            transferService.addTracks(details, playlistId, missing);
+            progress.putPlaylist(new BulkTransferProgress.PlaylistResult(link, name, playlistId, tracks,
+                    playlistUris.size(), null));
+            return null;
+        } catch (Exception e) {
+            logger.warn("Could not fill playlist '{}' for {}: {}", name, details.getSpotifyUserId(), e.getMessage());
+            progress.putPlaylist(new BulkTransferProgress.PlaylistResult(link, name, playlistId, tracks, 0,
+                    e.getMessage()));
+            return e.getMessage();
+        }
+    }
+
+    // the export is a by-product, a failure to store it does not fail a transfer that was written
+    private void recordResults(UUID jobId, int sourceIndex, String link, YmPlaylist playlist,
+                               Map<String, TrackMatch> matches) {
+        List<TrackResult> rows = new ArrayList<>(playlist != null ? playlist.tracks().size() : 0);
+        if (playlist != null) {
+            for (int i = 0; i < playlist.tracks().size(); i++) {
+                YmTrack track = playlist.tracks().get(i);
+                TrackMatch match = matches.get(TransferService.trackKey(track));
+                String status = match == null ? TransferResultRepository.FAILED
+                        : match.uri() == null ? TransferResultRepository.NOT_FOUND
+                        : TransferResultRepository.MATCHED;
+                rows.add(new TrackResult(sourceIndex, i, link, playlist.title(), track.artists(), track.title(),
+                        status, match != null ? match.uri() : null, match != null ? match.confidence() : Double.NaN,
+                        match != null && match.cached()));
+            }
+        }
+        try {
+            transferResultRepository.replaceSource(jobId, sourceIndex, link, rows);
+        } catch (RuntimeException e) {
+            logger.warn("Could not store track results of '{}' for job {}: {}", link, jobId, e.getMessage());
+        }
+    }
+
+    private Map<String, BulkTransferProgress.PlaylistResult> previouslyWritten(String progressJson) throws JsonProcessingException {
+        Map<String, BulkTransferProgress.PlaylistResult> written = new LinkedHashMap<>();
+        if (progressJson == null) {
+            return written;
+        }
+        for (JsonNode playlist : objectMapper.readTree(progressJson).path("playlists")) {
+            BulkTransferProgress.PlaylistResult result = objectMapper.treeToValue(playlist, BulkTransferProgress.PlaylistResult.class);
+            if (result.spotifyPlaylistId() != null) {
+                written.put(result.sourceLink(), result);
+            }
+        }
+        return written;
+    }
+
+    private JobView toView(QueuedJob job) {
+        try {
+            JsonNode progress = job.progress() != null ? objectMapper.readTree(job.progress()) : null;
+            return new JobView(job.id(), job.status(), job.attempts(), job.maxAttempts(), job.error(),
+                    job.createdAt(), job.finishedAt(), progress);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Corrupt progress of job " + job.id(), e);
+        }
+    }
+
+    private String toJson(Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @param correlationId id of the submitting request, {@code null} for jobs queued before it was recorded
+     */
+    public record Payload(String yandexLogin, List<String> playlistLinks, String correlationId) {
+    }
+
+    public record JobView(UUID id, String status, int attempts, int maxAttempts, String error,
+                          Instant createdAt, Instant finishedAt, JsonNode progress) {
+    }
+}
@@ -0,0 +1,398 @@
+package com.soma.server.service;
+
+import com.soma.server.entity.SpotifyUserDetails;
+import com.soma.server.logging.MdcPropagation;
+import com.soma.server.repository.ListeningStatisticsRepository;
+import com.soma.server.repository.ListeningStatisticsRepository.IngestCursor;
+import com.soma.server.repository.ListeningStatisticsRepository.ListeningEvent;
+import com.soma.server.repository.ListeningStatisticsRepository.TopTrack;
+import com.soma.server.repository.SpotifyUserDetailsRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.apache.hc.core5.http.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.model_objects.specification.ArtistSimplified;
+import se.michaelthelin.spotify.model_objects.specification.Cursor;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import se.michaelthelin.spotify.model_objects.specification.PagingCursorbased;
+import se.michaelthelin.spotify.model_objects.specification.PlayHistory;
+import se.michaelthelin.spotify.model_objects.specification.Track;
+import se.michaelthelin.spotify.requests.data.player.GetCurrentUsersRecentlyPlayedTracksRequest;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Periodically pulls recently played and top tracks for every linked Spotify account and
+ * stores them in {@code listening_statistics} / {@code listening_top_tracks}.
+ * <p>
+ * Accounts are walked with keyset pagination and fetched on a fixed-size pool, so at most
+ * {@code soma.ingest.parallelism} Spotify requests are in flight. Recently played tracks are
+ * fetched incrementally from the per-account cursor, and results of many accounts are
+ * written together in JDBC batches of {@code soma.ingest.batch-size} rows. A cursor only
+ * advances in the same transaction that persists its events and their rollups, so a crash
+ * re-reads at most one batch. A batch that cannot be stored is retried account by account, so
+ * an account whose rows fail only holds back itself.
+ */
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "soma.ingest.enabled", havingValue = "true", matchIfMissing = true)
+public class ListeningHistoryCollector {
+
+    private static final Logger logger = LoggerFactory.getLogger(ListeningHistoryCollector.class);
+
+    private static final String PLATFORM = "spotify";
+    private static final int PAGE_LIMIT = 50;
+    private static final int MAX_PAGES_PER_USER = 4;
+    private static final List<String> TOP_TRACK_RANGES = List.of("short_term", "medium_term", "long_term");
+
+    private final SpotifyUserDetailsRepository spotifyUserDetailsRepository;
+    private final ListeningStatisticsRepository listeningStatisticsRepository;
+    private final SpotifyApiCaller spotifyApiCaller;
+    private final ListeningStatisticsService listeningStatisticsService;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${soma.ingest.parallelism:8}")
+    private int parallelism;
+
+    @Value("${soma.ingest.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${soma.ingest.top-tracks-interval:PT24H}")
+    private Duration topTracksInterval;
+
+    private ExecutorService pool;
+
+    @PostConstruct
+    void startPool() {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "listening-ingest-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        pool = Executors.newFixedThreadPool(parallelism, threadFactory);
+    }
+
+    @PreDestroy
+    void stopPool() {
+        pool.shutdownNow();
+    }
+
+    @Scheduled(fixedDelayString = "${soma.ingest.interval:PT15M}", initialDelayString = "${soma.ingest.initial-delay:PT1M}")
+    public void collect() {
+        // one id per run, carried into the fetch pool, ties the per-account log lines together
+        MDC.put("jobId", "ingest-" + UUID.randomUUID());
+        try {
+            collectAll();
+        } finally {
+            MDC.remove("jobId");
+        }
+    }
+
+    private void collectAll() {
+        long started = System.nanoTime();
+        ensurePartitions();
+
+        Instant now = Instant.now();
+        Batch batch = new Batch();
+        int users = 0;
+        long lastId = 0L;
+
+        List<SpotifyUserDetails> page;
+        do {
+            page = spotifyUserDetailsRepository.findTop500ByIdGreaterThanAndUserIsNotNullOrderByIdAsc(lastId);
+            if (page.isEmpty()) {
+                break;
+            }
+
+            CompletionService<UserResult> completion = new ExecutorCompletionService<>(pool);
+            for (SpotifyUserDetails details : page) {
+                completion.submit(MdcPropagation.wrap(() -> fetch(details, now)));
+            }
+            for (int i = 0; i < page.size(); i++) {
+                UserResult result = take(completion);
+                if (result != null) {
+                    batch.add(result);
+                    if (batch.events >= batchSize) {
+                        batch.flush();
+                    }
+                }
+            }
+
+            users += page.size();
+            lastId = page.get(page.size() - 1).getId();
+        } while (!Thread.currentThread().isInterrupted());
+
+        batch.flush();
+        logger.info("Listening history ingested for {} accounts: {} new plays in {} ms",
+                users, batch.inserted, Duration.ofNanos(System.nanoTime() - started).toMillis());
+    }
+
+    private void ensurePartitions() {
+        YearMonth current = YearMonth.now(ZoneOffset.UTC);
+        // recently played reaches back into the previous month right after the month changes
+        for (int offset = -1; offset <= 2; offset++) {
+            try {
+                listeningStatisticsRepository.createMonthlyPartition(current.plusMonths(offset));
+            } catch (RuntimeException e) {
+                logger.warn("Could not create listening partition for {}: {}", current.plusMonths(offset), e.getMessage());
+            }
+        }
+    }
+
+    private UserResult take(CompletionService<UserResult> completion) {
+        try {
+            return completion.take().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            logger.warn("Listening ingestion failed for an account: {}", e.getCause().getMessage());
+            return null;
+        }
+    }
+
+    private UserResult fetch(SpotifyUserDetails details, Instant now) {
+        long userId = details.getUser().getId();
+        UserResult result = new UserResult(details.getId(), userId);
+
+        result.recentlyPlayedCursor = call(details, api -> fetchRecentlyPlayed(api, details, userId, result.events));
+
+        Instant syncedAt = details.getTopTracksSyncedAt();
+        if (syncedAt == null || syncedAt.plus(topTracksInterval).isBefore(now)) {
+            Boolean fetched = call(details, api -> fetchTopTracks(api, userId, now, result.topTracks));
+            if (Boolean.TRUE.equals(fetched)) {
+                result.topTracksSyncedAt = now;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the new cursor, or {@code null} when nothing new was played
+     */
+    private Long fetchRecentlyPlayed(SpotifyApi api, SpotifyUserDetails details, long userId, List<ListeningEvent> events)
+            throws IOException, SpotifyWebApiException, ParseException {
+        Long cursor = details.getRecentlyPlayedCursor();
+        long newest = cursor != null ? cursor : 0L;
+        Long after = cursor;
+        events.clear();
+
+        for (int page = 0; page < MAX_PAGES_PER_USER; page++) {
+            GetCurrentUsersRecentlyPlayedTracksRequest.Builder request = api.getCurrentUsersRecentlyPlayedTracks()
+                    .limit(PAGE_LIMIT);
+            if (after != null) {
+                // Spotify takes the cursor in Unix milliseconds, after(Date) would send a formatted date
+                request.setQueryParameter("after", after);
+            }
+            PagingCursorbased<PlayHistory> paging = request.build().execute();
+            PlayHistory[] items = paging.getItems();
+            if (items == null || items.length == 0) {
+                break;
+            }
+
+            for (PlayHistory item : items) {
+                Track track = item.getTrack();
+                if (track == null || item.getPlayedAt() == null) {
+                    continue;
+                }
+                newest = Math.max(newest, item.getPlayedAt().getTime());
+                // local files have no Spotify id, they are skipped but the cursor moves past them
+                if (track.getId() == null) {
+                    continue;
+                }
+                events.add(new ListeningEvent(
+                        userId,
+                        PLATFORM,
+                        track.getId(),
+                        track.getName(),
+                        artistList(track.getArtists()),
+                        item.getPlayedAt().toInstant(),
+                        track.getDurationMs(),
+                        item.getContext() != null && item.getContext().getType() != null
+                                ? item.getContext().getType().getType() : null,
+                        item.getContext() != null ? item.getContext().getUri() : null
+                ));
+            }
+
+            // without a starting cursor Spotify only serves the latest page, which is enough
+            Cursor[] cursors = paging.getCursors();
+            if (after == null || paging.getNext() == null || cursors == null || cursors.length == 0
+                    || cursors[0].getAfter() == null) {
+                break;
+            }
+            after = Long.parseLong(cursors[0].getAfter());
+        }
+        return newest > (cursor != null ? cursor : 0L) ? newest : null;
+    }
+
+    private Boolean fetchTopTracks(SpotifyApi api, long userId, Instant now, List<TopTrack> topTracks)
+            throws IOException, SpotifyWebApiException, ParseException {
+        topTracks.clear();
+        for (String timeRange : TOP_TRACK_RANGES) {
+            Paging<Track> paging = api.getUsersTopTracks()
+                    .time_range(timeRange)
+                    .limit(PAGE_LIMIT)
+                    .build()
+                    .execute();
+            Track[] items = paging.getItems();
+            for (int i = 0; items != null && i < items.length; i++) {
+                topTracks.add(new TopTrack(userId, timeRange, i + 1, items[i].getId(), items[i].getName(),
+                        joinArtists(items[i].getArtists()), now));
+            }
+        }
+        return Boolean.TRUE;
+    }
+
+    private <T> T call(SpotifyUserDetails details, SpotifyApiCaller.SpotifyCall<T> spotifyCall) {
+        try {
+            return spotifyApiCaller.execute(details, spotifyCall);
+        } catch (IOException | SpotifyWebApiException | ParseException e) {
+            logger.warn("Spotify call failed for {}: {}", details.getSpotifyUserId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static List<String> artistList(ArtistSimplified[] artists) {
+        if (artists == null) {
+            return List.of();
+        }
+        List<String> names = new ArrayList<>(artists.length);
+        for (ArtistSimplified artist : artists) {
+            if (artist != null && artist.getName() != null) {
+                names.add(artist.getName());
+            }
+        }
+        return names;
+    }
+
+    private static String joinArtists(ArtistSimplified[] artists) {
+        return String.join(", ", artistList(artists));
+    }
+
+    private static final class UserResult {
+        private final long detailsId;
+        private final long userId;
+        private final List<ListeningEvent> events = new ArrayList<>();
+        private final List<TopTrack> topTracks = new ArrayList<>();
+        private Long recentlyPlayedCursor;
+        private Instant topTracksSyncedAt;
+
+        private UserResult(long detailsId, long userId) {
+            this.detailsId = detailsId;
+            this.userId = userId;
+        }
+    }
+
+    /**
+     * Results of several accounts waiting to be written together.
+     */
+    private final class Batch {
+        private final List<UserResult> results = new ArrayList<>();
+        private int events;
+        private long inserted;
+
+        private void add(UserResult result) {
+            results.add(result);
+            events += result.events.size();
+        }
+
+        private void flush() {
+            if (results.isEmpty()) {
+                return;
+            }
+            try {
+                inserted += write(results);
+            } catch (RuntimeException e) {
+                logger.warn("Could not store listening batch of {} accounts, storing them one by one: {}",
+                        results.size(), e.getMessage());
+                for (UserResult result : results) {
+                    try {
+                        inserted += write(List.of(result));
+                    } catch (RuntimeException accountFailure) {
+                        // the cursor stays behind, so the next cycle fetches these plays again
+                        logger.error("Could not store {} plays of account {}: {}", result.events.size(),
+                                result.detailsId, accountFailure.getMessage(), accountFailure);
+                    }
+                }
+            } finally {
+                results.clear();
+                events = 0;
+            }
+        }
+
+        /**
+         * @return plays that were new
+         */
+        private int write(List<UserResult> accounts) {
+            List<ListeningEvent> batchEvents = new ArrayList<>();
+            List<TopTrack> topTracks = new ArrayList<>();
+            List<TopTrack> lastRanks = new ArrayList<>();
+            List<IngestCursor> cursors = new ArrayList<>();
+            for (UserResult result : accounts) {
+                batchEvents.addAll(result.events);
+                if (result.topTracksSyncedAt != null) {
+                    topTracks.addAll(result.topTracks);
+                    for (String timeRange : TOP_TRACK_RANGES) {
+                        int lastRank = (int) result.topTracks.stream()
+                                .filter(t -> t.timeRange().equals(timeRange))
+                                .count();
+                        lastRanks.add(new TopTrack(result.userId, timeRange, lastRank, null, null, null, null));
+                    }
+                }
+                if (result.recentlyPlayedCursor != null || result.topTracksSyncedAt != null) {
+                    cursors.add(new IngestCursor(result.detailsId, result.recentlyPlayedCursor, result.topTracksSyncedAt));
+                }
+            }
+            if (batchEvents.isEmpty() && topTracks.isEmpty() && cursors.isEmpty()) {
+                return 0;
+            }
+
+            // plays, rollups and cursors commit together, so a retried batch is never counted twice
+            Integer fresh = transactionTemplate.execute(status -> {
+                int[] counts = listeningStatisticsRepository.insertEvents(batchEvents);
+                List<ListeningEvent> stored = new ArrayList<>(counts.length);
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] > 0) {
+                        stored.add(batchEvents.get(i));
+                    }
+                }
+                listeningStatisticsService.applyRollups(stored);
+
+                if (!topTracks.isEmpty()) {
+                    listeningStatisticsRepository.upsertTopTracks(topTracks);
+                    listeningStatisticsRepository.deleteTopTracksBeyond(lastRanks);
+                }
+                if (!cursors.isEmpty()) {
+                    listeningStatisticsRepository.updateCursors(cursors);
+                }
+                return stored.size();
+            });
+            return fresh != null ? fresh : 0;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.soma.server.service;
+
+import com.soma.server.repository.ListeningRollupRepository;
+import com.soma.server.repository.ListeningRollupRepository.ArtistDelta;
+import com.soma.server.repository.ListeningRollupRepository.ArtistStat;
+import com.soma.server.repository.ListeningRollupRepository.PeriodTotals;
+import com.soma.server.repository.ListeningRollupRepository.TotalsDelta;
+import com.soma.server.repository.ListeningRollupRepository.TrackDelta;
+import com.soma.server.repository.ListeningRollupRepository.TrackStat;
+import com.soma.server.repository.ListeningStatisticsRepository.ListeningEvent;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Maintains and serves the per-user listening rollups.
+ * <p>
+ * New plays are folded into daily and weekly rows as they are ingested, so dashboard queries
+ * read at most one row per day or week of the requested window, independent of how much raw
+ * history is stored. Days and weeks are UTC; weeks start on Monday.
+ */
+@Service
+@RequiredArgsConstructor
+public class ListeningStatisticsService {
+
+    public static final String DAY = "DAY";
+    public static final String WEEK = "WEEK";
+
+    // windows longer than this are answered from weekly rows
+    private static final int MAX_DAILY_WINDOW = 31;
+    private static final int MAX_WINDOW_DAYS = 5 * 366;
+
+    private final ListeningRollupRepository listeningRollupRepository;
+
+    /**
+     * Adds freshly stored plays to the rollups. Must run in the transaction that inserted the
+     * plays, otherwise a failed batch could be counted twice when it is retried.
+     */
+    public void applyRollups(List<ListeningEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        // sorted maps keep the upsert order stable, which avoids lock-order deadlocks
+        Map<TotalsKey, long[]> totals = new TreeMap<>();
+        Map<ItemKey, long[]> artists = new TreeMap<>();
+        Map<ItemKey, long[]> tracks = new TreeMap<>();
+        Map<ItemKey, ListeningEvent> trackSamples = new TreeMap<>();
+
+        for (ListeningEvent event : events) {
+            long durationMs = event.playDurationMs() != null ? event.playDurationMs() : 0L;
+            LocalDate day = LocalDate.ofInstant(event.listenedAt(), ZoneOffset.UTC);
+
+            for (String period : List.of(DAY, WEEK)) {
+                LocalDate start = periodStart(period, day);
+                add(totals, new TotalsKey(event.userId(), period, start), durationMs);
+
+                Set<String> distinctArtists = new LinkedHashSet<>(event.artists());
+                for (String artist : distinctArtists) {
+                    add(artists, new ItemKey(event.userId(), period, start, artist), durationMs);
+                }
+
+                ItemKey trackKey = new ItemKey(event.userId(), period, start, event.trackId());
+                add(tracks, trackKey, durationMs);
+                trackSamples.putIfAbsent(trackKey, event);
+            }
+        }
+
+        List<TotalsDelta> totalsDeltas = new ArrayList<>(totals.size());
+        totals.forEach((k, v) -> totalsDeltas.add(new TotalsDelta(k.userId(), k.period(), k.periodStart(), (int) v[0], v[1])));
+
+        List<ArtistDelta> artistDeltas = new ArrayList<>(artists.size());
+        artists.forEach((k, v) -> artistDeltas.add(new ArtistDelta(k.userId(), k.period(), k.periodStart(), k.key(), (int) v[0], v[1])));
+
+        List<TrackDelta> trackDeltas = new ArrayList<>(tracks.size());
+        tracks.forEach((k, v) -> {
+            ListeningEvent sample = trackSamples.get(k);
+            trackDeltas.add(new TrackDelta(k.userId(), k.period(), k.periodStart(), k.key(), sample.trackName(),
+                    String.join(", ", sample.artists()), (int) v[0], v[1]));
+        });
+
+        listeningRollupRepository.incrementTotals(totalsDeltas);
+        listeningRollupRepository.incrementArtists(artistDeltas);
+        listeningRollupRepository.incrementTracks(trackDeltas);
+    }
+
+    @Transactional(readOnly = true)
+    public List<PeriodTotals> getSummary(long userId, String period, int days) {
+        Window window = window(period, days);
+        return listeningRollupRepository.findTotals(userId, window.period(), window.from(), window.to());
+    }
+
+    @Transactional(readOnly = true)
+    public List<ArtistStat> getTopArtists(long userId, int days, int limit) {
+        Window window = window(null, days);
+        return listeningRollupRepository.findTopArtists(userId, window.period(), window.from(), window.to(), limit);
+    }
+
+    @Transactional(readOnly = true)
+    public List<TrackStat> getTopTracks(long userId, int days, int limit) {
+        Window window = window(null, days);
+        return listeningRollupRepository.findTopTracks(userId, window.period(), window.from(), window.to(), limit);
+    }
+
+    /**
+     * Resolves the last {@code days} days to rollup rows. Without an explicit period, short
+     * windows use daily rows and longer ones use the weeks that overlap the window.
+     */
+    private static Window window(String period, int days) {
+        if (days < 1 || days > MAX_WINDOW_DAYS) {
+            throw new IllegalArgumentException("days must be between 1 and " + MAX_WINDOW_DAYS);
+        }
+        String resolved = period != null ? period.toUpperCase() : (days <= MAX_DAILY_WINDOW ? DAY : WEEK);
+        if (!DAY.equals(resolved) && !WEEK.equals(resolved)) {
+            throw new IllegalArgumentException("period must be 'day' or 'week'");
+        }
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        LocalDate from = today.minusDays(days - 1L);
+        return new Window(resolved, periodStart(resolved, from), periodStart(resolved, today));
+    }
+
+    private static LocalDate periodStart(String period, LocalDate day) {
+        return WEEK.equals(period) ? day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)) : day;
+    }
+
+    private static <K> void add(Map<K, long[]> counters, K key, long durationMs) {
+        long[] counter = counters.computeIfAbsent(key, k -> new long[2]);
+        counter[0]++;
+        counter[1] += durationMs;
+    }
+
+    private record Window(String period, LocalDate from, LocalDate to) {
+    }
+
+    private record TotalsKey(long userId, String period, LocalDate periodStart) implements Comparable<TotalsKey> {
+        private static final Comparator<TotalsKey> ORDER = Comparator.comparingLong(TotalsKey::userId)
+                .thenComparing(TotalsKey::period)
+                .thenComparing(TotalsKey::periodStart);
+
+        @Override
+        public int compareTo(TotalsKey other) {
+            return ORDER.compare(this, other);
+        }
+    }
+
+    private record ItemKey(long userId, String period, LocalDate periodStart, String key) implements Comparable<ItemKey> {
+        private static final Comparator<ItemKey> ORDER = Comparator.comparingLong(ItemKey::userId)
+                .thenComparing(ItemKey::period)
+                .thenComparing(ItemKey::periodStart)
+                .thenComparing(ItemKey::key);
+
+        @Override
+        public int compareTo(ItemKey other) {
+            return ORDER.compare(this, other);
+        }
+    }
+}
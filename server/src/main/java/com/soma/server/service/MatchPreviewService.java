@@ -0,0 +1,194 @@
+package com.soma.server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.soma.server.entity.SpotifyUserDetails;
+import com.soma.server.logging.MdcPropagation;
+import com.soma.server.parser.YmPlaylist;
+import com.soma.server.parser.YmTrack;
+import com.soma.server.service.TransferService.TrackMatch;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dry run of a transfer: resolves the tracks of a parsed playlist and writes one NDJSON line per
+ * source track as soon as its match is known, followed by a summary line. Nothing is written to
+ * Spotify, but every match lands in the match cache, so a transfer of the same playlist right
+ * afterwards needs next to no search calls.
+ */
+@Service
+@RequiredArgsConstructor
+public class MatchPreviewService {
+
+    private static final Logger logger = LoggerFactory.getLogger(MatchPreviewService.class);
+
+    private final TransferService transferService;
+    private final ObjectMapper objectMapper;
+
+    @Value("${soma.preview.parallelism:4}")
+    private int parallelism;
+
+    private ExecutorService pool;
+
+    @PostConstruct
+    void startPool() {
+        AtomicInteger counter = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "match-preview-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stopPool() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Writes the matches of all tracks of the playlist. Cached tracks come first, searched ones in
+     * the order their searches complete. Every line is flushed right away.
+     */
+    public void writeMatches(SpotifyUserDetails details, YmPlaylist playlist, OutputStream out) throws IOException {
+        // positions of every distinct track, each is resolved once
+        Map<String, List<Integer>> positions = new LinkedHashMap<>();
+        Map<String, YmTrack> unique = new LinkedHashMap<>();
+        for (int i = 0; i < playlist.tracks().size(); i++) {
+            YmTrack track = playlist.tracks().get(i);
+            String key = TransferService.trackKey(track);
+            unique.putIfAbsent(key, track);
+            positions.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+        }
+
+        Summary summary = new Summary(playlist.title(), playlist.tracks().size(), unique.size());
+        Map<String, TrackMatch> cached = transferService.findCachedMatches(unique.keySet());
+        for (Map.Entry<String, TrackMatch> entry : cached.entrySet()) {
+            write(out, playlist, positions.get(entry.getKey()), entry.getValue(), summary);
+        }
+
+        CompletionService<Resolved> completion = new ExecutorCompletionService<>(pool);
+        List<Future<Resolved>> futures = new ArrayList<>(unique.size() - cached.size());
+        for (Map.Entry<String, YmTrack> entry : unique.entrySet()) {
+            if (!cached.containsKey(entry.getKey())) {
+                futures.add(completion.submit(MdcPropagation.wrap(() ->
+                        new Resolved(entry.getKey(), transferService.matchTrack(details, entry.getValue())))));
+            }
+        }
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Resolved resolved = completion.take().get();
+                write(out, playlist, positions.get(resolved.key()), resolved.match(), summary);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Match preview interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Match preview failed", e.getCause());
+        } finally {
+            // the client went away or something failed, stop searching
+            futures.forEach(f -> f.cancel(true));
+        }
+
+        out.write(objectMapper.writeValueAsBytes(summary));
+        out.write('\n');
+        out.flush();
+        logger.info("Match preview for {}: {} tracks, {} unique, {} matched, {} cached",
+                details.getSpotifyUserId(), summary.getTracks(), summary.getUnique(),
+                summary.getMatched(), summary.getCached());
+    }
+
+    private void write(OutputStream out, YmPlaylist playlist, List<Integer> indexes, TrackMatch match,
+                       Summary summary) throws IOException {
+        summary.add(match);
+        for (int index : indexes) {
+            YmTrack track = playlist.tracks().get(index);
+            out.write(objectMapper.writeValueAsBytes(TrackLine.of(index, track, match)));
+            out.write('\n');
+        }
+        out.flush();
+    }
+
+    private record Resolved(String key, TrackMatch match) {
+    }
+
+    public enum Status {
+        MATCHED, NO_MATCH, FAILED
+    }
+
+    /**
+     * One source track.
+     *
+     * @param confidence 0 to 1, {@code null} if unknown
+     */
+    public record TrackLine(String type, int index, String artists, String title, Status status,
+                            String uri, Double confidence, boolean cached) {
+
+        static TrackLine of(int index, YmTrack track, TrackMatch match) {
+            if (match == null) {
+                return new TrackLine("track", index, track.artists(), track.title(), Status.FAILED, null, null, false);
+            }
+            Status status = match.uri() != null ? Status.MATCHED : Status.NO_MATCH;
+            Double confidence = match.uri() == null || Double.isNaN(match.confidence())
+                    ? null
+                    : Math.round(match.confidence() * 1000) / 1000.0;
+            return new TrackLine("track", index, track.artists(), track.title(), status,
+                    match.uri(), confidence, match.cached());
+        }
+    }
+
+    /**
+     * Last line of a preview. Counts are per distinct track.
+     */
+    @Getter
+    public static class Summary {
+        private final String type = "summary";
+        private final String playlist;
+        private final int tracks;
+        private final int unique;
+        private int matched;
+        private int noMatch;
+        private int failed;
+        private int cached;
+
+        Summary(String playlist, int tracks, int unique) {
+            this.playlist = playlist;
+            this.tracks = tracks;
+            this.unique = unique;
+        }
+
+        void add(TrackMatch match) {
+            if (match == null) {
+                failed++;
+                return;
+            }
+            if (match.uri() != null) {
+                matched++;
+            } else {
+                noMatch++;
+            }
+            if (match.cached()) {
+                cached++;
+            }
+        }
+    }
+}
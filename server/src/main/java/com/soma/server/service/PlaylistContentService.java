@@ -0,0 +1,159 @@
+package com.soma.server.service;
+
+import com.soma.server.cache.PlaylistContentCache;
+import com.soma.server.entity.SpotifyUserDetails;
+import com.soma.server.logging.MdcPropagation;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.apache.hc.core5.http.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import se.michaelthelin.spotify.model_objects.specification.Playlist;
+import se.michaelthelin.spotify.model_objects.specification.PlaylistTrack;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the items of a user's Spotify playlists through {@link PlaylistContentCache}.
+ * <p>
+ * Every read costs one metadata request for the playlist's current {@code snapshot_id} and item
+ * count. An unchanged playlist is then answered from the cache; a changed or unknown one is read
+ * with all of its pages requested at once by offset, at most {@code soma.playlists.fetch-parallelism}
+ * pages in flight over all reads. Reads are counted in {@code soma.playlists.reads} by outcome.
+ */
+@Service
+@RequiredArgsConstructor
+public class PlaylistContentService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlaylistContentService.class);
+
+    // Spotify returns at most 100 items per "get playlist items" request
+    private static final int ITEMS_PER_PAGE = 100;
+    private static final String ITEM_TYPES = "track,episode";
+
+    private final SpotifyApiCaller spotifyApiCaller;
+    private final PlaylistContentCache playlistContentCache;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${soma.playlists.fetch-parallelism:8}")
+    private int fetchParallelism;
+
+    private ExecutorService pagePool;
+
+    @PostConstruct
+    void startPool() {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "playlist-page-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        pagePool = Executors.newFixedThreadPool(fetchParallelism, threadFactory);
+    }
+
+    @PreDestroy
+    void stopPool() {
+        pagePool.shutdownNow();
+    }
+
+    /**
+     * @return the URIs of the playlist's tracks and episodes in playlist order; items Spotify
+     * no longer has are left out
+     */
+    public List<String> getItemUris(SpotifyUserDetails details, String playlistId)
+            throws IOException, SpotifyWebApiException, ParseException {
+        Playlist playlist = spotifyApiCaller.execute(details, api -> api
+                .getPlaylist(playlistId)
+                .fields("snapshot_id,tracks.total")
+                .additionalTypes(ITEM_TYPES)
+                .build()
+                .execute());
+        String snapshotId = playlist.getSnapshotId();
+        int total = playlist.getTracks() != null && playlist.getTracks().getTotal() != null
+                ? playlist.getTracks().getTotal()
+                : 0;
+
+        List<String> cached = snapshotId != null ? playlistContentCache.get(playlistId, snapshotId) : null;
+        if (cached != null) {
+            count("cached");
+            return cached;
+        }
+
+        List<String> uris = fetchItems(details, playlistId, total);
+        count("fetched");
+        if (snapshotId != null) {
+            // pages read while the playlist changed are stored under the old snapshot id, which the
+            // next read will not ask for
+            playlistContentCache.put(playlistId, snapshotId, uris);
+        }
+        logger.debug("Read {} items of playlist {}, snapshot {}", uris.size(), playlistId, snapshotId);
+        return uris;
+    }
+
+    private List<String> fetchItems(SpotifyUserDetails details, String playlistId, int total)
+            throws IOException, SpotifyWebApiException, ParseException {
+        List<Future<PlaylistTrack[]>> pages = new ArrayList<>();
+        for (int offset = 0; offset < total; offset += ITEMS_PER_PAGE) {
+            int pageOffset = offset;
+            pages.add(pagePool.submit(MdcPropagation.wrap(() -> fetchPage(details, playlistId, pageOffset))));
+        }
+        List<String> uris = new ArrayList<>(total);
+        try {
+            for (Future<PlaylistTrack[]> page : pages) {
+                for (PlaylistTrack item : page.get()) {
+                    if (item != null && item.getTrack() != null && item.getTrack().getUri() != null) {
+                        uris.add(item.getTrack().getUri());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading playlist " + playlistId, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            } else if (e.getCause() instanceof SpotifyWebApiException cause) {
+                throw cause;
+            } else if (e.getCause() instanceof ParseException cause) {
+                throw cause;
+            } else if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pages.forEach(page -> page.cancel(true));
+        }
+        return uris;
+    }
+
+    private PlaylistTrack[] fetchPage(SpotifyUserDetails details, String playlistId, int offset)
+            throws IOException, SpotifyWebApiException, ParseException {
+        Paging<PlaylistTrack> page = spotifyApiCaller.execute(details, api -> api
+                .getPlaylistsItems(playlistId)
+                .offset(offset)
+                .limit(ITEMS_PER_PAGE)
+                .fields("items(track(type,uri))")
+                .additionalTypes(ITEM_TYPES)
+                .build()
+                .execute());
+        return page.getItems() != null ? page.getItems() : new PlaylistTrack[0];
+    }
+
+    private void count(String outcome) {
+        meterRegistry.counter("soma.playlists.reads", "outcome", outcome).increment();
+    }
+}
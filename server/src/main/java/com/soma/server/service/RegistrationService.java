@@ -2,8 +2,8 @@ package com.soma.server.service;
 
 import com.soma.server.entity.User;
 import com.soma.server.repository.UserRepository;
-import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
@@ -13,7 +13,8 @@ public class RegistrationService {
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
 
-    @Transactional
+    // not one transaction: the hash is computed on the password pool, holding no connection while
+    // it waits there, and the unique constraints of users catch a concurrent registration
     public User register(String username, String email, String rawPassword) {
         if (userRepository.existsByUsername(username)) {
             throw new IllegalArgumentException("Username is already taken");
@@ -30,6 +31,10 @@ public class RegistrationService {
                 .password(encoded)
                 .build();
 
-        return userRepository.save(user);
+        try {
+            return userRepository.save(user);
+        } catch (DataIntegrityViolationException e) {
+            throw new IllegalArgumentException("Username or email is already registered");
+        }
     }
 }
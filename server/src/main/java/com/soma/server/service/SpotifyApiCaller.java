@@ -0,0 +1,87 @@
+package com.soma.server.service;
+
+import com.soma.server.cache.AccessTokenCache;
+import com.soma.server.entity.SpotifyUserDetails;
+import com.soma.server.telemetry.ApiTelemetry;
+import com.soma.server.telemetry.TelemetryHttpManager;
+import lombok.RequiredArgsConstructor;
+import org.apache.hc.core5.http.ParseException;
+import org.springframework.stereotype.Service;
+import se.michaelthelin.spotify.SpotifyApi;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Runs Spotify Web API calls on behalf of a linked account. An expired access token is
+ * refreshed and the call repeated once; a 429 answer is retried once after its Retry-After.
+ * The current token is taken from {@link AccessTokenCache}, so a token another node has already
+ * refreshed is used instead of being refreshed again. Every request is reported to
+ * {@link ApiTelemetry}.
+ */
+@Service
+@RequiredArgsConstructor
+public class SpotifyApiCaller {
+
+    private static final long MAX_RETRY_AFTER_SECONDS = 30;
+
+    private final SpotifyTokenService spotifyTokenService;
+    private final AccessTokenCache accessTokenCache;
+    private final ApiTelemetry apiTelemetry;
+
+    public <T> T execute(SpotifyUserDetails details, SpotifyCall<T> call)
+            throws IOException, SpotifyWebApiException, ParseException {
+        String cached = accessTokenCache.get(details.getSpotifyUserId());
+        String accessToken = cached != null ? cached : details.getAccessToken();
+        boolean refreshed = false;
+        boolean waited = false;
+        while (true) {
+            SpotifyApi spotifyApi = new SpotifyApi.Builder()
+                    .setAccessToken(accessToken)
+                    .setHttpManager(new TelemetryHttpManager(SpotifyApi.DEFAULT_HTTP_MANAGER, apiTelemetry,
+                            details.getSpotifyUserId()))
+                    .build();
+            try {
+                return call.execute(spotifyApi);
+            } catch (UnauthorizedException e) {
+                String newToken = refreshed ? null : newerToken(details, accessToken);
+                if (newToken == null) {
+                    throw e;
+                }
+                accessToken = newToken;
+                refreshed = true;
+            } catch (TooManyRequestsException e) {
+                if (waited) {
+                    throw e;
+                }
+                sleep(Math.min(Math.max(e.getRetryAfter(), 1), MAX_RETRY_AFTER_SECONDS), e);
+                waited = true;
+            }
+        }
+    }
+
+    private String newerToken(SpotifyUserDetails details, String rejected) {
+        String cached = accessTokenCache.get(details.getSpotifyUserId());
+        if (cached != null && !cached.equals(rejected)) {
+            return cached;
+        }
+        return spotifyTokenService.refreshAccessToken(details);
+    }
+
+    private static void sleep(long seconds, TooManyRequestsException cause) throws TooManyRequestsException {
+        try {
+            Thread.sleep(Duration.ofSeconds(seconds));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw cause;
+        }
+    }
+
+    @FunctionalInterface
+    public interface SpotifyCall<T> {
+        T execute(SpotifyApi spotifyApi) throws IOException, SpotifyWebApiException, ParseException;
+    }
+}
@@ -0,0 +1,67 @@
+package com.soma.server.service;
+
+import com.soma.server.cache.AccessTokenCache;
+import com.soma.server.config.SpotifyConfig;
+import com.soma.server.entity.SpotifyUserDetails;
+import com.soma.server.repository.SpotifyUserDetailsRepository;
+import lombok.RequiredArgsConstructor;
+import org.apache.hc.core5.http.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.model_objects.credentials.AuthorizationCodeCredentials;
+
+import java.io.IOException;
+
+/**
+ * Refreshes expired Spotify access tokens with the stored refresh token.
+ * Background jobs call this when Spotify answers 401 and retry once.
+ * <p>
+ * The call to Spotify runs outside any transaction, only the update of the stored tokens holds a
+ * connection.
+ */
+@Service
+@RequiredArgsConstructor
+public class SpotifyTokenService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpotifyTokenService.class);
+
+    private final SpotifyConfig spotifyConfig;
+    private final SpotifyUserDetailsRepository spotifyUserDetailsRepository;
+    private final AccessTokenCache accessTokenCache;
+
+    /**
+     * Also stores the new refresh token when Spotify rotated it.
+     *
+     * @return the new access token, or {@code null} if the account has no refresh token
+     * or Spotify refused to refresh it
+     */
+    public String refreshAccessToken(SpotifyUserDetails details) {
+        if (details.getRefreshToken() == null) {
+            return null;
+        }
+        try {
+            AuthorizationCodeCredentials credentials = spotifyConfig.getSpotifyObject()
+                    .authorizationCodeRefresh()
+                    .refresh_token(details.getRefreshToken())
+                    .build()
+                    .execute();
+
+            String accessToken = credentials.getAccessToken();
+            String refreshToken = credentials.getRefreshToken();
+            if (refreshToken != null) {
+                spotifyUserDetailsRepository.updateTokens(details.getId(), accessToken, refreshToken);
+                details.setRefreshToken(refreshToken);
+            } else {
+                spotifyUserDetailsRepository.updateAccessToken(details.getId(), accessToken);
+            }
+            details.setAccessToken(accessToken);
+            accessTokenCache.put(details.getSpotifyUserId(), accessToken);
+            return accessToken;
+        } catch (IOException | SpotifyWebApiException | ParseException e) {
+            logger.warn("Could not refresh Spotify token for {}: {}", details.getSpotifyUserId(), e.getMessage());
+            return null;
+        }
+    }
+}
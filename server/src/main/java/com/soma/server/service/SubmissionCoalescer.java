@@ -0,0 +1,213 @@
+package com.soma.server.service;
+
+import com.soma.server.repository.TransferSubmissionRepository;
+import com.soma.server.repository.TransferSubmissionRepository.Submission;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs each transfer submission once, however many times it is sent.
+ * <p>
+ * A submission is identified by the client's {@code Idempotency-Key} when there is one, otherwise
+ * by its content: the user, the kind of transfer, the source link and the target. Double clicks
+ * and client retries of the same submission therefore map to one key:
+ * <ul>
+ *     <li>while the first one runs, duplicates on this node wait for its result, duplicates on
+ *     other nodes poll {@code transfer_submissions} for it, for at most {@code soma.transfer.duplicate-wait}</li>
+ *     <li>after it completed, duplicates get the stored result without doing any work, for
+ *     {@code soma.transfer.dedup-window}, or {@code soma.transfer.idempotency-retention} for
+ *     explicit keys</li>
+ *     <li>a transfer that failed is forgotten, the next duplicate runs it again</li>
+ * </ul>
+ * Submissions are counted in {@code soma.transfer.submissions} by outcome.
+ */
+@Service
+public class SubmissionCoalescer {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubmissionCoalescer.class);
+
+    private static final long POLL_MILLIS = 500;
+
+    private final TransferSubmissionRepository submissionRepository;
+    private final MeterRegistry meterRegistry;
+
+    // submissions running on this node, duplicates join them without touching the database
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+
+    @Value("${soma.transfer.dedup-window:PT10M}")
+    private Duration dedupWindow;
+
+    @Value("${soma.transfer.idempotency-retention:PT24H}")
+    private Duration idempotencyRetention;
+
+    @Value("${soma.transfer.duplicate-wait:PT2M}")
+    private Duration duplicateWait;
+
+    @Value("${soma.transfer.submission-lease:PT15M}")
+    private Duration lease;
+
+    @Value("${soma.queue.node-id:}")
+    private String nodeId;
+
+    public SubmissionCoalescer(TransferSubmissionRepository submissionRepository, MeterRegistry meterRegistry) {
+        this.submissionRepository = submissionRepository;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void init() {
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = ManagementFactory.getRuntimeMXBean().getName();
+        }
+    }
+
+    /**
+     * Runs {@code transfer} unless the same submission is running or recently completed.
+     *
+     * @param idempotencyKey client supplied key, {@code null} to identify the submission by {@code identity}
+     * @param identity       what makes two submissions of {@code kind} the same, e.g. source link and target
+     * @param transfer       the work, returning the message for the client; it throws to have the
+     *                       submission forgotten instead of replayed
+     */
+    public Outcome submit(String kind, String spotifyUserId, String idempotencyKey, List<String> identity,
+                          Callable<String> transfer) throws Exception {
+        String key = idempotencyKey != null && !idempotencyKey.isBlank()
+                ? key(kind, spotifyUserId, "key", idempotencyKey.trim())
+                : key(kind, spotifyUserId, "content", String.join("\n", identity.stream().map(this::normalize).toList()));
+        Duration retention = idempotencyKey != null && !idempotencyKey.isBlank() ? idempotencyRetention : dedupWindow;
+
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            return joinLocal(kind, running);
+        }
+        try {
+            long deadline = System.nanoTime() + duplicateWait.toNanos();
+            while (!submissionRepository.claim(key, kind, spotifyUserId, nodeId, lease)) {
+                Optional<Submission> existing = submissionRepository.find(key);
+                if (existing.isPresent() && TransferSubmissionRepository.COMPLETED.equals(existing.get().status())) {
+                    count(kind, "replayed");
+                    mine.complete(existing.get().result());
+                    return new Outcome(existing.get().result(), Status.REPLAYED);
+                }
+                if (existing.isPresent() && System.nanoTime() > deadline) {
+                    count(kind, "in_progress");
+                    mine.complete(null);
+                    return new Outcome(null, Status.IN_PROGRESS);
+                }
+                // running on another node, or released in between and claimable on the next round
+                if (existing.isPresent()) {
+                    Thread.sleep(POLL_MILLIS);
+                }
+            }
+            count(kind, "executed");
+            String result;
+            try {
+                result = transfer.call();
+            } catch (Exception | Error e) {
+                submissionRepository.release(key, nodeId);
+                mine.completeExceptionally(e);
+                throw e;
+            }
+            if (!submissionRepository.complete(key, nodeId, result, retention)) {
+                logger.warn("Submission {} of {} ran past its lease and may have run twice", key, kind);
+            }
+            mine.complete(result);
+            return new Outcome(result, Status.EXECUTED);
+        } catch (Exception | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${soma.transfer.submission-purge-interval:PT1H}")
+    void purgeExpired() {
+        int deleted = submissionRepository.deleteExpired();
+        if (deleted > 0) {
+            logger.debug("Purged {} expired transfer submissions", deleted);
+        }
+    }
+
+    private Outcome joinLocal(String kind, CompletableFuture<String> running) throws Exception {
+        try {
+            String result = running.get(duplicateWait.toMillis(), TimeUnit.MILLISECONDS);
+            if (result == null) {
+                count(kind, "in_progress");
+                return new Outcome(null, Status.IN_PROGRESS);
+            }
+            count(kind, "coalesced");
+            return new Outcome(result, Status.COALESCED);
+        } catch (TimeoutException e) {
+            count(kind, "in_progress");
+            return new Outcome(null, Status.IN_PROGRESS);
+        } catch (ExecutionException e) {
+            // the duplicate was sent while the transfer ran, it fails the same way
+            count(kind, "coalesced");
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private void count(String kind, String outcome) {
+        meterRegistry.counter("soma.transfer.submissions", "kind", kind, "outcome", outcome).increment();
+    }
+
+    private String normalize(String value) {
+        return value != null ? value.trim() : "";
+    }
+
+    private static String key(String kind, String spotifyUserId, String type, String identity) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : new String[]{kind, spotifyUserId, type, identity}) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public enum Status {
+        /** ran the transfer */
+        EXECUTED,
+        /** joined the same submission running on this node */
+        COALESCED,
+        /** got the stored result of a completed submission */
+        REPLAYED,
+        /** the same submission is still running elsewhere, nothing was done */
+        IN_PROGRESS
+    }
+
+    /**
+     * @param result the client message of the transfer, {@code null} if it is {@link Status#IN_PROGRESS}
+     */
+    public record Outcome(String result, Status status) {
+    }
+}
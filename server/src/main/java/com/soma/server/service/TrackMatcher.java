@@ -0,0 +1,295 @@
+package com.soma.server.service;
+
+import com.soma.server.entity.SpotifyUserDetails;
+import com.soma.server.parser.YmTrack;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.hc.core5.http.ParseException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.model_objects.specification.ArtistSimplified;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import se.michaelthelin.spotify.model_objects.specification.Track;
+
+import java.io.IOException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the Spotify track for a Yandex Music track with as few search calls as possible.
+ * <p>
+ * Strategies are tried in order, each is one search request for {@code soma.matcher.candidates}
+ * results that are scored locally on title, artists and duration:
+ * <ol>
+ *     <li>{@code isrc:} when the source track has an ISRC, it identifies the recording exactly</li>
+ *     <li>{@code track:} and {@code artist:} field filters</li>
+ *     <li>a relaxed free-text query of the cleaned-up title and the first artist</li>
+ * </ol>
+ * The first candidate scoring at least {@code soma.matcher.accept-score} ends the search. If none
+ * does, the best candidate seen is taken when it reaches {@code soma.matcher.min-score}.
+ * <p>
+ * Every search request is counted in {@code soma.matcher.calls}, and the calls spent per track in
+ * {@code soma.matcher.calls.per.track} by outcome. Their ratio to matched tracks is the cost of a
+ * match.
+ */
+@Component
+public class TrackMatcher {
+
+    // "(feat. X)", "[Remastered 2011]", "- Live at ..." and the like, versions the source title may or may not carry
+    private static final Pattern DECORATION = Pattern.compile(
+            "\\s*[(\\[][^)\\]]*[)\\]]|\\s+-\\s+.*$|\\s+(feat|ft)\\.?\\s+.*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    // candidates that are not the original recording unless the source says so
+    private static final Set<String> VERSION_WORDS = Set.of(
+            "karaoke", "instrumental", "cover", "tribute", "remix", "live", "acoustic", "sped", "slowed");
+
+    private final SpotifyApiCaller spotifyApiCaller;
+    private final int candidates;
+    private final double acceptScore;
+    private final double minScore;
+    private final MeterRegistry meterRegistry;
+
+    public TrackMatcher(SpotifyApiCaller spotifyApiCaller, MeterRegistry meterRegistry,
+                        @Value("${soma.matcher.candidates:10}") int candidates,
+                        @Value("${soma.matcher.accept-score:0.8}") double acceptScore,
+                        @Value("${soma.matcher.min-score:0.55}") double minScore) {
+        this.spotifyApiCaller = spotifyApiCaller;
+        this.meterRegistry = meterRegistry;
+        this.candidates = candidates;
+        this.acceptScore = acceptScore;
+        this.minScore = minScore;
+    }
+
+    /**
+     * @return the best match, with {@code track == null} if nothing scored high enough
+     * @throws IOException and the others if a search failed; nothing is returned then, so that a
+     *                     failure is not taken for a miss
+     */
+    public Result match(SpotifyUserDetails details, YmTrack source)
+            throws IOException, SpotifyWebApiException, ParseException {
+        List<Strategy> strategies = strategies(source);
+        Track best = null;
+        double bestScore = 0;
+        Strategy bestStrategy = null;
+        int calls = 0;
+        try {
+            for (Strategy strategy : strategies) {
+                String query = strategy.query(source);
+                calls++;
+                Paging<Track> paging = spotifyApiCaller.execute(details, api -> {
+                    callCounter(strategy).increment();
+                    return api.searchTracks(query).limit(candidates).build().execute();
+                });
+                for (Track candidate : paging.getItems()) {
+                    double score = score(source, candidate);
+                    if (score > bestScore) {
+                        best = candidate;
+                        bestScore = score;
+                        bestStrategy = strategy;
+                    }
+                }
+                if (bestScore >= acceptScore) {
+                    break;
+                }
+            }
+        } catch (IOException | SpotifyWebApiException | ParseException | RuntimeException e) {
+            record("failed", null, calls);
+            throw e;
+        }
+
+        if (best == null || bestScore < minScore) {
+            record("no_match", null, calls);
+            return new Result(null, 0, null, calls);
+        }
+        record("matched", bestStrategy, calls);
+        return new Result(best, bestScore, bestStrategy, calls);
+    }
+
+    private List<Strategy> strategies(YmTrack source) {
+        List<Strategy> strategies = new ArrayList<>(3);
+        if (source.isrc() != null && !source.isrc().isBlank()) {
+            strategies.add(Strategy.ISRC);
+        }
+        strategies.add(Strategy.FIELDS);
+        strategies.add(Strategy.RELAXED);
+        return strategies;
+    }
+
+    private Counter callCounter(Strategy strategy) {
+        return meterRegistry.counter("soma.matcher.calls", "strategy", strategy.tag());
+    }
+
+    private void record(String outcome, Strategy strategy, int calls) {
+        DistributionSummary.builder("soma.matcher.calls.per.track")
+                .description("Spotify search calls spent on one track")
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(calls);
+        if (strategy != null) {
+            meterRegistry.counter("soma.matcher.hits", "strategy", strategy.tag()).increment();
+        }
+    }
+
+    /**
+     * How well a Spotify track matches the source track, from 0 to 1.
+     */
+    public static double score(YmTrack source, Track candidate) {
+        String sourceTitle = normalize(source.title());
+        String candidateTitle = normalize(candidate.getName());
+        // decorations count when both titles carry them, otherwise the bare titles are compared
+        double title = Math.max(
+                overlap(words(sourceTitle), words(candidateTitle)),
+                0.9 * overlap(words(stripDecoration(sourceTitle)), words(stripDecoration(candidateTitle))));
+
+        List<String> candidateArtists = new ArrayList<>();
+        for (ArtistSimplified artist : candidate.getArtists()) {
+            candidateArtists.add(normalize(artist.getName()));
+        }
+        double artist = artistScore(source.artists(), candidateArtists);
+
+        double score;
+        if (source.durationMs() <= 0 || candidate.getDurationMs() == null) {
+            score = 0.6 * title + 0.4 * artist;
+        } else {
+            double delta = Math.abs(source.durationMs() - candidate.getDurationMs()) / 1000.0;
+            // full score within 3 seconds, nothing beyond 30
+            double duration = Math.max(0, Math.min(1, (30 - delta) / 27));
+            score = 0.5 * title + 0.3 * artist + 0.2 * duration;
+        }
+
+        if (artist < 0.3) {
+            // same title by someone else: a cover or an unrelated song
+            score *= 0.6;
+        }
+        return addsVersion(source.title(), candidate.getName()) ? score * 0.7 : score;
+    }
+
+    /**
+     * @return whether the candidate title names a version (live, remix, karaoke, ...) the source title does not
+     */
+    private static boolean addsVersion(String sourceTitle, String candidateTitle) {
+        Set<String> sourceWords = words(normalize(sourceTitle));
+        for (String word : words(normalize(candidateTitle))) {
+            if (VERSION_WORDS.contains(word) && !sourceWords.contains(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // share of the source artists found among the candidate's artists, the first one weighs half
+    private static double artistScore(String sourceArtists, List<String> candidateArtists) {
+        String[] names = sourceArtists.split(",");
+        Set<String> candidateKeys = new HashSet<>();
+        Set<String> candidateWords = new HashSet<>();
+        for (String name : candidateArtists) {
+            candidateKeys.add(String.join(" ", NON_WORD.split(name.trim())));
+            candidateWords.addAll(words(name));
+        }
+        double total = 0;
+        double weight = 0;
+        for (int i = 0; i < names.length; i++) {
+            String name = normalize(names[i]).trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            double w = i == 0 ? names.length : 1;
+            boolean exact = candidateKeys.contains(String.join(" ", NON_WORD.split(name)));
+            total += w * (exact ? 1 : overlap(words(name), candidateWords));
+            weight += w;
+        }
+        return weight == 0 ? 0 : total / weight;
+    }
+
+    private static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFKD);
+        return MARKS.matcher(decomposed).replaceAll("").replace("&", " and ");
+    }
+
+    private static String stripDecoration(String title) {
+        String stripped = DECORATION.matcher(title).replaceAll("");
+        return stripped.isBlank() ? title : stripped;
+    }
+
+    private static Set<String> words(String text) {
+        Set<String> words = new HashSet<>();
+        for (String word : NON_WORD.split(text)) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words;
+    }
+
+    // Dice coefficient of two word sets
+    private static double overlap(Set<String> a, Set<String> b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return 0;
+        }
+        int common = 0;
+        for (String word : a) {
+            if (b.contains(word)) {
+                common++;
+            }
+        }
+        return 2.0 * common / (a.size() + b.size());
+    }
+
+    private static String firstArtist(YmTrack track) {
+        int comma = track.artists().indexOf(',');
+        return (comma < 0 ? track.artists() : track.artists().substring(0, comma)).trim();
+    }
+
+    // field filter values are quoted, a quote inside would end them early
+    private static String quoted(String value) {
+        return '"' + value.replace("\"", " ").trim() + '"';
+    }
+
+    public enum Strategy {
+        ISRC {
+            @Override
+            String query(YmTrack track) {
+                return "isrc:" + track.isrc().trim();
+            }
+        },
+        FIELDS {
+            @Override
+            String query(YmTrack track) {
+                return "track:" + quoted(track.title()) + " artist:" + quoted(firstArtist(track));
+            }
+        },
+        RELAXED {
+            @Override
+            String query(YmTrack track) {
+                String title = DECORATION.matcher(track.title()).replaceAll("").trim();
+                return (title.isEmpty() ? track.title() : title) + " " + firstArtist(track);
+            }
+        };
+
+        abstract String query(YmTrack track);
+
+        String tag() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    /**
+     * @param track    the chosen Spotify track, {@code null} if nothing matched
+     * @param score    see {@link #score}
+     * @param strategy the strategy whose search returned the track
+     * @param calls    search requests spent
+     */
+    public record Result(Track track, double score, Strategy strategy, int calls) {
+    }
+}
@@ -0,0 +1,198 @@
+package com.soma.server.service;
+
+import com.soma.server.repository.TransferJobRepository;
+import com.soma.server.repository.TransferJobRepository.QueuedJob;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes jobs from the shared {@code transfer_jobs} queue.
+ * <p>
+ * Every instance polls the queue and claims only as many jobs as it has free worker threads,
+ * so load spreads across nodes without coordination. While a job runs, its lease is extended
+ * and its progress persisted every third of the lease. When a node dies its leases expire and
+ * another node picks the jobs up; when a heartbeat finds the lease taken over, the local
+ * attempt is interrupted. Failed attempts are retried with exponential backoff and jitter and keep
+ * their progress for the next attempt. A job that ends FAILED, or completes without writing a
+ * playlist, gives back the monthly transfer it counted when it was queued.
+ */
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "soma.queue.enabled", havingValue = "true", matchIfMissing = true)
+public class TransferQueueWorker {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransferQueueWorker.class);
+
+    private static final int MAX_ERROR_LENGTH = 1000;
+    private static final String JOB_ID_KEY = "jobId";
+
+    private final TransferJobRepository transferJobRepository;
+    private final BulkTransferService bulkTransferService;
+
+    @Value("${soma.queue.worker-threads:2}")
+    private int workerThreads;
+
+    @Value("${soma.queue.lease:PT2M}")
+    private Duration lease;
+
+    @Value("${soma.queue.retry-backoff:PT30S}")
+    private Duration retryBackoff;
+
+    @Value("${soma.queue.max-retry-backoff:PT15M}")
+    private Duration maxRetryBackoff;
+
+    @Value("${soma.queue.node-id:}")
+    private String nodeId;
+
+    private ExecutorService workers;
+    private ScheduledExecutorService heartbeats;
+    private Semaphore capacity;
+
+    @PostConstruct
+    void start() {
+        if (nodeId == null || nodeId.isBlank()) {
+            nodeId = ManagementFactory.getRuntimeMXBean().getName();
+        }
+        capacity = new Semaphore(workerThreads);
+        AtomicInteger counter = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "transfer-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "transfer-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Transfer queue worker {} started with {} threads", nodeId, workerThreads);
+    }
+
+    @PreDestroy
+    void stop() {
+        // unfinished jobs keep their lease and are picked up elsewhere once it expires
+        workers.shutdownNow();
+        heartbeats.shutdownNow();
+    }
+
+    @Scheduled(fixedDelayString = "${soma.queue.poll-interval:PT1S}")
+    public void poll() {
+        List<QueuedJob> released = transferJobRepository.releaseExpiredLeases();
+        if (!released.isEmpty()) {
+            logger.warn("Released {} transfer jobs with expired leases", released.size());
+            released.stream()
+                    .filter(job -> TransferJobRepository.FAILED.equals(job.status()))
+                    .forEach(this::refundQuota);
+        }
+
+        int free = capacity.drainPermits();
+        if (free == 0) {
+            return;
+        }
+        List<QueuedJob> jobs;
+        try {
+            jobs = transferJobRepository.claim(nodeId, lease, free);
+        } catch (RuntimeException e) {
+            capacity.release(free);
+            throw e;
+        }
+        capacity.release(free - jobs.size());
+        for (QueuedJob job : jobs) {
+            workers.execute(() -> run(job));
+        }
+    }
+
+    private void run(QueuedJob job) {
+        MDC.put(JOB_ID_KEY, job.id().toString());
+        Thread worker = Thread.currentThread();
+        long period = Math.max(1, lease.toMillis() / 3);
+        ScheduledFuture<?> heartbeat = heartbeats.scheduleAtFixedRate(
+                () -> heartbeat(job, worker), period, period, TimeUnit.MILLISECONDS);
+        logger.info("Running transfer job {} (attempt {}/{})", job.id(), job.attempts(), job.maxAttempts());
+        try {
+            // playlists are checkpointed as soon as they are created, so no attempt creates them twice
+            String progress = bulkTransferService.execute(job, () -> heartbeat(job, worker));
+            heartbeat.cancel(false);
+            if (!transferJobRepository.complete(job.id(), nodeId, progress)) {
+                logger.warn("Transfer job {} finished after its lease was lost", job.id());
+            } else if (!bulkTransferService.wrotePlaylist(job.id())) {
+                refundQuota(job);
+            }
+        } catch (Exception e) {
+            heartbeat.cancel(false);
+            Duration backoff = backoff(job.attempts());
+            if (job.attempts() >= job.maxAttempts()) {
+                logger.error("Transfer job {} failed after {} attempts: {}", job.id(), job.attempts(), e.getMessage());
+            } else {
+                logger.warn("Transfer job {} attempt {} failed, retry in {}: {}",
+                        job.id(), job.attempts(), backoff, e.getMessage());
+            }
+            boolean owned = transferJobRepository.retryOrFail(job.id(), nodeId, backoff,
+                    truncate(String.valueOf(e.getMessage())), bulkTransferService.progressJson(job.id()));
+            if (owned && job.attempts() >= job.maxAttempts()) {
+                refundQuota(job);
+            }
+        } finally {
+            bulkTransferService.release(job.id());
+            Thread.interrupted();
+            MDC.clear();
+            capacity.release();
+        }
+    }
+
+    private void heartbeat(QueuedJob job, Thread worker) {
+        boolean owned;
+        try {
+            owned = transferJobRepository.heartbeat(job.id(), nodeId, lease, bulkTransferService.progressJson(job.id()));
+        } catch (RuntimeException e) {
+            // a missed heartbeat is tolerated until the lease actually expires
+            logger.warn("Heartbeat for transfer job {} failed: {}", job.id(), e.getMessage());
+            return;
+        }
+        if (!owned) {
+            logger.warn("Lost lease on transfer job {}, stopping local attempt", job.id());
+            worker.interrupt();
+            // stops further heartbeats for this attempt
+            throw new CancellationException("Lease lost on job " + job.id());
+        }
+    }
+
+    private void refundQuota(QueuedJob job) {
+        try {
+            bulkTransferService.refundQuota(job.spotifyUserId());
+        } catch (RuntimeException e) {
+            logger.warn("Could not refund the transfer quota of job {}: {}", job.id(), e.getMessage());
+        }
+    }
+
+    private Duration backoff(int attempts) {
+        long base = retryBackoff.toMillis() << Math.min(Math.max(attempts - 1, 0), 20);
+        long capped = Math.min(base, maxRetryBackoff.toMillis());
+        return Duration.ofMillis(capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1));
+    }
+
+    private static String truncate(String message) {
+        return message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message;
+    }
+}
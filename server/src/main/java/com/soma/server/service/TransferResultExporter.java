@@ -0,0 +1,238 @@
+package com.soma.server.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.soma.server.repository.TransferResultRepository;
+import com.soma.server.repository.TransferResultRepository.TrackResult;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Writes the per track results of a bulk transfer straight from the database cursor to the
+ * response, one row at a time, so memory use does not depend on the size of the transfer.
+ * <p>
+ * The binary format is a stream of records after the magic {@code SOMR} and a version byte:
+ * <ul>
+ *     <li>{@code 1} source: varint index, string link, string playlist name</li>
+ *     <li>{@code 2} track: varint position, status byte (0 matched, 1 not found, 2 failed), cached
+ *     byte, float confidence ({@code NaN} if unknown), string artists, string title, string URI</li>
+ *     <li>{@code 0} end of the export, a stream without it was cut short</li>
+ * </ul>
+ * A track belongs to the last source before it. Strings are a varint of the UTF-8 length plus one,
+ * {@code 0} for {@code null}, followed by the bytes; varints are unsigned LEB128, floats big endian.
+ */
+@Service
+@RequiredArgsConstructor
+public class TransferResultExporter {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransferResultExporter.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte[] MAGIC = {'S', 'O', 'M', 'R'};
+    private static final int VERSION = 1;
+    private static final String CSV_HEADER =
+            "source_index,source_link,playlist_name,position,artists,title,status,spotify_uri,confidence,cached\r\n";
+
+    private final TransferResultRepository transferResultRepository;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+
+    public enum Format {
+        CSV("text/csv", "csv"),
+        NDJSON("application/x-ndjson", "ndjson"),
+        BINARY("application/octet-stream", "bin");
+
+        private final MediaType mediaType;
+        private final String extension;
+
+        Format(String mediaType, String extension) {
+            this.mediaType = MediaType.parseMediaType(mediaType);
+            this.extension = extension;
+        }
+
+        public MediaType mediaType() {
+            return mediaType;
+        }
+
+        public String extension() {
+            return extension;
+        }
+
+        /**
+         * @throws IllegalArgumentException for an unknown format
+         */
+        public static Format of(String name) {
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown format '" + name + "', use csv, ndjson or binary");
+            }
+        }
+    }
+
+    public void export(UUID jobId, Format format, OutputStream out) throws IOException {
+        long started = System.nanoTime();
+        long rows = switch (format) {
+            case CSV -> writeCsv(jobId, out);
+            case NDJSON -> writeNdjson(jobId, out);
+            case BINARY -> writeBinary(jobId, out);
+        };
+        meterRegistry.counter("soma.export.rows", "format", format.extension()).increment(rows);
+        logger.info("Exported {} track results of job {} as {} in {} ms", rows, jobId, format,
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private long writeCsv(UUID jobId, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        writer.write(CSV_HEADER);
+        long[] rows = {0};
+        transferResultRepository.forEach(jobId, r -> {
+            writer.write(Integer.toString(r.sourceIndex()));
+            writer.write(',');
+            csv(writer, r.sourceLink());
+            writer.write(',');
+            csv(writer, r.playlistName());
+            writer.write(',');
+            writer.write(Integer.toString(r.position()));
+            writer.write(',');
+            csv(writer, r.artists());
+            writer.write(',');
+            csv(writer, r.title());
+            writer.write(',');
+            writer.write(r.status());
+            writer.write(',');
+            csv(writer, r.spotifyUri());
+            writer.write(',');
+            if (!Double.isNaN(r.confidence())) {
+                writer.write(Float.toString((float) r.confidence()));
+            }
+            writer.write(',');
+            writer.write(Boolean.toString(r.cached()));
+            writer.write("\r\n");
+            rows[0]++;
+        });
+        writer.flush();
+        return rows[0];
+    }
+
+    // RFC 4180: fields with separators, quotes or line breaks are quoted, quotes doubled
+    private static void csv(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private long writeNdjson(UUID jobId, OutputStream out) throws IOException {
+        OutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+        long[] rows = {0};
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(buffered)) {
+            // the generator must not close the response stream, lines are separated by hand
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.setRootValueSeparator(null);
+            transferResultRepository.forEach(jobId, r -> {
+                generator.writeStartObject();
+                generator.writeNumberField("sourceIndex", r.sourceIndex());
+                generator.writeStringField("sourceLink", r.sourceLink());
+                generator.writeStringField("playlistName", r.playlistName());
+                generator.writeNumberField("position", r.position());
+                generator.writeStringField("artists", r.artists());
+                generator.writeStringField("title", r.title());
+                generator.writeStringField("status", r.status());
+                generator.writeStringField("spotifyUri", r.spotifyUri());
+                if (Double.isNaN(r.confidence())) {
+                    generator.writeNullField("confidence");
+                } else {
+                    generator.writeNumberField("confidence", (float) r.confidence());
+                }
+                generator.writeBooleanField("cached", r.cached());
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+                rows[0]++;
+            });
+        }
+        buffered.flush();
+        return rows[0];
+    }
+
+    private long writeBinary(UUID jobId, OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        data.write(MAGIC);
+        data.writeByte(VERSION);
+        long[] rows = {0};
+        int[] source = {-1};
+        transferResultRepository.forEach(jobId, r -> {
+            if (r.sourceIndex() != source[0]) {
+                source[0] = r.sourceIndex();
+                data.writeByte(1);
+                varint(data, r.sourceIndex());
+                string(data, r.sourceLink());
+                string(data, r.playlistName());
+            }
+            data.writeByte(2);
+            varint(data, r.position());
+            data.writeByte(status(r));
+            data.writeByte(r.cached() ? 1 : 0);
+            data.writeFloat((float) r.confidence());
+            string(data, r.artists());
+            string(data, r.title());
+            string(data, r.spotifyUri());
+            rows[0]++;
+        });
+        data.writeByte(0);
+        data.flush();
+        return rows[0];
+    }
+
+    private static int status(TrackResult result) {
+        return switch (result.status()) {
+            case TransferResultRepository.MATCHED -> 0;
+            case TransferResultRepository.NOT_FOUND -> 1;
+            default -> 2;
+        };
+    }
+
+    private static void string(DataOutputStream data, String value) throws IOException {
+        if (value == null) {
+            varint(data, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        varint(data, bytes.length + 1);
+        data.write(bytes);
+    }
+
+    private static void varint(DataOutputStream data, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            data.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data.writeByte(value);
+    }
+}
@@ -0,0 +1,474 @@
+package com.soma.server.service;
+
+import com.soma.server.logging.MdcPropagation;
+import com.soma.server.repository.SubscriptionPlanRepository;
+import com.soma.server.repository.SubscriptionPlanRepository.Plan;
+import com.soma.server.repository.TransferQuotaRepository;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control and scheduling of transfers by subscription plan.
+ * <p>
+ * Synchronous transfers run on {@code soma.scheduler.workers} threads fed from two bounded
+ * queues, one for plans with {@code priority_processing} and one for the others. Workers take
+ * up to {@code soma.scheduler.priority-weight} priority transfers for each standard one, so
+ * paying users stay ahead under load without starving free ones. Work that cannot be served
+ * soon is refused before anything is done, with the time after which a retry is worth it:
+ * <ul>
+ *     <li>the user's monthly transfers reached {@code max_monthly_transfers} of the plan</li>
+ *     <li>the user already has {@code max-per-user} transfers queued or running</li>
+ *     <li>the plan's queue is full; the standard queue is the smaller one, so free work is shed first</li>
+ * </ul>
+ * Monthly usage is counted in memory and added to {@code transfer_quota_usage} every
+ * {@code soma.scheduler.quota-sync-interval}, which also brings in the transfers counted by other
+ * nodes. Between syncs, nodes may together let a user exceed the limit by a few transfers.
+ */
+@Service
+public class TransferScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransferScheduler.class);
+
+    private static final Plan DEFAULT_PLAN = new Plan(SubscriptionPlanRepository.FREE, null, false);
+    // weight of the latest transfer in the average service time behind Retry-After
+    private static final double SERVICE_TIME_SMOOTHING = 0.2;
+
+    private final SubscriptionPlanRepository planRepository;
+    private final TransferQuotaRepository quotaRepository;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${soma.scheduler.workers:8}")
+    private int workers;
+
+    @Value("${soma.scheduler.priority-weight:4}")
+    private int priorityWeight;
+
+    @Value("${soma.scheduler.priority.queue-capacity:100}")
+    private int priorityCapacity;
+
+    @Value("${soma.scheduler.standard.queue-capacity:20}")
+    private int standardCapacity;
+
+    @Value("${soma.scheduler.priority.max-per-user:3}")
+    private int priorityMaxPerUser;
+
+    @Value("${soma.scheduler.standard.max-per-user:1}")
+    private int standardMaxPerUser;
+
+    @Value("${soma.scheduler.quota-enabled:true}")
+    private boolean quotaEnabled;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final ArrayDeque<Task> priorityQueue = new ArrayDeque<>();
+    private final ArrayDeque<Task> standardQueue = new ArrayDeque<>();
+    // transfers queued or running per user, guarded by lock
+    private final Map<String, Integer> active = new HashMap<>();
+    private int priorityStreak;
+
+    private final Map<String, Usage> usage = new ConcurrentHashMap<>();
+    private volatile double serviceMillis = 5000;
+
+    private final List<Thread> threads = new ArrayList<>();
+
+    public TransferScheduler(SubscriptionPlanRepository planRepository, TransferQuotaRepository quotaRepository,
+                             MeterRegistry meterRegistry) {
+        this.planRepository = planRepository;
+        this.quotaRepository = quotaRepository;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void start() {
+        Gauge.builder("soma.scheduler.queued", priorityQueue, this::size).tag("queue", "priority").register(meterRegistry);
+        Gauge.builder("soma.scheduler.queued", standardQueue, this::size).tag("queue", "standard").register(meterRegistry);
+        for (int i = 1; i <= workers; i++) {
+            Thread thread = new Thread(this::work, "transfer-scheduler-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        threads.forEach(Thread::interrupt);
+        syncQuotas();
+    }
+
+    /**
+     * Runs a transfer on the scheduler's workers and waits for it. A transfer that fails, or is
+     * cancelled because the caller was interrupted, does not count against the quota.
+     *
+     * @throws RejectedException if the transfer was not admitted
+     */
+    public <T> T run(String spotifyUserId, Callable<T> transfer) throws Exception {
+        Plan plan = acquireQuota(spotifyUserId);
+        Callable<T> wrapped = MdcPropagation.wrap(transfer);
+        AtomicBoolean released = new AtomicBoolean();
+        // the slot is free before the caller sees the result, so its next transfer is not refused
+        FutureTask<T> future = new FutureTask<>(() -> {
+            try {
+                return wrapped.call();
+            } finally {
+                release(spotifyUserId, released);
+            }
+        });
+        Task task = new Task(spotifyUserId, plan.priorityProcessing(), future, System.nanoTime(), released);
+        try {
+            enqueue(task, plan);
+        } catch (RejectedException e) {
+            refundQuota(spotifyUserId);
+            throw e;
+        }
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            refundQuota(spotifyUserId);
+            if (e.getCause() instanceof Exception cause) {
+                throw cause;
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            refundQuota(spotifyUserId);
+            throw e;
+        }
+    }
+
+    /**
+     * Admits work that runs on the caller's thread, like a match preview, under the user's limit of
+     * transfers in progress. It does not count against the monthly quota. The permit must be closed
+     * when the work ends.
+     *
+     * @throws RejectedException if the user has as many transfers in progress as the plan allows
+     */
+    public Permit admit(String spotifyUserId) {
+        Plan plan = usage(spotifyUserId).plan;
+        lock.lock();
+        try {
+            if (active.getOrDefault(spotifyUserId, 0) >= maxPerUser(plan)) {
+                reject("user_limit");
+                throw new RejectedException("Too many transfers in progress", retryAfter(1));
+            }
+            active.merge(spotifyUserId, 1, Integer::sum);
+        } finally {
+            lock.unlock();
+        }
+        return new Permit(spotifyUserId);
+    }
+
+    /**
+     * Counts one transfer of the user against the plan's monthly limit, for work that runs
+     * elsewhere, like queued bulk transfers.
+     *
+     * @return the user's plan
+     * @throws RejectedException if the monthly limit is reached
+     */
+    public Plan acquireQuota(String spotifyUserId) {
+        while (true) {
+            Usage entry = usage(spotifyUserId);
+            synchronized (entry) {
+                if (entry.removed) {
+                    continue;
+                }
+                Integer limit = entry.plan.maxMonthlyTransfers();
+                if (quotaEnabled && limit != null && entry.synced + entry.pending >= limit) {
+                    reject("quota");
+                    ZonedDateTime now = ZonedDateTime.now(ZoneOffset.UTC);
+                    throw new RejectedException("Monthly transfer limit of " + limit + " reached",
+                            Duration.between(now, now.toLocalDate().withDayOfMonth(1).plusMonths(1).atStartOfDay(ZoneOffset.UTC)));
+                }
+                entry.pending++;
+                entry.used = true;
+                return entry.plan;
+            }
+        }
+    }
+
+    /**
+     * Gives back a transfer counted by {@link #acquireQuota} that did not happen.
+     */
+    public void refundQuota(String spotifyUserId) {
+        Usage entry = usage.get(spotifyUserId);
+        if (entry != null) {
+            synchronized (entry) {
+                if (!entry.removed) {
+                    entry.pending--;
+                    return;
+                }
+            }
+        }
+        // the transfer outlived the user's entry, its count was already synced
+        quotaRepository.addUsage(spotifyUserId, currentMonth(), -1);
+    }
+
+    /**
+     * Adds the usage counted since the last sync to the database and reloads totals and plans.
+     * Users without transfers in the last interval are dropped from memory.
+     */
+    @Scheduled(fixedDelayString = "${soma.scheduler.quota-sync-interval:PT30S}")
+    void syncQuotas() {
+        LocalDate month = currentMonth();
+        for (Map.Entry<String, Usage> e : usage.entrySet()) {
+            Usage entry = e.getValue();
+            int delta;
+            boolean used;
+            synchronized (entry) {
+                delta = entry.pending;
+                used = entry.used;
+                entry.pending = 0;
+                entry.used = false;
+            }
+            try {
+                int total = delta != 0 ? quotaRepository.addUsage(e.getKey(), entry.month, delta) : -1;
+                if ((!used || !entry.month.equals(month)) && retire(e.getKey(), entry, month)) {
+                    continue;
+                }
+                entry.plan = planRepository.findPlan(e.getKey()).orElse(DEFAULT_PLAN);
+                if (total < 0) {
+                    total = quotaRepository.findUsage(e.getKey(), month);
+                }
+                synchronized (entry) {
+                    entry.synced = total;
+                }
+            } catch (RuntimeException ex) {
+                synchronized (entry) {
+                    entry.pending += delta;
+                }
+                logger.warn("Could not sync transfer quota of {}: {}", e.getKey(), ex.getMessage());
+            }
+        }
+    }
+
+    private Usage usage(String spotifyUserId) {
+        LocalDate month = currentMonth();
+        Usage current = usage.get(spotifyUserId);
+        if (current != null && current.month.equals(month)) {
+            return current;
+        }
+        if (current != null) {
+            retire(spotifyUserId, current, month);
+        }
+        // loaded outside the map, a concurrent first transfer of the same user may load it too
+        Usage loaded = new Usage(month, planRepository.findPlan(spotifyUserId).orElse(DEFAULT_PLAN),
+                quotaRepository.findUsage(spotifyUserId, month));
+        Usage raced = usage.putIfAbsent(spotifyUserId, loaded);
+        return raced != null ? raced : loaded;
+    }
+
+    /**
+     * Drops an entry of a past month, or an idle one unless a transfer was counted on it since
+     * the last sync, and saves what it counted.
+     *
+     * @return {@code false} if the entry is in use
+     */
+    private boolean retire(String spotifyUserId, Usage entry, LocalDate month) {
+        int remaining;
+        synchronized (entry) {
+            if (entry.removed) {
+                return true;
+            }
+            if (entry.month.equals(month) && (entry.used || entry.pending != 0)) {
+                return false;
+            }
+            remaining = entry.pending;
+            entry.pending = 0;
+            entry.removed = true;
+        }
+        usage.remove(spotifyUserId, entry);
+        if (remaining != 0) {
+            quotaRepository.addUsage(spotifyUserId, entry.month, remaining);
+        }
+        return true;
+    }
+
+    private void enqueue(Task task, Plan plan) {
+        lock.lock();
+        try {
+            int running = active.getOrDefault(task.spotifyUserId(), 0);
+            if (running >= maxPerUser(plan)) {
+                reject("user_limit");
+                throw new RejectedException("Too many transfers in progress", retryAfter(1));
+            }
+            ArrayDeque<Task> queue = plan.priorityProcessing() ? priorityQueue : standardQueue;
+            if (queue.size() >= (plan.priorityProcessing() ? priorityCapacity : standardCapacity)) {
+                reject("saturated");
+                throw new RejectedException("Too many transfers queued", retryAfter(queue.size()));
+            }
+            queue.add(task);
+            active.merge(task.spotifyUserId(), 1, Integer::sum);
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Task task;
+            lock.lock();
+            try {
+                while (priorityQueue.isEmpty() && standardQueue.isEmpty()) {
+                    available.await();
+                }
+                task = next();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+            long started = System.nanoTime();
+            Timer.builder("soma.scheduler.wait")
+                    .tag("queue", task.priority() ? "priority" : "standard")
+                    .register(meterRegistry)
+                    .record(started - task.enqueuedAt(), TimeUnit.NANOSECONDS);
+            try {
+                task.future().run();
+            } finally {
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+                serviceMillis += SERVICE_TIME_SMOOTHING * (millis - serviceMillis);
+                // a task cancelled while queued never ran to release its slot
+                release(task.spotifyUserId(), task.released());
+            }
+        }
+    }
+
+    private void release(String spotifyUserId) {
+        lock.lock();
+        try {
+            active.computeIfPresent(spotifyUserId, (user, count) -> count > 1 ? count - 1 : null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(String spotifyUserId, AtomicBoolean released) {
+        if (released.compareAndSet(false, true)) {
+            release(spotifyUserId);
+        }
+    }
+
+    private int maxPerUser(Plan plan) {
+        return plan.priorityProcessing() ? priorityMaxPerUser : standardMaxPerUser;
+    }
+
+    // weighted round robin, called under lock with at least one queue non-empty
+    private Task next() {
+        if (!priorityQueue.isEmpty() && (standardQueue.isEmpty() || priorityStreak < priorityWeight)) {
+            priorityStreak++;
+            return priorityQueue.poll();
+        }
+        priorityStreak = 0;
+        return standardQueue.poll();
+    }
+
+    // time for the workers to get through the transfers ahead
+    private Duration retryAfter(int ahead) {
+        long millis = (long) Math.ceil(ahead * serviceMillis / workers);
+        return Duration.ofMillis(Math.max(1000, millis));
+    }
+
+    private int size(ArrayDeque<Task> queue) {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void reject(String reason) {
+        meterRegistry.counter("soma.scheduler.rejected", "reason", reason).increment();
+    }
+
+    private static LocalDate currentMonth() {
+        return LocalDate.now(ZoneOffset.UTC).withDayOfMonth(1);
+    }
+
+    private record Task(String spotifyUserId, boolean priority, FutureTask<?> future, long enqueuedAt,
+                        AtomicBoolean released) {
+    }
+
+    // guarded by itself
+    private static final class Usage {
+        final LocalDate month;
+        volatile Plan plan;
+        // total in the database at the last sync, and counted here since then
+        int synced;
+        int pending;
+        boolean used;
+        boolean removed;
+
+        Usage(LocalDate month, Plan plan, int synced) {
+            this.month = month;
+            this.plan = plan;
+            this.synced = synced;
+        }
+    }
+
+    /**
+     * Work admitted by {@link #admit}, in progress until closed.
+     */
+    public final class Permit implements AutoCloseable {
+
+        private final String spotifyUserId;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Permit(String spotifyUserId) {
+            this.spotifyUserId = spotifyUserId;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(spotifyUserId);
+            }
+        }
+    }
+
+    /**
+     * A transfer refused by admission control, to be retried after {@link #getRetryAfter()}.
+     */
+    public static class RejectedException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Duration retryAfter;
+
+        public RejectedException(String message, Duration retryAfter) {
+            super(message);
+            this.retryAfter = retryAfter;
+        }
+
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+    }
+}
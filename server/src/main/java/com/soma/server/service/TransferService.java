@@ -0,0 +1,163 @@
+package com.soma.server.service;
+
+import com.soma.server.cache.TrackMatchCache;
+import com.soma.server.entity.SpotifyUserDetails;
+import com.soma.server.parser.YmTrack;
+import lombok.RequiredArgsConstructor;
+import org.apache.hc.core5.http.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.model_objects.specification.Playlist;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Spotify side of a Yandex to Spotify transfer: track search, playlist creation and filling.
+ */
+@Service
+@RequiredArgsConstructor
+public class TransferService {
+
+    private static final Logger logger = LoggerFactory.getLogger(TransferService.class);
+
+    // Spotify accepts at most 100 items per "add items to playlist" request
+    private static final int ITEMS_PER_REQUEST = 100;
+
+    private final SpotifyApiCaller spotifyApiCaller;
+    private final TrackMatchCache trackMatchCache;
+    private final TrackMatcher trackMatcher;
+
+    /**
+     * Key under which two source tracks are considered the same track.
+     */
+    public static String trackKey(YmTrack track) {
+        return track.artists().trim().toLowerCase(Locale.ROOT) + '\u0000' + track.title().trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Finds the track in {@link TrackMatchCache}, or searches Spotify for it and caches the result.
+     *
+     * @return the Spotify URI, or {@code null} if nothing matched or the search failed
+     */
+    public String findTrackUri(SpotifyUserDetails details, YmTrack track) {
+        TrackMatch match = matchTrack(details, track);
+        return match != null ? match.uri() : null;
+    }
+
+    /**
+     * Like {@link #findTrackUri}, but also tells how good the match is and whether it was cached.
+     *
+     * @return the match, or {@code null} if the search failed
+     */
+    public TrackMatch matchTrack(SpotifyUserDetails details, YmTrack track) {
+        String key = trackKey(track);
+        String cached = trackMatchCache.get(key);
+        if (cached != null) {
+            return TrackMatch.cached(cached);
+        }
+
+        try {
+            TrackMatcher.Result result = trackMatcher.match(details, track);
+            String uri = result.track() != null ? result.track().getUri() : null;
+            trackMatchCache.put(key, uri, result.score());
+            return new TrackMatch(uri, result.score(), false);
+        } catch (IOException | SpotifyWebApiException | ParseException e) {
+            // not cached, the next transfer searches again
+            logger.warn("Spotify search failed for '{} - {}': {}", track.artists(), track.title(), e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Looks the tracks up in {@link TrackMatchCache} in one batch.
+     *
+     * @return the Spotify URI (or {@code null} for a known miss) of every track key that was cached
+     */
+    public Map<String, String> findCachedTrackUris(Collection<String> trackKeys) {
+        Map<String, String> resolved = new HashMap<>();
+        trackMatchCache.getAll(trackKeys).forEach((key, value) -> resolved.put(key, TrackMatchCache.uri(value)));
+        return resolved;
+    }
+
+    /**
+     * Looks the tracks up in {@link TrackMatchCache} in one batch.
+     *
+     * @return the match of every track key that was cached
+     */
+    public Map<String, TrackMatch> findCachedMatches(Collection<String> trackKeys) {
+        Map<String, TrackMatch> resolved = new HashMap<>();
+        trackMatchCache.getAll(trackKeys).forEach((key, value) -> resolved.put(key, TrackMatch.cached(value)));
+        return resolved;
+    }
+
+    /**
+     * Resolves tracks in order. Tracks that occur more than once are searched only once.
+     */
+    public List<String> findTrackUris(SpotifyUserDetails details, List<YmTrack> tracks) {
+        Map<String, String> resolved = findCachedTrackUris(tracks.stream().map(TransferService::trackKey).toList());
+        List<String> uris = new ArrayList<>(tracks.size());
+        for (YmTrack track : tracks) {
+            String key = trackKey(track);
+            String uri = resolved.containsKey(key) ? resolved.get(key) : findTrackUri(details, track);
+            resolved.put(key, uri);
+            if (uri != null) {
+                uris.add(uri);
+            }
+        }
+        return uris;
+    }
+
+    /**
+     * A resolved track.
+     *
+     * @param uri        Spotify URI, {@code null} if nothing matched
+     * @param confidence see {@link TrackMatcher#score}, {@code NaN} for matches cached before it was recorded
+     * @param cached     whether the match came from {@link TrackMatchCache} instead of a search
+     */
+    public record TrackMatch(String uri, double confidence, boolean cached) {
+
+        static TrackMatch cached(String value) {
+            return new TrackMatch(TrackMatchCache.uri(value), TrackMatchCache.confidence(value), true);
+        }
+    }
+
+    /**
+     * @return the id of the new playlist
+     */
+    public String createPlaylist(SpotifyUserDetails details, String playlistName)
+            throws IOException, SpotifyWebApiException, ParseException {
+        Playlist playlist = spotifyApiCaller.execute(details, api -> api
+                .createPlaylist(details.getSpotifyUserId(), playlistName)
+                .build()
+                .execute());
+        return playlist.getId();
+    }
+
+    /**
+     * Appends the tracks to the playlist in requests of at most 100 items.
+     *
+     * @return the snapshot id after the last request, or {@code null} if there was nothing to add
+     */
+    public String addTracks(SpotifyUserDetails details, String playlistId, List<String> uris)
+            throws IOException, SpotifyWebApiException, ParseException {
+        String snapshotId = null;
+        for (int from = 0; from < uris.size(); from += ITEMS_PER_REQUEST) {
+            String[] chunk = uris.subList(from, Math.min(from + ITEMS_PER_REQUEST, uris.size())).toArray(new String[0]);
+            snapshotId = spotifyApiCaller.execute(details, api -> api
+                    .addItemsToPlaylist(playlistId, chunk)
+                    .build()
+                    .execute())
+                    .getSnapshotId();
+        }
+        logger.debug("Added {} tracks to playlist {}, snapshot {}", uris.size(), playlistId, snapshotId);
+        return snapshotId;
+    }
+}
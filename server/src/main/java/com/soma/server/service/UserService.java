@@ -1,12 +1,13 @@
 package com.soma.server.service;
 
+import com.soma.server.cache.AccessTokenCache;
 import com.soma.server.entity.User;
 import com.soma.server.entity.SpotifyUserDetails;
 import com.soma.server.repository.SpotifyUserDetailsRepository;
 import com.soma.server.repository.UserRepository;
-import jakarta.transaction.Transactional;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import se.michaelthelin.spotify.model_objects.specification.Image;
 
 import java.util.Optional;
@@ -16,6 +17,7 @@ import java.util.Optional;
 public class UserService {
     private final UserRepository userRepository;
     private final SpotifyUserDetailsRepository spotifyUserDetailsRepository;
+    private final AccessTokenCache accessTokenCache;
 
     @Transactional
     public com.soma.server.entity.User saveOrUpdateUser(se.michaelthelin.spotify.model_objects.specification.User spotifyUser, String accessToken, String refreshToken) {
@@ -46,13 +48,22 @@ public class UserService {
         }
 
         appUser.addSpotifyDetails(details);
+        accessTokenCache.put(spotifyUser.getId(), accessToken);
         return userRepository.save(appUser);
     }
 
+    // on the primary: a freshly linked account or refreshed token may not have reached a replica
     public Optional<SpotifyUserDetails> getSpotifyUserDetails(String spotifyUserId) {
         return spotifyUserDetailsRepository.findBySpotifyUserId(spotifyUserId);
     }
 
+    /**
+     * @return the linked Spotify account, empty if it is not linked to the user {@code userId}
+     */
+    public Optional<SpotifyUserDetails> getSpotifyUserDetails(String spotifyUserId, long userId) {
+        return spotifyUserDetailsRepository.findBySpotifyUserIdAndUserId(spotifyUserId, userId);
+    }
+
     @Transactional
     public void linkSpotifyAccount(Long userId, se.michaelthelin.spotify.model_objects.specification.User spotifyUser, String accessToken, String refreshToken) {
         User appUser = userRepository.findById(userId)
@@ -89,6 +100,7 @@ public class UserService {
             appUser.addSpotifyDetails(details);
         }
 
+        accessTokenCache.put(spotifyUser.getId(), accessToken);
         userRepository.save(appUser);
     }
 }
\ No newline at end of file
@@ -0,0 +1,247 @@
+package com.soma.server.telemetry;
+
+import com.soma.server.logging.CorrelationIdFilter;
+import com.soma.server.repository.TelemetryRepository;
+import com.soma.server.repository.TelemetryRepository.ErrorRow;
+import com.soma.server.repository.TelemetryRepository.UsageRow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Usage and error records of outbound Spotify and Yandex Music calls, written to
+ * {@code api_usage_logs} and {@code error_logs} off the request path.
+ * <p>
+ * Call sites publish into a lock-free {@link EventRing} of {@code soma.telemetry.buffer-size}
+ * slots and return at once. A single drainer thread takes up to {@code soma.telemetry.batch-size}
+ * events at a time and inserts them as JDBC batches, waiting {@code soma.telemetry.flush-interval}
+ * whenever it has caught up. Events are dropped rather than delayed: when the ring is full, or
+ * when a batch cannot be written. Both are counted in {@code soma.telemetry.events}, the backlog
+ * is {@code soma.telemetry.backlog}.
+ */
+@Component
+public class ApiTelemetry {
+
+    public static final String SPOTIFY = "spotify";
+    public static final String YANDEX = "yandex";
+
+    private static final Logger logger = LoggerFactory.getLogger(ApiTelemetry.class);
+
+    private static final int MAX_MESSAGE_LENGTH = 1000;
+    private static final long WRITE_WARNING_INTERVAL_MILLIS = 60_000;
+
+    private final TelemetryRepository telemetryRepository;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${soma.telemetry.enabled:true}")
+    private boolean enabled;
+
+    @Value("${soma.telemetry.buffer-size:65536}")
+    private int bufferSize;
+
+    @Value("${soma.telemetry.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${soma.telemetry.flush-interval:PT1S}")
+    private Duration flushInterval;
+
+    @Value("${soma.telemetry.retention:P30D}")
+    private Duration retention;
+
+    private EventRing ring;
+    private Counter published;
+    private Counter droppedFull;
+    private Counter droppedWrite;
+    private Thread drainer;
+    private volatile boolean running;
+    private long lastWriteWarning;
+
+    // drainer thread only
+    private final List<UsageRow> usageBatch = new ArrayList<>();
+    private final List<ErrorRow> errorBatch = new ArrayList<>();
+
+    public ApiTelemetry(TelemetryRepository telemetryRepository, MeterRegistry meterRegistry) {
+        this.telemetryRepository = telemetryRepository;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        ring = new EventRing(bufferSize);
+        published = events("published");
+        droppedFull = events("dropped_full");
+        droppedWrite = events("dropped_write");
+        Gauge.builder("soma.telemetry.backlog", ring, EventRing::size).register(meterRegistry);
+        running = true;
+        drainer = new Thread(this::drainLoop, "telemetry-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        if (drainer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(drainer);
+        drainer.join(TimeUnit.SECONDS.toMillis(10));
+    }
+
+    /**
+     * Records one outbound call, and its error if it failed. Never blocks.
+     *
+     * @param endpoint      the called path with ids left out
+     * @param status        HTTP status, 0 if no response was received
+     * @param spotifyUserId account the call was made for, {@code null} if none
+     * @param error         why the call failed, {@code null} if it did not
+     */
+    public void record(String platform, String endpoint, String method, int status, long latencyMillis,
+                       String spotifyUserId, Throwable error) {
+        record(platform, endpoint, method, status, latencyMillis, spotifyUserId, error,
+                MDC.get(CorrelationIdFilter.CORRELATION_ID_KEY));
+    }
+
+    /**
+     * As {@link #record(String, String, String, int, long, String, Throwable)}, for callbacks
+     * that run outside the request's thread and carry its correlation id themselves.
+     */
+    public void record(String platform, String endpoint, String method, int status, long latencyMillis,
+                       String spotifyUserId, Throwable error, String correlationId) {
+        if (ring == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long position = ring.claim();
+        if (position < 0) {
+            droppedFull.increment();
+        } else {
+            TelemetryEvent event = ring.slot(position);
+            event.error = false;
+            event.timestampMillis = now;
+            event.spotifyUserId = spotifyUserId;
+            event.platform = platform;
+            event.endpoint = endpoint;
+            event.method = method;
+            event.status = status;
+            event.latencyMillis = (int) Math.min(Integer.MAX_VALUE, latencyMillis);
+            event.correlationId = correlationId;
+            ring.publish(position);
+            published.increment();
+        }
+        if (error == null) {
+            return;
+        }
+        position = ring.claim();
+        if (position < 0) {
+            droppedFull.increment();
+            return;
+        }
+        TelemetryEvent event = ring.slot(position);
+        event.error = true;
+        event.timestampMillis = now;
+        event.spotifyUserId = spotifyUserId;
+        event.platform = platform;
+        event.endpoint = endpoint;
+        event.status = status;
+        event.correlationId = correlationId;
+        event.errorType = error.getClass().getSimpleName();
+        event.message = error.getMessage();
+        event.severity = severity(status);
+        ring.publish(position);
+        published.increment();
+    }
+
+    @Scheduled(fixedDelayString = "${soma.telemetry.purge-interval:PT6H}")
+    void purge() {
+        if (ring != null) {
+            int deleted = telemetryRepository.deleteOlderThan(retention);
+            logger.debug("Purged {} telemetry rows older than {}", deleted, retention);
+        }
+    }
+
+    private void drainLoop() {
+        long flushNanos = flushInterval.toNanos();
+        while (running) {
+            int drained = ring.drain(this::collect, batchSize);
+            if (drained > 0) {
+                flush();
+            }
+            if (drained < batchSize && running) {
+                LockSupport.parkNanos(flushNanos);
+            }
+        }
+        // shutting down, write what is left
+        while (ring.drain(this::collect, batchSize) > 0) {
+            flush();
+        }
+    }
+
+    private void collect(TelemetryEvent event) {
+        Instant at = Instant.ofEpochMilli(event.timestampMillis);
+        if (event.error) {
+            String message = event.message != null ? event.message : event.errorType;
+            errorBatch.add(new ErrorRow(event.spotifyUserId, event.platform, event.endpoint, event.errorType,
+                    message.length() > MAX_MESSAGE_LENGTH ? message.substring(0, MAX_MESSAGE_LENGTH) : message,
+                    event.severity, event.correlationId, at));
+        } else {
+            usageBatch.add(new UsageRow(event.spotifyUserId, event.platform, event.endpoint, event.method,
+                    event.status, event.latencyMillis, event.correlationId, at));
+        }
+        // do not keep the strings alive until the slot is reused
+        event.spotifyUserId = null;
+        event.correlationId = null;
+        event.message = null;
+    }
+
+    private void flush() {
+        int size = usageBatch.size() + errorBatch.size();
+        try {
+            telemetryRepository.insertUsage(usageBatch);
+            telemetryRepository.insertErrors(errorBatch);
+        } catch (RuntimeException e) {
+            droppedWrite.increment(size);
+            long now = System.currentTimeMillis();
+            if (now - lastWriteWarning > WRITE_WARNING_INTERVAL_MILLIS) {
+                lastWriteWarning = now;
+                logger.warn("Dropped {} telemetry events, batch insert failed: {}", size, e.getMessage());
+            }
+        } finally {
+            usageBatch.clear();
+            errorBatch.clear();
+        }
+    }
+
+    private Counter events(String outcome) {
+        return Counter.builder("soma.telemetry.events").tag("outcome", outcome).register(meterRegistry);
+    }
+
+    // rejected requests are the caller's problem, rate limits and outages the service's
+    private static String severity(int status) {
+        if (status == 429) {
+            return "medium";
+        }
+        if (status >= 400 && status < 500) {
+            return "low";
+        }
+        return "high";
+    }
+}
@@ -0,0 +1,104 @@
+package com.soma.server.telemetry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free ring of preallocated {@link TelemetryEvent} slots, for many publishers and
+ * a single drainer.
+ * <p>
+ * Every slot carries a sequence number. A publisher claims the next position with a CAS on the
+ * tail when the slot's sequence says the drainer has released it, fills the slot and publishes it
+ * by advancing the sequence; the drainer reads slots in order while their sequence says they are
+ * published. A full ring refuses the event instead of waiting, and nothing is allocated per event.
+ */
+final class EventRing {
+
+    private final TelemetryEvent[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // written by the drainer only, read by size()
+    private volatile long head;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    EventRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new TelemetryEvent[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new TelemetryEvent();
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return events published and not drained yet, approximate while publishers are active
+     */
+    long size() {
+        return Math.max(0, tail.get() - head);
+    }
+
+    /**
+     * Claims a slot for the calling publisher, which must fill it and then {@link #publish} it.
+     *
+     * @return the claimed position, or -1 if the ring is full
+     */
+    long claim() {
+        long position = tail.get();
+        while (true) {
+            long sequence = sequences.getAcquire((int) position & mask);
+            long lag = sequence - position;
+            if (lag == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = tail.get();
+            } else if (lag < 0) {
+                // the drainer has not released this slot since the last lap
+                return -1;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    TelemetryEvent slot(long position) {
+        return slots[(int) position & mask];
+    }
+
+    void publish(long position) {
+        sequences.setRelease((int) position & mask, position + 1);
+    }
+
+    /**
+     * Hands up to {@code max} published events to {@code consumer} in order and releases their
+     * slots. Only one thread may drain.
+     *
+     * @return the number of events drained
+     */
+    int drain(Consumer<TelemetryEvent> consumer, int max) {
+        long position = head;
+        int drained = 0;
+        while (drained < max) {
+            int index = (int) position & mask;
+            if (sequences.getAcquire(index) != position + 1) {
+                break;
+            }
+            consumer.accept(slots[index]);
+            sequences.setRelease(index, position + slots.length);
+            position++;
+            drained++;
+        }
+        head = position;
+        return drained;
+    }
+}
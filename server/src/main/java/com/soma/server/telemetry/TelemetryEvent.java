@@ -0,0 +1,23 @@
+package com.soma.server.telemetry;
+
+/**
+ * One slot of the {@link EventRing}: an outbound call, or an error of one. Slots are allocated
+ * once and overwritten, a publisher owns a slot between claiming and publishing it, the drainer
+ * between reading and releasing it.
+ */
+final class TelemetryEvent {
+
+    boolean error;
+    long timestampMillis;
+    String spotifyUserId;
+    String platform;
+    String endpoint;
+    String method;
+    // HTTP status, 0 if no response was received
+    int status;
+    int latencyMillis;
+    String correlationId;
+    String errorType;
+    String message;
+    String severity;
+}
@@ -0,0 +1,130 @@
+package com.soma.server.telemetry;
+
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.ParseException;
+import se.michaelthelin.spotify.IHttpManager;
+import se.michaelthelin.spotify.exceptions.SpotifyWebApiException;
+import se.michaelthelin.spotify.exceptions.detailed.BadGatewayException;
+import se.michaelthelin.spotify.exceptions.detailed.BadRequestException;
+import se.michaelthelin.spotify.exceptions.detailed.ForbiddenException;
+import se.michaelthelin.spotify.exceptions.detailed.InternalServerErrorException;
+import se.michaelthelin.spotify.exceptions.detailed.NotFoundException;
+import se.michaelthelin.spotify.exceptions.detailed.ServiceUnavailableException;
+import se.michaelthelin.spotify.exceptions.detailed.TooManyRequestsException;
+import se.michaelthelin.spotify.exceptions.detailed.UnauthorizedException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.regex.Pattern;
+
+/**
+ * Spotify HTTP manager that reports every request of one account to {@link ApiTelemetry}.
+ * <p>
+ * The client library only returns response bodies and turns error statuses into exceptions, so
+ * a successful call is recorded as 200 and a failed one with the status of its exception.
+ */
+public class TelemetryHttpManager implements IHttpManager {
+
+    private static final Pattern WORD = Pattern.compile("[a-z-]+");
+
+    private final IHttpManager delegate;
+    private final ApiTelemetry telemetry;
+    private final String spotifyUserId;
+
+    public TelemetryHttpManager(IHttpManager delegate, ApiTelemetry telemetry, String spotifyUserId) {
+        this.delegate = delegate;
+        this.telemetry = telemetry;
+        this.spotifyUserId = spotifyUserId;
+    }
+
+    @Override
+    public String get(URI uri, Header[] headers) throws IOException, SpotifyWebApiException, ParseException {
+        return call("GET", uri, () -> delegate.get(uri, headers));
+    }
+
+    @Override
+    public String post(URI uri, Header[] headers, HttpEntity body)
+            throws IOException, SpotifyWebApiException, ParseException {
+        return call("POST", uri, () -> delegate.post(uri, headers, body));
+    }
+
+    @Override
+    public String put(URI uri, Header[] headers, HttpEntity body)
+            throws IOException, SpotifyWebApiException, ParseException {
+        return call("PUT", uri, () -> delegate.put(uri, headers, body));
+    }
+
+    @Override
+    public String delete(URI uri, Header[] headers, HttpEntity body)
+            throws IOException, SpotifyWebApiException, ParseException {
+        return call("DELETE", uri, () -> delegate.delete(uri, headers, body));
+    }
+
+    private String call(String method, URI uri, Request request)
+            throws IOException, SpotifyWebApiException, ParseException {
+        long started = System.nanoTime();
+        int status = 0;
+        Exception error = null;
+        try {
+            String body = request.execute();
+            status = 200;
+            return body;
+        } catch (IOException | SpotifyWebApiException | ParseException | RuntimeException e) {
+            status = status(e);
+            error = e;
+            throw e;
+        } finally {
+            telemetry.record(ApiTelemetry.SPOTIFY, endpoint(uri), method, status,
+                    (System.nanoTime() - started) / 1_000_000, spotifyUserId, error);
+        }
+    }
+
+    /**
+     * @return the path with ids replaced, so that calls group by endpoint: every segment that is
+     * not a lowercase word, and whatever follows {@code users}
+     */
+    static String endpoint(URI uri) {
+        String path = uri.getPath();
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        StringBuilder endpoint = new StringBuilder(path.length());
+        String previous = "";
+        for (String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            endpoint.append('/');
+            endpoint.append(WORD.matcher(segment).matches() && !previous.equals("users") ? segment : "{id}");
+            previous = segment;
+        }
+        return endpoint.toString();
+    }
+
+    private static int status(Exception e) {
+        if (e instanceof BadRequestException) {
+            return 400;
+        } else if (e instanceof UnauthorizedException) {
+            return 401;
+        } else if (e instanceof ForbiddenException) {
+            return 403;
+        } else if (e instanceof NotFoundException) {
+            return 404;
+        } else if (e instanceof TooManyRequestsException) {
+            return 429;
+        } else if (e instanceof InternalServerErrorException) {
+            return 500;
+        } else if (e instanceof BadGatewayException) {
+            return 502;
+        } else if (e instanceof ServiceUnavailableException) {
+            return 503;
+        }
+        return 0;
+    }
+
+    @FunctionalInterface
+    private interface Request {
+        String execute() throws IOException, SpotifyWebApiException, ParseException;
+    }
+}
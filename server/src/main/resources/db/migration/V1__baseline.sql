@@ -0,0 +1,139 @@
+-- Baseline schema. Databases created before Flyway was introduced already have some of these
+-- objects (from ddl-auto=update and the former schema.sql), so every statement is idempotent.
+
+-- JPA entities, names as Hibernate generated them.
+CREATE TABLE IF NOT EXISTS users (
+    id       BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    username VARCHAR(50)   NOT NULL,
+    email    VARCHAR(120)  NOT NULL,
+    password VARCHAR(100)  NOT NULL,
+    CONSTRAINT uk_user_username UNIQUE (username),
+    CONSTRAINT uk_user_email UNIQUE (email)
+);
+
+CREATE TABLE IF NOT EXISTS user_details (
+    id            BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    access_token  VARCHAR(500),
+    refresh_token VARCHAR(500),
+    ref_id        VARCHAR(100),
+    avatar_url    VARCHAR(500),
+    user_id       BIGINT,
+    CONSTRAINT fkicouhgavvmiiohc28mgk0kuj5 FOREIGN KEY (user_id) REFERENCES users (id)
+);
+
+CREATE TABLE IF NOT EXISTS spotify_user_details (
+    id                     BIGINT        NOT NULL PRIMARY KEY,
+    spotify_user_id        VARCHAR(100),
+    display_name           VARCHAR(100),
+    email                  VARCHAR(120),
+    product_type           VARCHAR(50),
+    country                VARCHAR(10),
+    recently_played_cursor BIGINT,
+    top_tracks_synced_at   TIMESTAMPTZ,
+    CONSTRAINT uk4s72ig77kixrqb9geipwwfeuf UNIQUE (spotify_user_id),
+    CONSTRAINT fk4dl44wd5b9iv7rn1lsthwbnxn FOREIGN KEY (id) REFERENCES user_details (id)
+);
+
+-- added by ddl-auto on databases that predate the ingestion columns
+ALTER TABLE spotify_user_details ADD COLUMN IF NOT EXISTS recently_played_cursor BIGINT;
+ALTER TABLE spotify_user_details ADD COLUMN IF NOT EXISTS top_tracks_synced_at TIMESTAMPTZ;
+
+CREATE TABLE IF NOT EXISTS yandex_user_details (
+    id             BIGINT        NOT NULL PRIMARY KEY,
+    yandex_user_id VARCHAR(100),
+    display_name   VARCHAR(100),
+    login          VARCHAR(100),
+    first_name     VARCHAR(50),
+    last_name      VARCHAR(50),
+    CONSTRAINT uk1i3x7rygck2i2doqegcyg5mwu UNIQUE (yandex_user_id),
+    CONSTRAINT fk7gmjyud6o4drp4lqd9b1rigmm FOREIGN KEY (id) REFERENCES user_details (id)
+);
+
+-- Listening history, range-partitioned by month on listened_at.
+-- Monthly partitions are created ahead of time by ListeningHistoryCollector; the default
+-- partition only catches plays outside the prepared range.
+CREATE TABLE IF NOT EXISTS listening_statistics (
+    user_id          BIGINT        NOT NULL REFERENCES users (id) ON DELETE CASCADE,
+    platform         VARCHAR(20)   NOT NULL,
+    track_id         VARCHAR(100)  NOT NULL,
+    track_name       VARCHAR(500),
+    artist_names     VARCHAR(1000),
+    listened_at      TIMESTAMPTZ   NOT NULL,
+    play_duration_ms INTEGER,
+    context_type     VARCHAR(20),
+    context_id       VARCHAR(255),
+    created_at       TIMESTAMPTZ   NOT NULL DEFAULT now(),
+    PRIMARY KEY (user_id, platform, listened_at)
+) PARTITION BY RANGE (listened_at);
+
+CREATE TABLE IF NOT EXISTS listening_statistics_default PARTITION OF listening_statistics DEFAULT;
+
+CREATE INDEX IF NOT EXISTS idx_listening_stats_track ON listening_statistics (track_id);
+
+-- Latest Spotify top tracks per user and time range, replaced on every sync.
+CREATE TABLE IF NOT EXISTS listening_top_tracks (
+    user_id      BIGINT        NOT NULL REFERENCES users (id) ON DELETE CASCADE,
+    time_range   VARCHAR(20)   NOT NULL,
+    rank         INTEGER       NOT NULL,
+    track_id     VARCHAR(100)  NOT NULL,
+    track_name   VARCHAR(500),
+    artist_names VARCHAR(1000),
+    captured_at  TIMESTAMPTZ   NOT NULL,
+    PRIMARY KEY (user_id, time_range, rank)
+);
+
+-- Incrementally maintained rollups of listening_statistics (period is DAY or WEEK, UTC).
+-- Updated in the same transaction as the plays they count, see ListeningStatisticsService.
+CREATE TABLE IF NOT EXISTS user_statistics (
+    user_id         BIGINT      NOT NULL REFERENCES users (id) ON DELETE CASCADE,
+    period          VARCHAR(4)  NOT NULL,
+    period_start    DATE        NOT NULL,
+    tracks_listened INTEGER     NOT NULL DEFAULT 0,
+    listening_ms    BIGINT      NOT NULL DEFAULT 0,
+    PRIMARY KEY (user_id, period, period_start)
+);
+
+CREATE TABLE IF NOT EXISTS user_artist_statistics (
+    user_id      BIGINT        NOT NULL REFERENCES users (id) ON DELETE CASCADE,
+    period       VARCHAR(4)    NOT NULL,
+    period_start DATE          NOT NULL,
+    artist       VARCHAR(500)  NOT NULL,
+    plays        INTEGER       NOT NULL DEFAULT 0,
+    listening_ms BIGINT        NOT NULL DEFAULT 0,
+    PRIMARY KEY (user_id, period, period_start, artist)
+);
+
+CREATE TABLE IF NOT EXISTS user_track_statistics (
+    user_id      BIGINT        NOT NULL REFERENCES users (id) ON DELETE CASCADE,
+    period       VARCHAR(4)    NOT NULL,
+    period_start DATE          NOT NULL,
+    track_id     VARCHAR(100)  NOT NULL,
+    track_name   VARCHAR(500),
+    artist_names VARCHAR(1000),
+    plays        INTEGER       NOT NULL DEFAULT 0,
+    listening_ms BIGINT        NOT NULL DEFAULT 0,
+    PRIMARY KEY (user_id, period, period_start, track_id)
+);
+
+-- Durable queue of transfer jobs shared by all app instances, see TransferJobRepository.
+CREATE TABLE IF NOT EXISTS transfer_jobs (
+    id              UUID          PRIMARY KEY,
+    job_type        VARCHAR(20)   NOT NULL,
+    spotify_user_id VARCHAR(255)  NOT NULL,
+    payload         JSONB         NOT NULL,
+    progress        JSONB,
+    status          VARCHAR(15)   NOT NULL DEFAULT 'QUEUED',
+    attempts        INTEGER       NOT NULL DEFAULT 0,
+    max_attempts    INTEGER       NOT NULL,
+    run_after       TIMESTAMPTZ   NOT NULL DEFAULT now(),
+    locked_by       VARCHAR(255),
+    lease_until     TIMESTAMPTZ,
+    heartbeat_at    TIMESTAMPTZ,
+    error           TEXT,
+    created_at      TIMESTAMPTZ   NOT NULL DEFAULT now(),
+    updated_at      TIMESTAMPTZ   NOT NULL DEFAULT now(),
+    finished_at     TIMESTAMPTZ
+);
+
+CREATE INDEX IF NOT EXISTS transfer_jobs_queued_idx ON transfer_jobs (run_after) WHERE status = 'QUEUED';
+CREATE INDEX IF NOT EXISTS transfer_jobs_running_idx ON transfer_jobs (lease_until) WHERE status = 'RUNNING';
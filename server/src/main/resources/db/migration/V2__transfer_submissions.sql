@@ -0,0 +1,16 @@
+-- Idempotency and coalescing of transfer submissions, see TransferSubmissionRepository.
+-- One row per submission key: the first request to insert it runs the transfer, duplicates
+-- wait for it and get its result until the row expires.
+CREATE TABLE IF NOT EXISTS transfer_submissions (
+    submission_key  VARCHAR(64)   PRIMARY KEY,
+    kind            VARCHAR(20)   NOT NULL,
+    spotify_user_id VARCHAR(255)  NOT NULL,
+    status          VARCHAR(15)   NOT NULL,
+    result          TEXT,
+    locked_by       VARCHAR(255),
+    created_at      TIMESTAMPTZ   NOT NULL DEFAULT now(),
+    finished_at     TIMESTAMPTZ,
+    expires_at      TIMESTAMPTZ   NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS transfer_submissions_expires_idx ON transfer_submissions (expires_at);
@@ -0,0 +1,33 @@
+-- Subscription plans, after SubscriptionPlans in sql/SQLQuerySoma.sql, and the monthly transfer
+-- usage they limit. See SubscriptionPlanRepository and TransferScheduler.
+CREATE TABLE IF NOT EXISTS subscription_plans (
+    plan_type             VARCHAR(10)   PRIMARY KEY CHECK (plan_type IN ('free', 'premium')),
+    plan_name             VARCHAR(100)  NOT NULL UNIQUE,
+    max_monthly_transfers INTEGER,
+    priority_processing   BOOLEAN       NOT NULL DEFAULT false,
+    is_active             BOOLEAN       NOT NULL DEFAULT true,
+    created_at            TIMESTAMPTZ   NOT NULL DEFAULT now()
+);
+
+-- no limit on premium transfers
+INSERT INTO subscription_plans (plan_type, plan_name, max_monthly_transfers, priority_processing)
+VALUES ('free', 'Free', 3, false),
+       ('premium', 'Premium', NULL, true)
+ON CONFLICT (plan_type) DO NOTHING;
+
+ALTER TABLE spotify_user_details
+    ADD COLUMN IF NOT EXISTS plan_type VARCHAR(10) NOT NULL DEFAULT 'free' REFERENCES subscription_plans (plan_type);
+
+CREATE TABLE IF NOT EXISTS transfer_quota_usage (
+    spotify_user_id VARCHAR(255)  NOT NULL,
+    month           DATE          NOT NULL,
+    transfers       INTEGER       NOT NULL DEFAULT 0,
+    updated_at      TIMESTAMPTZ   NOT NULL DEFAULT now(),
+    PRIMARY KEY (spotify_user_id, month)
+);
+
+-- queued jobs of priority plans are claimed first
+ALTER TABLE transfer_jobs ADD COLUMN IF NOT EXISTS priority SMALLINT NOT NULL DEFAULT 0;
+
+DROP INDEX IF EXISTS transfer_jobs_queued_idx;
+CREATE INDEX IF NOT EXISTS transfer_jobs_queued_idx ON transfer_jobs (priority DESC, run_after) WHERE status = 'QUEUED';
@@ -0,0 +1,32 @@
+-- Outbound API usage and errors, after APIUsageLogs and ErrorLogs in sql/SQLQuerySoma.sql.
+-- Rows are written in batches by ApiTelemetry, see TelemetryRepository.
+CREATE TABLE IF NOT EXISTS api_usage_logs (
+    id               BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    spotify_user_id  VARCHAR(255),
+    platform         VARCHAR(20)   NOT NULL,
+    endpoint         VARCHAR(255)  NOT NULL,
+    request_method   VARCHAR(10)   NOT NULL,
+    response_code    INTEGER,
+    response_time_ms INTEGER       NOT NULL,
+    correlation_id   VARCHAR(64),
+    created_at       TIMESTAMPTZ   NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS api_usage_logs_user_idx ON api_usage_logs (spotify_user_id, created_at);
+CREATE INDEX IF NOT EXISTS api_usage_logs_platform_idx ON api_usage_logs (platform, created_at);
+
+CREATE TABLE IF NOT EXISTS error_logs (
+    id              BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
+    spotify_user_id VARCHAR(255),
+    platform        VARCHAR(20)   NOT NULL,
+    endpoint        VARCHAR(255),
+    error_type      VARCHAR(100)  NOT NULL,
+    error_message   TEXT          NOT NULL,
+    severity        VARCHAR(10)   NOT NULL CHECK (severity IN ('low', 'medium', 'high', 'critical')),
+    correlation_id  VARCHAR(64),
+    resolved        BOOLEAN       NOT NULL DEFAULT false,
+    created_at      TIMESTAMPTZ   NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS error_logs_severity_idx ON error_logs (severity, created_at);
+CREATE INDEX IF NOT EXISTS error_logs_platform_idx ON error_logs (platform, created_at);
@@ -0,0 +1,16 @@
+-- Per track outcome of bulk transfers, one row per source track in source order.
+-- Written playlist by playlist by BulkTransferService, streamed out by TransferResultExporter.
+CREATE TABLE IF NOT EXISTS transfer_track_results (
+    job_id        UUID           NOT NULL REFERENCES transfer_jobs (id) ON DELETE CASCADE,
+    source_index  INTEGER        NOT NULL,
+    position      INTEGER        NOT NULL,
+    source_link   TEXT           NOT NULL,
+    playlist_name TEXT,
+    artists       TEXT,
+    title         TEXT,
+    status        VARCHAR(10)    NOT NULL,
+    spotify_uri   VARCHAR(100),
+    confidence    REAL,
+    cached        BOOLEAN        NOT NULL DEFAULT false,
+    PRIMARY KEY (job_id, source_index, position)
+);
@@ -0,0 +1,101 @@
+package com.soma.server.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NearCacheTest {
+
+    private static final Duration TTL = Duration.ofHours(1);
+    private static final String CHANNEL = "soma:invalidate:tracks";
+
+    private final LocalCacheStore store = spy(new LocalCacheStore(1000));
+    private final NearCache cache = new NearCache("tracks", store, 1000, TTL);
+
+    @Test
+    void readsThroughToTheSharedStoreAndKeepsALocalCopy() {
+        store.set("soma:tracks:k", "shared", TTL);
+
+        assertThat(cache.get("k")).isEqualTo("shared");
+        // served locally until the local copy is invalidated or expires
+        store.delete("soma:tracks:k");
+        assertThat(cache.get("k")).isEqualTo("shared");
+        assertThat(cache.get("missing")).isNull();
+    }
+
+    @Test
+    void dropsTheLocalCopyWhenAnotherNodeWrites() {
+        cache.put("k", "old", TTL);
+
+        // another node stores a new value and announces the key
+        store.set("soma:tracks:k", "new", TTL);
+        store.publish(CHANNEL, "other-node k");
+
+        assertThat(cache.get("k")).isEqualTo("new");
+    }
+
+    @Test
+    void ignoresItsOwnInvalidations() {
+        cache.put("k", "v", TTL);
+        verify(store).publish(anyString(), anyString());
+
+        // the local copy survived this node's own message
+        store.delete("soma:tracks:k");
+        assertThat(cache.get("k")).isEqualTo("v");
+    }
+
+    @Test
+    void evictsBothTiers() {
+        cache.put("k", "v", TTL);
+
+        cache.evict("k");
+
+        assertThat(store.get("soma:tracks:k")).isNull();
+        assertThat(cache.get("k")).isNull();
+        // other nodes are told to drop their copy
+        verify(store, times(2)).publish(eq(CHANNEL), endsWith(" k"));
+    }
+
+    @Test
+    void fetchesAllLocalMissesInOneRequest() {
+        cache.put("a", "1", TTL);
+        store.set("soma:tracks:b", "2", TTL);
+
+        Map<String, String> found = cache.getAll(List.of("a", "b", "c"));
+
+        assertThat(found).containsExactlyInAnyOrderEntriesOf(Map.of("a", "1", "b", "2"));
+        verify(store).multiGet(List.of("soma:tracks:b", "soma:tracks:c"));
+        // b is now local as well
+        store.delete("soma:tracks:b");
+        assertThat(cache.getAll(List.of("a", "b"))).containsExactlyInAnyOrderEntriesOf(Map.of("a", "1", "b", "2"));
+    }
+
+    @Test
+    void keepsWorkingLocallyWhenTheSharedStoreFails() {
+        SharedCacheStore failing = mock(SharedCacheStore.class);
+        when(failing.get(anyString())).thenThrow(new IllegalStateException("connection refused"));
+        when(failing.multiGet(anyList())).thenThrow(new IllegalStateException("connection refused"));
+        doThrow(new IllegalStateException("connection refused")).when(failing).set(anyString(), anyString(), any());
+        NearCache degraded = new NearCache("tracks", failing, 1000, TTL);
+
+        assertThat(degraded.get("k")).isNull();
+        degraded.put("k", "v", TTL);
+        assertThat(degraded.get("k")).isEqualTo("v");
+        assertThat(degraded.getAll(List.of("k", "other"))).containsExactly(Map.entry("k", "v"));
+    }
+}
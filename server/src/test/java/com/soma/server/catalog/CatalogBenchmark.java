@@ -0,0 +1,125 @@
+package com.soma.server.catalog;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Footprint and lookup latency of {@link TrackCatalog} in each storage mode, next to the
+ * {@code HashMap<String, String>} of cache keys and values it replaces. Run with
+ * {@code docker/catalog-benchmark.sh [tracks]}.
+ * <p>
+ * Synthetic tracks: one artist per 20 tracks, titles of two to four words from a small
+ * vocabulary, random Spotify ids. Heap footprint is the used heap after a full GC.
+ */
+public final class CatalogBenchmark {
+
+    private static final String[] WORDS = ("love night heart baby time dance world fire rain light dream girl "
+            + "summer way home road blue gold star moon sun city lost forever young wild ночь любовь город "
+            + "небо звезда лето море дождь солнце песня время").split(" ");
+    private static final String BASE62 = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+    private static final int LOOKUPS = 2_000_000;
+
+    private CatalogBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int tracks = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[][] data = generate(tracks);
+        System.out.printf(Locale.ROOT, "%,d tracks, %,d lookups per structure%n%n", tracks, LOOKUPS);
+        System.out.printf(Locale.ROOT, "%-10s %10s %10s %10s %8s %8s %8s%n",
+                "structure", "heap MB", "off-heap", "B/track", "avg ns", "p50 ns", "p99 ns");
+
+        long base = usedHeap();
+        Map<String, String> map = new HashMap<>();
+        for (String[] track : data) {
+            map.put(track[0] + '\u0000' + track[1], "spotify:track:" + track[2] + " 0.900");
+        }
+        long mapHeap = usedHeap() - base;
+        report("HashMap", mapHeap, 0, tracks, time(data, (artists, title) -> map.get(artists + '\u0000' + title)));
+        map.clear();
+
+        Path directory = Files.createTempDirectory("soma-catalog");
+        for (TrackCatalog.Storage storage : TrackCatalog.Storage.values()) {
+            base = usedHeap();
+            try (TrackCatalog catalog = new TrackCatalog(storage, directory.resolve(storage.name()), tracks)) {
+                for (String[] track : data) {
+                    catalog.put(track[0], track[1], track[2], 0.9);
+                }
+                long heap = usedHeap() - base;
+                report(storage.name().toLowerCase(Locale.ROOT), heap, catalog.offHeapBytes(), tracks,
+                        time(data, catalog::get));
+            }
+        }
+    }
+
+    private static String[][] generate(int tracks) {
+        SplittableRandom random = new SplittableRandom(42);
+        String[][] data = new String[tracks][];
+        for (int i = 0; i < tracks; i++) {
+            String artist = "artist " + (i / 20) + " " + WORDS[(i / 20) % WORDS.length];
+            StringBuilder title = new StringBuilder();
+            for (int w = 2 + random.nextInt(3); w > 0; w--) {
+                title.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            title.append(i % 97);
+            char[] id = new char[22];
+            for (int c = 0; c < id.length; c++) {
+                id[c] = BASE62.charAt(random.nextInt(BASE62.length()));
+            }
+            data[i] = new String[]{artist, title.toString(), new String(id)};
+        }
+        return data;
+    }
+
+    private static long[] time(String[][] data, Lookup lookup) {
+        SplittableRandom random = new SplittableRandom(7);
+        // warm-up, then timed lookups; every 64th one is timed alone for the percentiles
+        for (int i = 0; i < LOOKUPS; i++) {
+            String[] track = data[random.nextInt(data.length)];
+            lookup.get(track[0], track[1]);
+        }
+        long[] samples = new long[LOOKUPS / 64];
+        int misses = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            String[] track = data[random.nextInt(data.length)];
+            if ((i & 63) == 0) {
+                long t = System.nanoTime();
+                misses += lookup.get(track[0], track[1]) == null ? 1 : 0;
+                samples[i >> 6] = System.nanoTime() - t;
+            } else {
+                misses += lookup.get(track[0], track[1]) == null ? 1 : 0;
+            }
+        }
+        long total = System.nanoTime() - start;
+        if (misses > 0) {
+            throw new IllegalStateException(misses + " lookups missed");
+        }
+        Arrays.sort(samples);
+        return new long[]{total / LOOKUPS, samples[samples.length / 2], samples[samples.length * 99 / 100]};
+    }
+
+    private static void report(String name, long heap, long offHeap, int tracks, long[] latency) {
+        System.out.printf(Locale.ROOT, "%-10s %10.1f %10.1f %10d %8d %8d %8d%n", name, heap / 1048576.0,
+                offHeap / 1048576.0, (heap + offHeap) / tracks, latency[0], latency[1], latency[2]);
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    @FunctionalInterface
+    private interface Lookup {
+        Object get(String artists, String title);
+    }
+}
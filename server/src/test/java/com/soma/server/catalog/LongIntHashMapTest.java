@@ -0,0 +1,50 @@
+package com.soma.server.catalog;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongIntHashMapTest {
+
+    @Test
+    void keepsEntriesAcrossRehashes() {
+        LongIntHashMap map = new LongIntHashMap(0);
+        long initialBytes = map.bytes();
+        for (int i = 0; i < 100_000; i++) {
+            // artist and title ids side by side, as TrackCatalog builds its keys
+            map.put(((long) (i / 20) << 32) | i, i);
+        }
+
+        assertThat(map.size()).isEqualTo(100_000);
+        assertThat(map.bytes()).isGreaterThan(initialBytes);
+        for (int i = 0; i < 100_000; i++) {
+            assertThat(map.get(((long) (i / 20) << 32) | i)).isEqualTo(i);
+        }
+        assertThat(map.get(-1L)).isEqualTo(-1);
+        assertThat(map.get((long) 100_000 << 32)).isEqualTo(-1);
+    }
+
+    @Test
+    void overwritesExistingKeys() {
+        LongIntHashMap map = new LongIntHashMap(16);
+        map.put(42L, 0);
+        map.put(42L, 7);
+        map.put(0L, 3);
+
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(map.get(42L)).isEqualTo(7);
+        // key 0 and value 0 are stored like any other
+        assertThat(map.get(0L)).isEqualTo(3);
+        map.put(0L, 0);
+        assertThat(map.get(0L)).isZero();
+    }
+
+    @Test
+    void reportsMissingKeys() {
+        LongIntHashMap map = new LongIntHashMap(16);
+
+        assertThat(map.get(1L)).isEqualTo(-1);
+        map.put(1L, 1);
+        assertThat(map.get(2L)).isEqualTo(-1);
+    }
+}
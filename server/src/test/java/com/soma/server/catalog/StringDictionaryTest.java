@@ -0,0 +1,92 @@
+package com.soma.server.catalog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StringDictionaryTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void internsEachStringOnce() {
+        StringDictionary dictionary = new StringDictionary(new Arena(TrackCatalog.Storage.HEAP, null));
+
+        int kino = dictionary.intern("Кино");
+        int queen = dictionary.intern("Queen");
+
+        assertThat(dictionary.intern("Кино")).isEqualTo(kino);
+        assertThat(queen).isNotEqualTo(kino);
+        assertThat(dictionary.size()).isEqualTo(2);
+        assertThat(dictionary.get(kino)).isEqualTo("Кино");
+        assertThat(dictionary.find("Queen")).isEqualTo(queen);
+        assertThat(dictionary.find("queen")).isEqualTo(-1);
+        assertThat(dictionary.intern("")).isEqualTo(2);
+        assertThat(dictionary.get(2)).isEmpty();
+    }
+
+    @Test
+    void keepsStringsWithTheSameHashApart() {
+        String[] pair = collidingPair();
+        StringDictionary dictionary = new StringDictionary(new Arena(TrackCatalog.Storage.HEAP, null));
+
+        int first = dictionary.intern(pair[0]);
+        assertThat(dictionary.find(pair[1])).isEqualTo(-1);
+        int second = dictionary.intern(pair[1]);
+
+        assertThat(second).isNotEqualTo(first);
+        assertThat(dictionary.find(pair[0])).isEqualTo(first);
+        assertThat(dictionary.find(pair[1])).isEqualTo(second);
+        assertThat(dictionary.get(second)).isEqualTo(pair[1]);
+    }
+
+    @Test
+    void growsPastItsInitialTable() {
+        StringDictionary dictionary = new StringDictionary(new Arena(TrackCatalog.Storage.HEAP, null));
+        for (int i = 0; i < 50_000; i++) {
+            assertThat(dictionary.intern("artist " + i)).isEqualTo(i);
+        }
+        for (int i = 0; i < 50_000; i++) {
+            assertThat(dictionary.find("artist " + i)).isEqualTo(i);
+        }
+    }
+
+    @Test
+    void reloadsFromMappedArena() {
+        Path file = directory.resolve("strings.bin");
+        Arena arena = new Arena(TrackCatalog.Storage.MAPPED, file);
+        StringDictionary dictionary = new StringDictionary(arena);
+        for (int i = 0; i < 5_000; i++) {
+            dictionary.intern("title " + i);
+        }
+        int kino = dictionary.intern("Кино");
+        arena.close();
+
+        StringDictionary reloaded = new StringDictionary(new Arena(TrackCatalog.Storage.MAPPED, file));
+
+        assertThat(reloaded.size()).isEqualTo(5_001);
+        assertThat(reloaded.find("Кино")).isEqualTo(kino);
+        assertThat(reloaded.get(kino)).isEqualTo("Кино");
+        assertThat(reloaded.find("title 4999")).isEqualTo(4_999);
+        assertThat(reloaded.intern("new")).isEqualTo(5_001);
+    }
+
+    // birthday search over short strings, finds a 32-bit collision within a few hundred thousand tries
+    private static String[] collidingPair() {
+        Map<Integer, String> seen = new HashMap<>();
+        for (int i = 0; ; i++) {
+            String value = "s" + i;
+            String previous = seen.putIfAbsent(StringDictionary.hash(value.getBytes(StandardCharsets.UTF_8)), value);
+            if (previous != null) {
+                return new String[]{previous, value};
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.soma.server.catalog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TrackCatalogTest {
+
+    private static final String ID = "4uLU6hMCjMI75M1A2tKUQC";
+    private static final String OTHER_ID = "7GhIk7Il098yCjg4BQjzvb";
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @EnumSource(TrackCatalog.Storage.class)
+    void storesAndReplacesMatches(TrackCatalog.Storage storage) {
+        try (TrackCatalog catalog = new TrackCatalog(storage, directory, 100)) {
+            assertThat(catalog.put("Rick Astley", "Never Gonna Give You Up", ID, 0.97)).isTrue();
+            assertThat(catalog.put("Кино", "Группа крови", OTHER_ID, Double.NaN)).isTrue();
+
+            assertThat(catalog.get("Rick Astley", "Never Gonna Give You Up"))
+                    .isEqualTo(new TrackCatalog.Match(ID, 0.97));
+            assertThat(catalog.get("Кино", "Группа крови").confidence()).isNaN();
+            assertThat(catalog.get("Rick Astley", "Группа крови")).isNull();
+            assertThat(catalog.get("Unknown", "Never Gonna Give You Up")).isNull();
+
+            assertThat(catalog.put("Rick Astley", "Never Gonna Give You Up", OTHER_ID, 1.5)).isTrue();
+            assertThat(catalog.get("Rick Astley", "Never Gonna Give You Up"))
+                    .isEqualTo(new TrackCatalog.Match(OTHER_ID, 1.0));
+            assertThat(catalog.size()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void rejectsMalformedIds() {
+        try (TrackCatalog catalog = new TrackCatalog(TrackCatalog.Storage.HEAP, null, 100)) {
+            assertThat(catalog.put("Queen", "Bohemian Rhapsody", null, 0.9)).isFalse();
+            assertThat(catalog.put("Queen", "Bohemian Rhapsody", "spotify:track:" + ID, 0.9)).isFalse();
+            assertThat(catalog.put("Queen", "Bohemian Rhapsody", ID.substring(1), 0.9)).isFalse();
+            assertThat(catalog.put("Queen", "Bohemian Rhapsody", ID.substring(1) + "-", 0.9)).isFalse();
+
+            assertThat(catalog.size()).isZero();
+            assertThat(catalog.get("Queen", "Bohemian Rhapsody")).isNull();
+        }
+    }
+
+    @Test
+    void stopsAddingWhenFull() {
+        try (TrackCatalog catalog = new TrackCatalog(TrackCatalog.Storage.HEAP, null, 2)) {
+            assertThat(catalog.put("A", "1", ID, 0.9)).isTrue();
+            assertThat(catalog.put("A", "2", ID, 0.9)).isTrue();
+            assertThat(catalog.put("A", "3", ID, 0.9)).isFalse();
+            // stored tracks can still be updated
+            assertThat(catalog.put("A", "1", OTHER_ID, 0.8)).isTrue();
+
+            assertThat(catalog.size()).isEqualTo(2);
+            assertThat(catalog.get("A", "3")).isNull();
+            assertThat(catalog.get("A", "1").spotifyId()).isEqualTo(OTHER_ID);
+        }
+    }
+
+    @Test
+    void reopensMappedCatalog() {
+        try (TrackCatalog catalog = new TrackCatalog(TrackCatalog.Storage.MAPPED, directory, 100_000)) {
+            for (int i = 0; i < 10_000; i++) {
+                catalog.put("artist " + i / 20, "title " + i, ID, i / 10_000.0);
+            }
+            catalog.put("artist 0", "title 0", OTHER_ID, 0.5);
+        }
+
+        try (TrackCatalog reopened = new TrackCatalog(TrackCatalog.Storage.MAPPED, directory, 100_000)) {
+            assertThat(reopened.size()).isEqualTo(10_000);
+            assertThat(reopened.get("artist 0", "title 0")).isEqualTo(new TrackCatalog.Match(OTHER_ID, 0.5));
+            assertThat(reopened.get("artist 499", "title 9999")).isEqualTo(new TrackCatalog.Match(ID, 1.0));
+            assertThat(reopened.put("artist 500", "title 10000", ID, 0.9)).isTrue();
+            assertThat(reopened.size()).isEqualTo(10_001);
+            assertThat(reopened.offHeapBytes()).isPositive();
+        }
+    }
+}
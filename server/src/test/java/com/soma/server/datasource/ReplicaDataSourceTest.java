@@ -0,0 +1,129 @@
+package com.soma.server.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ReplicaDataSourceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final DataSource primary = mock(DataSource.class);
+    private final Connection primaryConnection = mock(Connection.class);
+    private final Pool first = new Pool("replica-1");
+    private final Pool second = new Pool("replica-2");
+    private ReplicaDataSource dataSource;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(primary.getConnection()).thenReturn(primaryConnection);
+        // checks are run by the tests, start() is not called
+        dataSource = new ReplicaDataSource(primary, List.of(first.pool, second.pool), Duration.ofSeconds(5),
+                Duration.ofSeconds(1), meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dataSource.close();
+    }
+
+    @Test
+    void readsFromThePrimaryUntilTheFirstCheck() throws Exception {
+        assertThat(dataSource.getConnection()).isSameAs(primaryConnection);
+        assertThat(meterRegistry.get("soma.datasource.reads").tag("target", "primary").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void spreadsReadsOverTheReplicasThatCaughtUp() throws Exception {
+        dataSource.checkLag();
+
+        List<Connection> connections = List.of(dataSource.getConnection(), dataSource.getConnection(),
+                dataSource.getConnection(), dataSource.getConnection());
+
+        assertThat(connections).containsOnly(first.connection, second.connection);
+        assertThat(connections).filteredOn(connection -> connection == first.connection).hasSize(2);
+        assertThat(meterRegistry.get("soma.datasource.reads").tag("target", "replica").counter().count()).isEqualTo(4);
+    }
+
+    @Test
+    void skipsAReplicaThatLagsUntilItCaughtUp() throws Exception {
+        first.lagSeconds(10);
+        dataSource.checkLag();
+
+        assertThat(dataSource.getConnection()).isSameAs(second.connection);
+        assertThat(dataSource.getConnection()).isSameAs(second.connection);
+        assertThat(meterRegistry.get("soma.datasource.replica.lag").tag("pool", "replica-1").gauge().value())
+                .isEqualTo(10);
+
+        first.lagSeconds(1);
+        dataSource.checkLag();
+        assertThat(List.of(dataSource.getConnection(), dataSource.getConnection()))
+                .containsExactlyInAnyOrder(first.connection, second.connection);
+    }
+
+    @Test
+    void fallsBackToThePrimaryWhenNoReplicaServes() throws Exception {
+        first.lagSeconds(10);
+        when(second.pool.getConnection()).thenThrow(new SQLException("Connection refused"));
+        dataSource.checkLag();
+
+        assertThat(dataSource.getConnection()).isSameAs(primaryConnection);
+        assertThat(meterRegistry.get("soma.datasource.replica.lag").tag("pool", "replica-2").gauge().value()).isNaN();
+    }
+
+    @Test
+    void dropsAReplicaThatFailsToHandOutAConnection() throws Exception {
+        dataSource.checkLag();
+        when(first.pool.getConnection()).thenThrow(new SQLException("Connection refused"));
+
+        // the failing replica is skipped right away and not asked again until the next check
+        for (int i = 0; i < 4; i++) {
+            assertThat(dataSource.getConnection()).isSameAs(second.connection);
+        }
+        verify(first.pool, times(2)).getConnection();
+    }
+
+    /**
+     * A replica pool whose connections report the configured replication lag.
+     */
+    private static final class Pool {
+
+        private final HikariDataSource pool = mock(HikariDataSource.class);
+        private final Connection connection = mock(Connection.class);
+        private final ResultSet lag = mock(ResultSet.class);
+
+        Pool(String name) {
+            try {
+                Statement statement = mock(Statement.class);
+                when(pool.getPoolName()).thenReturn(name);
+                when(pool.getConnection()).thenReturn(connection);
+                when(connection.createStatement()).thenReturn(statement);
+                when(statement.executeQuery(anyString())).thenReturn(lag);
+                when(lag.next()).thenReturn(true);
+                lagSeconds(0);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void lagSeconds(double seconds) throws SQLException {
+            when(lag.getDouble(1)).thenReturn(seconds);
+        }
+    }
+}
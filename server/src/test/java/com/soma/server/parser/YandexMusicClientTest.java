@@ -0,0 +1,134 @@
+package com.soma.server.parser;
+
+import com.soma.server.parser.YandexMusicClient.Endpoint;
+import com.soma.server.telemetry.ApiTelemetry;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class YandexMusicClientTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Host first = new Host("first");
+    private final Host second = new Host("second");
+
+    @AfterEach
+    void tearDown() {
+        first.server.stop(0);
+        second.server.stop(0);
+    }
+
+    @Test
+    void hedgesToTheNextHostWhenTheFirstIsSlow() throws Exception {
+        first.delayMillis = 3000;
+        YandexMusicClient client = client(1, 5, Duration.ofMillis(200));
+
+        long started = System.nanoTime();
+        String body = client.get(Endpoint.ALBUM, Map.of("album", "1"));
+
+        assertThat(body).isEqualTo("second");
+        // answered by the hedge, long before the first host would have
+        assertThat(Duration.ofNanos(System.nanoTime() - started)).isLessThan(Duration.ofMillis(2000));
+        assertThat(meterRegistry.get("soma.yandex.hedges").tag("endpoint", "ALBUM").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void failsOverRightAwayWhenTheFirstHostFails() throws Exception {
+        first.status = 503;
+        YandexMusicClient client = client(1, 5, Duration.ofSeconds(5));
+
+        assertThat(client.get(Endpoint.ALBUM, Map.of("album", "1"))).isEqualTo("second");
+        assertThat(meterRegistry.get("soma.yandex.hedges").tag("endpoint", "ALBUM").counter().count()).isZero();
+    }
+
+    @Test
+    void doesNotRetryClientErrors() {
+        first.status = 404;
+        YandexMusicClient client = client(3, 5, Duration.ofSeconds(5));
+
+        assertThatThrownBy(() -> client.get(Endpoint.ALBUM, Map.of("album", "1")))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("HTTP 404");
+        assertThat(first.requests).hasValue(1);
+        assertThat(second.requests).hasValue(0);
+    }
+
+    @Test
+    void skipsAHostWhoseBreakerIsOpen() throws Exception {
+        first.status = 503;
+        YandexMusicClient client = client(1, 1, Duration.ofSeconds(5));
+
+        assertThat(client.get(Endpoint.ALBUM, Map.of("album", "1"))).isEqualTo("second");
+        assertThat(client.get(Endpoint.ALBUM, Map.of("album", "2"))).isEqualTo("second");
+
+        // the first failure opened the first host's breaker, the second call went to the other host only
+        assertThat(first.requests).hasValue(1);
+        assertThat(second.requests).hasValue(2);
+        assertThat(meterRegistry.get("soma.yandex.breaker.open").tag("endpoint", "ALBUM").tag("host", first.url())
+                .gauge().value()).isEqualTo(1);
+        // the breakers are per endpoint
+        assertThat(meterRegistry.get("soma.yandex.breaker.open").tag("endpoint", "PLAYLIST").tag("host", first.url())
+                .gauge().value()).isZero();
+    }
+
+    // a first request on a fresh client can take long enough to be hedged, only the hedging test wants that
+    private YandexMusicClient client(int maxAttempts, int failureThreshold, Duration hedgeDelay) {
+        return new YandexMusicClient(meterRegistry, mock(ApiTelemetry.class), List.of(first.url(), second.url()),
+                Duration.ofSeconds(1), Duration.ofSeconds(5), maxAttempts, Duration.ofMillis(10), 0.95,
+                Duration.ofMillis(50), hedgeDelay, failureThreshold, Duration.ofMinutes(1), "test");
+    }
+
+    /**
+     * A local stand-in for one Yandex host, answering every handler with its name.
+     */
+    private static final class Host {
+
+        private final HttpServer server;
+        private final AtomicInteger requests = new AtomicInteger();
+        private volatile int status = 200;
+        private volatile long delayMillis;
+
+        Host(String name) {
+            try {
+                server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            server.setExecutor(Executors.newCachedThreadPool());
+            server.createContext("/", exchange -> {
+                requests.incrementAndGet();
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                byte[] body = name.getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(status, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + server.getAddress().getPort();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.soma.server.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.web.context.HttpSessionSecurityContextRepository;
+import org.springframework.security.web.context.SecurityContextHolderFilter;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Per-request cost of authentication in process, without the network and servlet container
+ * that bound {@code docker/auth-benchmark.sh}: the filter that restores a login session next to
+ * {@link TokenAuthenticationFilter} with a cached and with a verified access token. Run with
+ * {@code MODE=inprocess docker/auth-benchmark.sh [requests]}.
+ * <p>
+ * The session is a {@link MockHttpSession}, a map lookup like an in-memory session store; a shared
+ * session store would add its round trip.
+ */
+public final class AuthBenchmark {
+
+    private AuthBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        System.out.printf(Locale.ROOT, "%,d requests per filter%n%n", requests);
+        System.out.printf(Locale.ROOT, "%-16s %8s %8s %8s%n", "authentication", "avg ns", "p50 ns", "p99 ns");
+
+        // the session filter chain restores the context that form login stored in the session
+        User user = new User("bench@soma.local", "", List.of());
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(UsernamePasswordAuthenticationToken.authenticated(user, null, user.getAuthorities()));
+        MockHttpSession session = new MockHttpSession();
+        session.setAttribute(HttpSessionSecurityContextRepository.SPRING_SECURITY_CONTEXT_KEY, context);
+        MockHttpServletRequest sessionRequest = new MockHttpServletRequest("GET", "/soma/api/home");
+        sessionRequest.setSession(session);
+        report("session", time(new SecurityContextHolderFilter(new HttpSessionSecurityContextRepository()),
+                sessionRequest, requests));
+
+        String secret = secret();
+        TokenService cachingService = tokenService(secret, Duration.ofMinutes(1));
+        MockHttpServletRequest bearerRequest = new MockHttpServletRequest("GET", "/soma/api/home");
+        bearerRequest.addHeader(HttpHeaders.AUTHORIZATION,
+                "Bearer " + cachingService.issue(1, "bench@soma.local").accessToken());
+        report("bearer, cached", time(new TokenAuthenticationFilter(cachingService), bearerRequest, requests));
+        // cached principals expire at once, every request checks the signature and parses the claims
+        report("bearer, verified", time(new TokenAuthenticationFilter(tokenService(secret, Duration.ZERO)),
+                bearerRequest, requests));
+        // the signature check and claims parse alone, without the filter and the principal cache
+        String token = bearerRequest.getHeader(HttpHeaders.AUTHORIZATION).substring("Bearer ".length());
+        report("token verify", time((req, res, chain) -> cachingService.verify(token, TokenService.ACCESS)
+                .orElseThrow(), bearerRequest, requests));
+    }
+
+    private static long[] time(Filter filter, MockHttpServletRequest request, int requests) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        // the chain reads the authentication like the authorization filter does
+        FilterChain chain = (req, res) -> {
+            if (SecurityContextHolder.getContext().getAuthentication() == null) {
+                throw new IllegalStateException("Request was not authenticated");
+            }
+        };
+        // warm-up, then timed requests; every 64th one is timed alone for the percentiles
+        for (int i = 0; i < requests; i++) {
+            filter.doFilter(request, response, chain);
+            SecurityContextHolder.clearContext();
+        }
+        long[] samples = new long[(requests + 63) / 64];
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++) {
+            if ((i & 63) == 0) {
+                long t = System.nanoTime();
+                filter.doFilter(request, response, chain);
+                SecurityContextHolder.clearContext();
+                samples[i >> 6] = System.nanoTime() - t;
+            } else {
+                filter.doFilter(request, response, chain);
+                SecurityContextHolder.clearContext();
+            }
+        }
+        long total = System.nanoTime() - start;
+        Arrays.sort(samples);
+        return new long[]{total / requests, samples[samples.length / 2], samples[samples.length * 99 / 100]};
+    }
+
+    private static TokenService tokenService(String secret, Duration principalCacheTtl) {
+        return new TokenService(new ObjectMapper(), new SimpleMeterRegistry(), List.of(secret), true,
+                Duration.ofMinutes(15), Duration.ofDays(14), principalCacheTtl, 10_000, List.of());
+    }
+
+    private static String secret() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    private static void report(String name, long[] latency) {
+        System.out.printf(Locale.ROOT, "%-16s %8d %8d %8d%n", name, latency[0], latency[1], latency[2]);
+    }
+}
@@ -0,0 +1,92 @@
+package com.soma.server.security;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PasswordHasherTest {
+
+    // BCrypt takes its cost from the hash, checking against this one is far slower than a cost 4 hash
+    private static final String SLOW_HASH = new BCryptPasswordEncoder(12).encode("slow");
+
+    @Test
+    void encodesAndMatches() {
+        try (PasswordHasher hasher = hasher(2, 4, Duration.ofSeconds(10))) {
+            String hash = hasher.encode("secret");
+
+            assertThat(hasher.matches("secret", hash)).isTrue();
+            assertThat(hasher.matches("other", hash)).isFalse();
+            assertThat(hasher.upgradeEncoding(hash)).isFalse();
+        }
+    }
+
+    @Test
+    void rejectsWhenTheQueueIsFull() throws Exception {
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        try (PasswordHasher hasher = hasher(1, 1, Duration.ofSeconds(30))) {
+            // one slow hash running and one waiting fill the pool
+            Future<Boolean> running = callers.submit(() -> hasher.matches("slow", SLOW_HASH));
+            Thread.sleep(100);
+            Future<Boolean> queued = callers.submit(() -> hasher.matches("slow", SLOW_HASH));
+            Thread.sleep(100);
+
+            assertThatThrownBy(() -> hasher.encode("secret")).isInstanceOf(PasswordHasher.BusyException.class);
+            assertThat(running.get()).isTrue();
+            assertThat(queued.get()).isTrue();
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void recoversAfterOneSlowHash() throws Exception {
+        try (PasswordHasher hasher = hasher(1, 4, Duration.ofMillis(20))) {
+            // times out, and its time, far above maxWait, becomes the first sample of the average
+            assertThatThrownBy(() -> hasher.matches("slow", SLOW_HASH)).isInstanceOf(PasswordHasher.BusyException.class);
+
+            // once the slow hash is done, a caller that finds the thread free is served again
+            long deadline = System.nanoTime() + Duration.ofSeconds(20).toNanos();
+            String hash = null;
+            while (hash == null && System.nanoTime() < deadline) {
+                try {
+                    hash = hasher.encode("secret");
+                } catch (PasswordHasher.BusyException e) {
+                    Thread.sleep(50);
+                }
+            }
+            assertThat(hash).isNotNull();
+            for (int i = 0; i < 5; i++) {
+                assertThat(hasher.matches("secret", hash)).isTrue();
+            }
+        }
+    }
+
+    @Test
+    void runsConcurrentHashesUpToThePoolSize() {
+        try (PasswordHasher hasher = hasher(4, 1, Duration.ofSeconds(10))) {
+            String hash = hasher.encode("secret");
+            CompletableFuture<?>[] checks = new CompletableFuture<?>[4];
+            for (int i = 0; i < checks.length; i++) {
+                checks[i] = CompletableFuture.supplyAsync(() -> hasher.matches("secret", hash));
+            }
+
+            CompletableFuture.allOf(checks).join();
+            for (CompletableFuture<?> check : checks) {
+                assertThat(check.join()).isEqualTo(true);
+            }
+        }
+    }
+
+    private static PasswordHasher hasher(int threads, int queueSize, Duration maxWait) {
+        return new PasswordHasher(4, threads, queueSize, maxWait, new SimpleMeterRegistry());
+    }
+}
@@ -0,0 +1,68 @@
+package com.soma.server.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenAuthenticationFilterTest {
+
+    private final TokenService tokenService = new TokenService(new ObjectMapper(), new SimpleMeterRegistry(),
+            List.of(Base64.getEncoder().encodeToString(new byte[32])), true, Duration.ofMinutes(15),
+            Duration.ofDays(14), Duration.ofMinutes(1), 100, List.of());
+    private final TokenAuthenticationFilter filter = new TokenAuthenticationFilter(tokenService);
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void authenticatesABearerToken() throws Exception {
+        String token = tokenService.issue(42, "user@soma.local").accessToken();
+
+        Authentication authentication = filter("bearer  " + token);
+
+        assertThat(authentication).isNotNull();
+        assertThat(authentication.getName()).isEqualTo("user@soma.local");
+        assertThat(TokenService.userId(authentication)).isEqualTo(42);
+    }
+
+    @Test
+    void passesOtherRequestsOnUnauthenticated() throws Exception {
+        String refresh = tokenService.issue(42, "user@soma.local").refreshToken();
+
+        assertThat(filter(null)).isNull();
+        assertThat(filter("Basic dXNlcjpwYXNz")).isNull();
+        assertThat(filter("Bearer invalid")).isNull();
+        // a refresh token is only good for getting new tokens
+        assertThat(filter("Bearer " + refresh)).isNull();
+    }
+
+    /**
+     * @return the authentication the rest of the chain saw
+     */
+    private Authentication filter(String authorization) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/soma/api/home");
+        if (authorization != null) {
+            request.addHeader(HttpHeaders.AUTHORIZATION, authorization);
+        }
+        AtomicReference<Authentication> seen = new AtomicReference<>();
+        filter.doFilter(request, new MockHttpServletResponse(),
+                (req, res) -> seen.set(SecurityContextHolder.getContext().getAuthentication()));
+        SecurityContextHolder.clearContext();
+        return seen.get();
+    }
+}
@@ -0,0 +1,121 @@
+package com.soma.server.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TokenServiceTest {
+
+    private static final String OLD_SECRET = secret();
+    private static final String NEW_SECRET = secret();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void issuesTokensThatVerifyAsTheirOwnType() {
+        TokenService service = service(List.of(NEW_SECRET), Duration.ofMinutes(15));
+        TokenService.TokenPair pair = service.issue(42, "user@soma.local");
+
+        assertThat(pair.expiresIn()).isEqualTo(900);
+        assertThat(service.verify(pair.accessToken(), TokenService.ACCESS)).hasValueSatisfying(claims -> {
+            assertThat(claims.userId()).isEqualTo(42);
+            assertThat(claims.email()).isEqualTo("user@soma.local");
+        });
+        assertThat(service.verify(pair.refreshToken(), TokenService.REFRESH)).isPresent();
+        // a refresh token does not authenticate requests, an access token does not refresh
+        assertThat(service.verify(pair.refreshToken(), TokenService.ACCESS)).isEmpty();
+        assertThat(service.verify(pair.accessToken(), TokenService.REFRESH)).isEmpty();
+    }
+
+    @Test
+    void rejectsTamperedMalformedAndExpiredTokens() {
+        TokenService service = service(List.of(NEW_SECRET), Duration.ofMinutes(15));
+        String token = service.issue(42, "user@soma.local").accessToken();
+        String[] parts = token.split("\\.");
+        String payload = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+        String forged = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(payload.replace("\"uid\":42", "\"uid\":1").getBytes(StandardCharsets.UTF_8));
+
+        assertThat(service.verify(parts[0] + "." + forged + "." + parts[2], TokenService.ACCESS)).isEmpty();
+        assertThat(service.verify(parts[0] + "." + parts[1], TokenService.ACCESS)).isEmpty();
+        assertThat(service.verify(token + ".extra", TokenService.ACCESS)).isEmpty();
+        assertThat(service.verify(parts[0] + "." + parts[1] + ".not*base64", TokenService.ACCESS)).isEmpty();
+
+        TokenService expiring = service(List.of(NEW_SECRET), Duration.ofSeconds(-1));
+        assertThat(expiring.verify(expiring.issue(42, "user@soma.local").accessToken(), TokenService.ACCESS)).isEmpty();
+    }
+
+    @Test
+    void acceptsTokensOfARotatedOutSecret() {
+        TokenService before = service(List.of(OLD_SECRET), Duration.ofMinutes(15));
+        // the new secret signs, the old one is still accepted until its tokens expired
+        TokenService rotating = service(List.of(NEW_SECRET, OLD_SECRET), Duration.ofMinutes(15));
+        TokenService after = service(List.of(NEW_SECRET), Duration.ofMinutes(15));
+
+        String oldToken = before.issue(42, "user@soma.local").accessToken();
+        String newToken = rotating.issue(42, "user@soma.local").accessToken();
+
+        assertThat(rotating.verify(oldToken, TokenService.ACCESS)).isPresent();
+        assertThat(after.verify(newToken, TokenService.ACCESS)).isPresent();
+        assertThat(after.verify(oldToken, TokenService.ACCESS)).isEmpty();
+        assertThat(before.verify(newToken, TokenService.ACCESS)).isEmpty();
+    }
+
+    @Test
+    void checksTheConfiguredSecrets() {
+        assertThatThrownBy(() -> new TokenService(new ObjectMapper(), meterRegistry, List.of(""), true,
+                Duration.ofMinutes(15), Duration.ofDays(14), Duration.ofMinutes(1), 100, List.of()))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> service(List.of(Base64.getEncoder().encodeToString(new byte[16])), Duration.ofMinutes(15)))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        // without secrets every node signs with a key of its own
+        TokenService node = service(List.of(), Duration.ofMinutes(15));
+        TokenService otherNode = service(List.of(), Duration.ofMinutes(15));
+        String token = node.issue(42, "user@soma.local").accessToken();
+        assertThat(node.verify(token, TokenService.ACCESS)).isPresent();
+        assertThat(otherNode.verify(token, TokenService.ACCESS)).isEmpty();
+    }
+
+    @Test
+    void authenticatesAdminsAndCachesThePrincipal() {
+        TokenService service = new TokenService(new ObjectMapper(), meterRegistry, List.of(NEW_SECRET), true,
+                Duration.ofMinutes(15), Duration.ofDays(14), Duration.ofMinutes(1), 100, List.of(" Admin@Soma.local "));
+        String admin = service.issue(1, "admin@soma.local").accessToken();
+        String user = service.issue(2, "user@soma.local").accessToken();
+
+        Authentication authentication = service.authenticate(admin).orElseThrow();
+        assertThat(authentication.getAuthorities()).extracting(GrantedAuthority::getAuthority)
+                .containsExactly("ROLE_" + TokenService.ADMIN_ROLE);
+        assertThat(TokenService.userId(authentication)).isEqualTo(1);
+        assertThat(service.authenticate(user).orElseThrow().getAuthorities()).isEmpty();
+        assertThat(service.authenticate(admin)).containsSame(authentication);
+        assertThat(service.authenticate("invalid")).isEmpty();
+
+        assertThat(meterRegistry.get("soma.auth.tokens").tag("outcome", "verified").counter().count()).isEqualTo(2);
+        assertThat(meterRegistry.get("soma.auth.tokens").tag("outcome", "cached").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("soma.auth.tokens").tag("outcome", "rejected").counter().count()).isEqualTo(1);
+    }
+
+    private TokenService service(List<String> secrets, Duration accessTtl) {
+        return new TokenService(new ObjectMapper(), meterRegistry, secrets, false, accessTtl, Duration.ofDays(14),
+                Duration.ofMinutes(1), 100, List.of());
+    }
+
+    private static String secret() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+}
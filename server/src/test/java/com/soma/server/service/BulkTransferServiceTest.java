@@ -0,0 +1,190 @@
+package com.soma.server.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.soma.server.entity.SpotifyUserDetails;
+import com.soma.server.parser.YmParser;
+import com.soma.server.parser.YmPlaylist;
+import com.soma.server.parser.YmTrack;
+import com.soma.server.repository.SpotifyUserDetailsRepository;
+import com.soma.server.repository.TransferJobRepository;
+import com.soma.server.repository.TransferJobRepository.QueuedJob;
+import com.soma.server.repository.TransferResultRepository;
+import com.soma.server.service.TransferService.TrackMatch;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BulkTransferServiceTest {
+
+    private static final UUID JOB_ID = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final String FIRST = "https://music.yandex.ru/users/a/playlists/1";
+    private static final String SECOND = "https://music.yandex.ru/users/a/playlists/2";
+
+    private final YmParser ymParser = mock(YmParser.class);
+    private final TransferService transferService = mock(TransferService.class);
+    private final PlaylistContentService playlistContentService = mock(PlaylistContentService.class);
+    private final SpotifyUserDetailsRepository detailsRepository = mock(SpotifyUserDetailsRepository.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final SpotifyUserDetails details = new SpotifyUserDetails();
+    private BulkTransferService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        service = new BulkTransferService(ymParser, transferService, playlistContentService,
+                mock(TransferJobRepository.class), mock(TransferResultRepository.class), detailsRepository,
+                mock(SubmissionCoalescer.class), mock(TransferScheduler.class), objectMapper);
+        ReflectionTestUtils.setField(service, "parseParallelism", 2);
+        ReflectionTestUtils.setField(service, "searchParallelism", 2);
+        service.startPools();
+
+        details.setSpotifyUserId("owner");
+        when(detailsRepository.findBySpotifyUserId("owner")).thenReturn(Optional.of(details));
+        when(transferService.findCachedMatches(anyCollection())).thenReturn(Map.of());
+        when(transferService.createPlaylist(eq(details), any())).thenAnswer(invocation -> "sp-" + invocation.getArgument(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.stopPools();
+    }
+
+    @Test
+    void trackKeyIgnoresCaseAndSurroundingSpaces() {
+        assertThat(TransferService.trackKey(track("1", " Song ", "Artist")))
+                .isEqualTo(TransferService.trackKey(track("2", "song", "ARTIST ")));
+        assertThat(TransferService.trackKey(track("1", "Song", "Artist")))
+                .isNotEqualTo(TransferService.trackKey(track("1", "Song", "Other")));
+        // the separator keeps the artist and the title apart
+        assertThat(TransferService.trackKey(track("1", "bc", "a")))
+                .isNotEqualTo(TransferService.trackKey(track("1", "c", "ab")));
+    }
+
+    @Test
+    void searchesEveryDistinctTrackOnce() throws Exception {
+        YmTrack shared = track("1", "Shared", "Artist");
+        YmTrack cached = track("2", "Cached", "Artist");
+        YmTrack own = track("3", "Own", "Artist");
+        when(ymParser.parsePlaylist(FIRST)).thenReturn(new YmPlaylist("First", List.of(shared, cached)));
+        // the same song with other spelling, and twice in one playlist
+        when(ymParser.parsePlaylist(SECOND)).thenReturn(new YmPlaylist("Second",
+                List.of(track("4", "shared ", "ARTIST"), own, own)));
+        when(transferService.findCachedMatches(anyCollection())).thenReturn(
+                Map.of(TransferService.trackKey(cached), new TrackMatch("spotify:track:cached", 1.0, true)));
+        when(transferService.matchTrack(eq(details), any())).thenAnswer(invocation -> new TrackMatch(
+                "spotify:track:" + invocation.<YmTrack>getArgument(1).title().trim().toLowerCase(), 1.0, false));
+
+        service.execute(job(null), () -> {
+        });
+
+        // either spelling of the shared song may be searched, but only one of them
+        verify(transferService).matchTrack(eq(details), argThat(track -> track.title().trim().equals("Shared")
+                || track.title().trim().equals("shared")));
+        verify(transferService).matchTrack(details, own);
+        verify(transferService, times(2)).matchTrack(eq(details), any());
+        verify(transferService).addTracks(details, "sp-First", List.of("spotify:track:shared", "spotify:track:cached"));
+        verify(transferService).addTracks(details, "sp-Second", List.of("spotify:track:shared", "spotify:track:own"));
+    }
+
+    @Test
+    void skipsPlaylistsWithoutMatches() throws Exception {
+        when(ymParser.parsePlaylist(FIRST)).thenReturn(new YmPlaylist("First", List.of(track("1", "Song", "Artist"))));
+        when(ymParser.parsePlaylist(SECOND)).thenReturn(null);
+        when(transferService.matchTrack(eq(details), any())).thenReturn(new TrackMatch(null, 0.0, false));
+
+        String progress = service.execute(job(null), () -> {
+        });
+
+        // neither is worth another attempt, no playlist is created
+        verify(transferService, never()).createPlaylist(any(), any());
+        assertThat(objectMapper.readTree(progress).path("playlists").findValuesAsText("error"))
+                .containsExactly("No songs available", "Could not parse playlist");
+        assertThat(service.wrotePlaylist(JOB_ID)).isFalse();
+    }
+
+    @Test
+    void retriesOnlyThePlaylistsThatWereNotFilled() throws Exception {
+        YmTrack first = track("1", "One", "Artist");
+        YmTrack second = track("2", "Two", "Artist");
+        when(ymParser.parsePlaylist(FIRST)).thenReturn(new YmPlaylist("First", List.of(first)));
+        when(ymParser.parsePlaylist(SECOND)).thenReturn(new YmPlaylist("Second", List.of(first, second)));
+        when(transferService.matchTrack(eq(details), any())).thenAnswer(invocation ->
+                new TrackMatch("spotify:track:" + invocation.<YmTrack>getArgument(1).id(), 1.0, false));
+        when(transferService.addTracks(details, "sp-Second", List.of("spotify:track:1", "spotify:track:2")))
+                .thenThrow(new IOException("Spotify unavailable"));
+        AtomicInteger checkpoints = new AtomicInteger();
+
+        assertThatThrownBy(() -> service.execute(job(null), checkpoints::incrementAndGet))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Could not write 1 of 2 playlists");
+        // every created playlist is persisted before its tracks are added
+        assertThat(checkpoints).hasValue(2);
+        assertThat(service.wrotePlaylist(JOB_ID)).isTrue();
+
+        // the next attempt reads what the first one stored, and the first track made it into the playlist
+        String stored = service.progressJson(JOB_ID);
+        service.release(JOB_ID);
+        when(playlistContentService.getItemUris(details, "sp-Second")).thenReturn(List.of("spotify:track:1"));
+        service.execute(job(stored), checkpoints::incrementAndGet);
+
+        verify(ymParser).parsePlaylist(FIRST);
+        verify(transferService, times(2)).createPlaylist(eq(details), any());
+        verify(transferService).addTracks(details, "sp-Second", List.of("spotify:track:2"));
+        assertThat(checkpoints).hasValue(2);
+    }
+
+    @Test
+    void retriesAPlaylistThatCouldNotBeCreated() throws Exception {
+        when(ymParser.parsePlaylist(FIRST)).thenReturn(new YmPlaylist("First", List.of(track("1", "One", "Artist"))));
+        when(ymParser.parsePlaylist(SECOND)).thenReturn(new YmPlaylist("Second", List.of(track("2", "Two", "Artist"))));
+        when(transferService.matchTrack(eq(details), any())).thenAnswer(invocation ->
+                new TrackMatch("spotify:track:" + invocation.<YmTrack>getArgument(1).id(), 1.0, false));
+        when(transferService.createPlaylist(details, "Second")).thenThrow(new IOException("Spotify unavailable"));
+
+        assertThatThrownBy(() -> service.execute(job(null), () -> {
+        })).isInstanceOf(IllegalStateException.class);
+
+        // nothing was created for the second source, the next attempt parses and creates it again
+        String stored = service.progressJson(JOB_ID);
+        service.release(JOB_ID);
+        doReturn("sp-Second").when(transferService).createPlaylist(details, "Second");
+        service.execute(job(stored), () -> {
+        });
+
+        verify(ymParser).parsePlaylist(FIRST);
+        verify(ymParser, times(2)).parsePlaylist(SECOND);
+        verify(transferService).addTracks(details, "sp-Second", List.of("spotify:track:2"));
+        verify(playlistContentService, never()).getItemUris(any(), any());
+    }
+
+    private QueuedJob job(String progress) throws Exception {
+        String payload = objectMapper.writeValueAsString(new BulkTransferService.Payload(null, List.of(FIRST, SECOND), null));
+        return new QueuedJob(JOB_ID, BulkTransferService.JOB_TYPE, "owner", payload, progress, "RUNNING", 1, 5,
+                "node", null, null, null, null);
+    }
+
+    private static YmTrack track(String id, String title, String artists) {
+        return new YmTrack(id, title, artists, 200_000, null);
+    }
+}
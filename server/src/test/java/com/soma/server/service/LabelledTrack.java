@@ -0,0 +1,94 @@
+package com.soma.server.service;
+
+import com.soma.server.parser.YmTrack;
+import se.michaelthelin.spotify.model_objects.specification.Track;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A row of {@code docker/match-benchmark.tsv}: a source track and the Spotify track it should match.
+ * <p>
+ * The file is tab separated, {@code #} starts a comment line, and the first other line is the
+ * header: {@code artists, title, duration_ms, isrc, expected_artist, expected_title, expected_uri}.
+ * Empty {@code duration_ms}, {@code isrc} and {@code expected_uri} are allowed. A row whose
+ * {@code expected_title} is {@code -} must not match anything.
+ * <p>
+ * Labels are checked with their own normalization, not the matcher's, so that a change to the
+ * matcher cannot make its own mistakes look correct.
+ */
+record LabelledTrack(YmTrack source, String expectedArtist, String expectedTitle, String expectedUri) {
+
+    static final Path DEFAULT_FILE = Path.of("../docker/match-benchmark.tsv");
+
+    private static final Pattern DECORATION = Pattern.compile("\\s*[(\\[][^)\\]]*[)\\]]|\\s+-\\s+.*$");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Set<String> VERSION_WORDS = Set.of(
+            "karaoke", "instrumental", "cover", "tribute", "remix", "live", "acoustic", "sped", "slowed");
+
+    static List<LabelledTrack> read(Path file) throws IOException {
+        List<LabelledTrack> tracks = new ArrayList<>();
+        boolean header = true;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isBlank() || line.startsWith("#")) {
+                continue;
+            }
+            if (header) {
+                header = false;
+                continue;
+            }
+            String[] f = line.split("\t", -1);
+            long durationMs = f[2].isBlank() ? 0 : Long.parseLong(f[2].trim());
+            YmTrack source = new YmTrack(null, f[1], f[0], durationMs, f[3].isBlank() ? null : f[3]);
+            tracks.add(new LabelledTrack(source, f[4], f[5], f.length > 6 ? f[6] : ""));
+        }
+        return tracks;
+    }
+
+    boolean absent() {
+        return "-".equals(expectedTitle);
+    }
+
+    /**
+     * @return whether {@code track} is the expected one; any edition of the recording counts, other
+     * versions (live, remix, ...) do not
+     */
+    boolean matches(Track track) {
+        if (absent()) {
+            return track == null;
+        }
+        if (track == null) {
+            return false;
+        }
+        if (!expectedUri.isBlank()) {
+            return expectedUri.equals(track.getUri());
+        }
+        String name = track.getName();
+        return key(DECORATION.matcher(expectedTitle).replaceAll("")).equals(key(DECORATION.matcher(name).replaceAll("")))
+                && key(expectedArtist).equals(key(track.getArtists()[0].getName()))
+                && !addsVersion(name);
+    }
+
+    private boolean addsVersion(String name) {
+        List<String> expected = List.of(key(expectedTitle).split(" "));
+        for (String word : key(name).split(" ")) {
+            if (VERSION_WORDS.contains(word) && !expected.contains(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String key(String text) {
+        String decomposed = Normalizer.normalize(text.toLowerCase(Locale.ROOT), Normalizer.Form.NFKD);
+        return NON_WORD.matcher(decomposed.replaceAll("\\p{M}+", "")).replaceAll(" ").trim();
+    }
+}
@@ -0,0 +1,251 @@
+package com.soma.server.service;
+
+import com.soma.server.entity.SpotifyUserDetails;
+import com.soma.server.entity.User;
+import com.soma.server.repository.ListeningStatisticsRepository;
+import com.soma.server.repository.ListeningStatisticsRepository.IngestCursor;
+import com.soma.server.repository.ListeningStatisticsRepository.ListeningEvent;
+import com.soma.server.repository.SpotifyUserDetailsRepository;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+import se.michaelthelin.spotify.IHttpManager;
+import se.michaelthelin.spotify.SpotifyApi;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ListeningHistoryCollectorTest {
+
+    private static final Instant T0 = Instant.parse("2026-10-01T10:00:00Z");
+
+    private final SpotifyUserDetailsRepository detailsRepository = mock(SpotifyUserDetailsRepository.class);
+    private final ListeningStatisticsRepository statisticsRepository = mock(ListeningStatisticsRepository.class);
+    private final SpotifyApiCaller spotifyApiCaller = mock(SpotifyApiCaller.class);
+    private final ListeningStatisticsService statisticsService = mock(ListeningStatisticsService.class);
+    private final TransactionTemplate transactionTemplate = mock(TransactionTemplate.class);
+
+    // recently played pages served per account, and the URIs that were requested
+    private final Map<String, List<String>> pages = new HashMap<>();
+    private final List<URI> requests = new CopyOnWriteArrayList<>();
+
+    private ListeningHistoryCollector collector;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        collector = new ListeningHistoryCollector(detailsRepository, statisticsRepository, spotifyApiCaller,
+                statisticsService, transactionTemplate);
+        // one fetch thread, so accounts reach the batch in the order they were read
+        ReflectionTestUtils.setField(collector, "parallelism", 1);
+        ReflectionTestUtils.setField(collector, "batchSize", 1000);
+        ReflectionTestUtils.setField(collector, "topTracksInterval", Duration.ofHours(24));
+        collector.startPool();
+
+        when(spotifyApiCaller.execute(any(), any())).thenAnswer(invocation -> {
+            SpotifyUserDetails details = invocation.getArgument(0);
+            SpotifyApiCaller.SpotifyCall<?> call = invocation.getArgument(1);
+            return call.execute(new SpotifyApi.Builder()
+                    .setAccessToken("token")
+                    .setHttpManager(new FakeSpotify(pages.get(details.getSpotifyUserId())))
+                    .build());
+        });
+        when(transactionTemplate.execute(any())).thenAnswer(
+                invocation -> invocation.<TransactionCallback<?>>getArgument(0).doInTransaction(null));
+        when(statisticsRepository.insertEvents(anyList())).thenAnswer(invocation -> {
+            int[] counts = new int[invocation.<List<?>>getArgument(0).size()];
+            Arrays.fill(counts, 1);
+            return counts;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        collector.stopPool();
+    }
+
+    @Test
+    void writesAccountsTogetherInBatchesAndAdvancesCursors() {
+        ReflectionTestUtils.setField(collector, "batchSize", 3);
+        accounts(account(1, "a", null), account(2, "b", null), account(3, "c", null));
+        pages.put("a", List.of(page(null, play("t1", 10), play("t2", 20))));
+        pages.put("b", List.of(page(null, play("t3", 30), play("t4", 40))));
+        pages.put("c", List.of(page(null, play("t5", 50))));
+
+        collector.collect();
+
+        // the first two accounts reach the batch size together, the last one is flushed at the end
+        ArgumentCaptor<List<ListeningEvent>> events = eventCaptor();
+        verify(statisticsRepository, times(2)).insertEvents(events.capture());
+        assertThat(events.getAllValues()).extracting(List::size).containsExactly(4, 1);
+        assertThat(cursors()).containsExactlyInAnyOrder(
+                new IngestCursor(1, millis(20), null),
+                new IngestCursor(2, millis(40), null),
+                new IngestCursor(3, millis(50), null));
+        verify(statisticsService, times(2)).applyRollups(anyList());
+    }
+
+    @Test
+    void readsOnFromTheCursorAndSkipsLocalFiles() {
+        accounts(account(1, "a", millis(5)), account(2, "b", millis(60)));
+        pages.put("a", List.of(
+                page("https://api.spotify.com/v1/me/player/recently-played?after=" + millis(20),
+                        play("t1", 10), play(null, 20)),
+                page(null)));
+        pages.put("b", List.of(page(null)));
+
+        collector.collect();
+
+        ArgumentCaptor<List<ListeningEvent>> events = eventCaptor();
+        verify(statisticsRepository).insertEvents(events.capture());
+        assertThat(events.getValue()).extracting(ListeningEvent::trackId).containsExactly("t1");
+        // the local file has no track id but is the newest play, the cursor moves past it;
+        // the account without new plays keeps its cursor
+        assertThat(cursors()).containsExactly(new IngestCursor(1, millis(20), null));
+        assertThat(requests).extracting(URI::getQuery)
+                .filteredOn(query -> query.contains("after="))
+                .containsExactlyInAnyOrder("limit=50&after=" + millis(5), "limit=50&after=" + millis(20),
+                        "limit=50&after=" + millis(60));
+    }
+
+    @Test
+    void retriesAFailedBatchAccountByAccount() {
+        accounts(account(1, "a", null), account(2, "b", null));
+        pages.put("a", List.of(page(null, play("t1", 10))));
+        pages.put("b", List.of(page(null, play("bad", 20))));
+        when(statisticsRepository.insertEvents(anyList())).thenAnswer(invocation -> {
+            List<ListeningEvent> batch = invocation.getArgument(0);
+            if (batch.stream().anyMatch(event -> event.trackId().equals("bad"))) {
+                throw new IllegalStateException("constraint violated");
+            }
+            int[] counts = new int[batch.size()];
+            Arrays.fill(counts, 1);
+            return counts;
+        });
+
+        collector.collect();
+
+        verify(statisticsRepository, times(3)).insertEvents(anyList());
+        // only the account whose plays were stored moves its cursor, the other one fetches them again
+        assertThat(cursors()).containsExactly(new IngestCursor(1, millis(10), null));
+    }
+
+    @Test
+    void skipsTopTracksUntilTheyAreDue() {
+        accounts(account(1, "a", null));
+        pages.put("a", List.of(page(null)));
+
+        collector.collect();
+
+        assertThat(requests).extracting(URI::getPath).containsExactly("/v1/me/player/recently-played");
+        verify(statisticsRepository, never()).insertEvents(anyList());
+        verify(statisticsRepository, never()).updateCursors(anyList());
+    }
+
+    private void accounts(SpotifyUserDetails... accounts) {
+        when(detailsRepository.findTop500ByIdGreaterThanAndUserIsNotNullOrderByIdAsc(anyLong())).thenReturn(List.of());
+        when(detailsRepository.findTop500ByIdGreaterThanAndUserIsNotNullOrderByIdAsc(0L)).thenReturn(List.of(accounts));
+    }
+
+    private List<IngestCursor> cursors() {
+        ArgumentCaptor<List<IngestCursor>> captor = ArgumentCaptor.captor();
+        verify(statisticsRepository, atLeast(0)).updateCursors(captor.capture());
+        List<IngestCursor> cursors = new ArrayList<>();
+        captor.getAllValues().forEach(cursors::addAll);
+        return cursors;
+    }
+
+    private static ArgumentCaptor<List<ListeningEvent>> eventCaptor() {
+        return ArgumentCaptor.captor();
+    }
+
+    private static SpotifyUserDetails account(long id, String spotifyUserId, Long cursor) {
+        User user = new User();
+        user.setId(100 + id);
+        SpotifyUserDetails details = new SpotifyUserDetails();
+        details.setId(id);
+        details.setUser(user);
+        details.setSpotifyUserId(spotifyUserId);
+        details.setRecentlyPlayedCursor(cursor);
+        // top tracks were synced just now
+        details.setTopTracksSyncedAt(Instant.now());
+        return details;
+    }
+
+    private static long millis(int seconds) {
+        return T0.plusSeconds(seconds).toEpochMilli();
+    }
+
+    private static String play(String trackId, int seconds) {
+        return """
+                {"track": {"id": %s, "name": "Song", "type": "track", "duration_ms": 200000,
+                           "artists": [{"name": "Artist", "type": "artist"}]},
+                 "played_at": "%s", "context": null}""".formatted(
+                trackId != null ? '"' + trackId + '"' : "null", T0.plusSeconds(seconds));
+    }
+
+    private static String page(String next, String... plays) {
+        String cursors = next != null ? "{\"after\": \"" + next.substring(next.indexOf("after=") + 6) + "\"}" : "null";
+        return """
+                {"href": "https://api.spotify.com/v1/me/player/recently-played", "limit": 50,
+                 "next": %s, "cursors": %s, "items": [%s]}""".formatted(
+                next != null ? '"' + next + '"' : "null", cursors, String.join(",", plays));
+    }
+
+    /**
+     * Serves the recently played pages of one account in order, then empty pages.
+     */
+    private final class FakeSpotify implements IHttpManager {
+
+        private final List<String> responses;
+        private int served;
+
+        FakeSpotify(List<String> responses) {
+            this.responses = responses;
+        }
+
+        @Override
+        public String get(URI uri, Header[] headers) {
+            requests.add(uri);
+            return served < responses.size() ? responses.get(served++) : page(null);
+        }
+
+        @Override
+        public String post(URI uri, Header[] headers, HttpEntity body) {
+            throw new UnsupportedOperationException(uri.toString());
+        }
+
+        @Override
+        public String put(URI uri, Header[] headers, HttpEntity body) {
+            throw new UnsupportedOperationException(uri.toString());
+        }
+
+        @Override
+        public String delete(URI uri, Header[] headers, HttpEntity body) {
+            throw new UnsupportedOperationException(uri.toString());
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.soma.server.service;
+
+import com.soma.server.repository.ListeningRollupRepository;
+import com.soma.server.repository.ListeningRollupRepository.ArtistDelta;
+import com.soma.server.repository.ListeningRollupRepository.TotalsDelta;
+import com.soma.server.repository.ListeningRollupRepository.TrackDelta;
+import com.soma.server.repository.ListeningStatisticsRepository.ListeningEvent;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.TemporalAdjusters;
+import java.util.List;
+
+import static com.soma.server.service.ListeningStatisticsService.DAY;
+import static com.soma.server.service.ListeningStatisticsService.WEEK;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+class ListeningStatisticsServiceTest {
+
+    // a Sunday and the Monday after it, in different weeks
+    private static final LocalDate SUNDAY = LocalDate.of(2026, 10, 4);
+    private static final LocalDate MONDAY = LocalDate.of(2026, 10, 5);
+    private static final LocalDate PREVIOUS_MONDAY = LocalDate.of(2026, 9, 28);
+
+    private final ListeningRollupRepository repository = mock(ListeningRollupRepository.class);
+    private final ListeningStatisticsService service = new ListeningStatisticsService(repository);
+
+    @Test
+    void foldsPlaysIntoDailyAndWeeklyDeltas() {
+        service.applyRollups(List.of(
+                play("t1", List.of("A", "B"), "2026-10-04T23:30:00Z", 1000),
+                // the same artist twice counts as one play of that artist, a play without duration adds none
+                play("t1", List.of("A", "A"), "2026-10-04T10:00:00Z", null),
+                play("t2", List.of("B"), "2026-10-05T00:10:00Z", 3000)));
+
+        ArgumentCaptor<List<TotalsDelta>> totals = ArgumentCaptor.captor();
+        verify(repository).incrementTotals(totals.capture());
+        // sorted by user, period and start, the order the rows are locked in
+        assertThat(totals.getValue()).containsExactly(
+                new TotalsDelta(1, DAY, SUNDAY, 2, 1000),
+                new TotalsDelta(1, DAY, MONDAY, 1, 3000),
+                new TotalsDelta(1, WEEK, PREVIOUS_MONDAY, 2, 1000),
+                new TotalsDelta(1, WEEK, MONDAY, 1, 3000));
+
+        ArgumentCaptor<List<ArtistDelta>> artists = ArgumentCaptor.captor();
+        verify(repository).incrementArtists(artists.capture());
+        assertThat(artists.getValue()).containsExactly(
+                new ArtistDelta(1, DAY, SUNDAY, "A", 2, 1000),
+                new ArtistDelta(1, DAY, SUNDAY, "B", 1, 1000),
+                new ArtistDelta(1, DAY, MONDAY, "B", 1, 3000),
+                new ArtistDelta(1, WEEK, PREVIOUS_MONDAY, "A", 2, 1000),
+                new ArtistDelta(1, WEEK, PREVIOUS_MONDAY, "B", 1, 1000),
+                new ArtistDelta(1, WEEK, MONDAY, "B", 1, 3000));
+
+        ArgumentCaptor<List<TrackDelta>> tracks = ArgumentCaptor.captor();
+        verify(repository).incrementTracks(tracks.capture());
+        // the name and artists come from the first play of the track
+        assertThat(tracks.getValue()).containsExactly(
+                new TrackDelta(1, DAY, SUNDAY, "t1", "Song t1", "A, B", 2, 1000),
+                new TrackDelta(1, DAY, MONDAY, "t2", "Song t2", "B", 1, 3000),
+                new TrackDelta(1, WEEK, PREVIOUS_MONDAY, "t1", "Song t1", "A, B", 2, 1000),
+                new TrackDelta(1, WEEK, MONDAY, "t2", "Song t2", "B", 1, 3000));
+    }
+
+    @Test
+    void writesNothingWithoutPlays() {
+        service.applyRollups(List.of());
+
+        verify(repository, never()).incrementTotals(anyList());
+        verify(repository, never()).incrementArtists(anyList());
+        verify(repository, never()).incrementTracks(anyList());
+    }
+
+    @Test
+    void readsDailyRowsForShortWindowsAndWeeksForLongOnes() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+
+        service.getTopArtists(1, 31, 10);
+        verify(repository).findTopArtists(1, DAY, today.minusDays(30), today, 10);
+
+        service.getTopTracks(1, 32, 10);
+        verify(repository).findTopTracks(1, WEEK, monday(today.minusDays(31)), monday(today), 10);
+    }
+
+    @Test
+    void readsTheRequestedPeriod() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+
+        service.getSummary(1, "week", 7);
+        verify(repository).findTotals(1, WEEK, monday(today.minusDays(6)), monday(today));
+
+        service.getSummary(1, "day", 90);
+        verify(repository).findTotals(1, DAY, today.minusDays(89), today);
+    }
+
+    @Test
+    void rejectsInvalidWindows() {
+        assertThatThrownBy(() -> service.getSummary(1, null, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.getSummary(1, null, 5 * 366 + 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.getSummary(1, "month", 7)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static LocalDate monday(LocalDate day) {
+        return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+    }
+
+    private static ListeningEvent play(String trackId, List<String> artists, String listenedAt, Integer durationMs) {
+        return new ListeningEvent(1, "SPOTIFY", trackId, "Song " + trackId, artists, Instant.parse(listenedAt),
+                durationMs, null, null);
+    }
+}
@@ -0,0 +1,103 @@
+package com.soma.server.service;
+
+import com.soma.server.ServerApplication;
+import com.soma.server.entity.SpotifyUserDetails;
+import com.soma.server.parser.YmTrack;
+import com.soma.server.repository.SpotifyUserDetailsRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.Environment;
+import se.michaelthelin.spotify.model_objects.specification.Track;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Runs {@link TrackMatcher} against the Spotify API over a labelled set of tracks (see
+ * {@link LabelledTrack}) and reports its accuracy and the search calls it spent. Starts the
+ * application without its web server for the linked account {@code soma.matcher.benchmark.spotify-user-id};
+ * run with {@code docker/match-benchmark.sh}. The match cache is bypassed, every track is searched.
+ */
+public final class MatchBenchmark {
+
+    private static final Logger logger = LoggerFactory.getLogger(MatchBenchmark.class);
+
+    private MatchBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int exitCode;
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(ServerApplication.class)
+                .web(WebApplicationType.NONE)
+                .run(args)) {
+            Environment environment = context.getEnvironment();
+            Path file = Path.of(environment.getRequiredProperty("soma.matcher.benchmark.file"));
+            String spotifyUserId = environment.getRequiredProperty("soma.matcher.benchmark.spotify-user-id");
+            SpotifyUserDetails details = context.getBean(SpotifyUserDetailsRepository.class)
+                    .findBySpotifyUserId(spotifyUserId)
+                    .orElseThrow(() -> new IllegalStateException("Spotify account " + spotifyUserId + " is not linked"));
+            exitCode = run(context.getBean(TrackMatcher.class), details, file);
+        }
+        System.exit(exitCode);
+    }
+
+    private static int run(TrackMatcher trackMatcher, SpotifyUserDetails details, Path file) throws IOException {
+        int rows = 0;
+        int correct = 0;
+        int wrong = 0;
+        int missed = 0;
+        int failed = 0;
+        int matched = 0;
+        int calls = 0;
+        Map<TrackMatcher.Strategy, Integer> hits = new EnumMap<>(TrackMatcher.Strategy.class);
+        for (LabelledTrack label : LabelledTrack.read(file)) {
+            YmTrack source = label.source();
+            rows++;
+
+            TrackMatcher.Result result;
+            try {
+                result = trackMatcher.match(details, source);
+            } catch (Exception e) {
+                failed++;
+                logger.warn("FAILED   {} - {}: {}", source.artists(), source.title(), e.getMessage());
+                continue;
+            }
+            calls += result.calls();
+            Track track = result.track();
+            if (track != null) {
+                matched++;
+                hits.merge(result.strategy(), 1, Integer::sum);
+            }
+            if (label.matches(track)) {
+                correct++;
+            } else if (track == null) {
+                missed++;
+                logger.info("MISSED   {} - {}", source.artists(), source.title());
+            } else {
+                wrong++;
+                logger.info("WRONG    {} - {} -> {} - {} ({}, {}, score {})", source.artists(), source.title(),
+                        track.getArtists()[0].getName(), track.getName(), track.getUri(), result.strategy(),
+                        String.format("%.3f", result.score()));
+            }
+        }
+
+        logger.info("Match benchmark: {} tracks, {} correct ({}%), {} wrong, {} missed, {} failed",
+                rows, correct, percent(correct, rows), wrong, missed, failed);
+        logger.info("Match benchmark: {} search calls, {} per track, {} per matched track, hits by strategy {}",
+                calls, ratio(calls, rows), ratio(calls, matched), hits);
+        return failed > 0 ? 1 : 0;
+    }
+
+    private static String percent(int part, int total) {
+        return total == 0 ? "0" : String.format("%.1f", 100.0 * part / total);
+    }
+
+    private static String ratio(int part, int total) {
+        return total == 0 ? "0" : String.format("%.2f", (double) part / total);
+    }
+}
@@ -0,0 +1,145 @@
+package com.soma.server.service;
+
+import com.soma.server.cache.LocalCacheStore;
+import com.soma.server.cache.PlaylistContentCache;
+import com.soma.server.entity.SpotifyUserDetails;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpEntity;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import se.michaelthelin.spotify.IHttpManager;
+import se.michaelthelin.spotify.SpotifyApi;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PlaylistContentServiceTest {
+
+    private static final Pattern OFFSET = Pattern.compile("offset=(\\d+)");
+
+    private final SpotifyApiCaller spotifyApiCaller = mock(SpotifyApiCaller.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final PlaylistContentService service = new PlaylistContentService(spotifyApiCaller,
+            new PlaylistContentCache(new LocalCacheStore(100), 100, Duration.ofMinutes(10), Duration.ofDays(7)),
+            meterRegistry);
+    private final SpotifyUserDetails details = new SpotifyUserDetails();
+
+    // the playlist as Spotify currently has it, and the paths that were requested
+    private volatile String snapshotId = "s1";
+    private volatile List<String> items = uris(250);
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ReflectionTestUtils.setField(service, "fetchParallelism", 2);
+        service.startPool();
+        when(spotifyApiCaller.execute(any(), any())).thenAnswer(invocation -> invocation
+                .<SpotifyApiCaller.SpotifyCall<?>>getArgument(1)
+                .execute(new SpotifyApi.Builder().setAccessToken("token").setHttpManager(new FakeSpotify()).build()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.stopPool();
+    }
+
+    @Test
+    void readsAllPagesOfAnUnknownPlaylist() throws Exception {
+        assertThat(service.getItemUris(details, "p1")).isEqualTo(items);
+
+        assertThat(requests).containsExactlyInAnyOrder("/v1/playlists/p1", "/v1/playlists/p1/tracks?0",
+                "/v1/playlists/p1/tracks?100", "/v1/playlists/p1/tracks?200");
+        assertThat(meterRegistry.counter("soma.playlists.reads", "outcome", "fetched").count()).isEqualTo(1);
+    }
+
+    @Test
+    void answersAnUnchangedPlaylistFromTheCache() throws Exception {
+        List<String> first = service.getItemUris(details, "p1");
+        requests.clear();
+
+        assertThat(service.getItemUris(details, "p1")).isEqualTo(first);
+        // only the snapshot id was read
+        assertThat(requests).containsExactly("/v1/playlists/p1");
+        assertThat(meterRegistry.counter("soma.playlists.reads", "outcome", "cached").count()).isEqualTo(1);
+    }
+
+    @Test
+    void readsAChangedPlaylistAgain() throws Exception {
+        service.getItemUris(details, "p1");
+        snapshotId = "s2";
+        items = uris(3);
+        requests.clear();
+
+        assertThat(service.getItemUris(details, "p1")).isEqualTo(uris(3));
+        assertThat(requests).containsExactlyInAnyOrder("/v1/playlists/p1", "/v1/playlists/p1/tracks?0");
+        assertThat(service.getItemUris(details, "p1")).isEqualTo(uris(3));
+    }
+
+    @Test
+    void cachesAnEmptyPlaylist() throws Exception {
+        items = List.of();
+
+        assertThat(service.getItemUris(details, "p1")).isEmpty();
+        assertThat(service.getItemUris(details, "p1")).isEmpty();
+        assertThat(requests).containsExactly("/v1/playlists/p1", "/v1/playlists/p1");
+    }
+
+    private static List<String> uris(int count) {
+        List<String> uris = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            uris.add("spotify:track:t" + i);
+        }
+        return uris;
+    }
+
+    /**
+     * Serves the playlist's metadata and its item pages.
+     */
+    private final class FakeSpotify implements IHttpManager {
+
+        @Override
+        public String get(URI uri, Header[] headers) {
+            if (!uri.getPath().endsWith("/tracks")) {
+                requests.add(uri.getPath());
+                return """
+                        {"snapshot_id": "%s", "tracks": {"total": %d}}""".formatted(snapshotId, items.size());
+            }
+            Matcher offset = OFFSET.matcher(uri.getQuery());
+            int from = offset.find() ? Integer.parseInt(offset.group(1)) : 0;
+            requests.add(uri.getPath() + "?" + from);
+            List<String> page = new ArrayList<>();
+            for (String item : items.subList(from, Math.min(from + 100, items.size()))) {
+                page.add("{\"track\": {\"type\": \"track\", \"uri\": \"" + item + "\"}}");
+            }
+            return "{\"items\": [" + String.join(",", page) + "]}";
+        }
+
+        @Override
+        public String post(URI uri, Header[] headers, HttpEntity body) {
+            throw new UnsupportedOperationException(uri.toString());
+        }
+
+        @Override
+        public String put(URI uri, Header[] headers, HttpEntity body) {
+            throw new UnsupportedOperationException(uri.toString());
+        }
+
+        @Override
+        public String delete(URI uri, Header[] headers, HttpEntity body) {
+            throw new UnsupportedOperationException(uri.toString());
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.soma.server.service;
+
+import com.soma.server.repository.TransferSubmissionRepository;
+import com.soma.server.service.SubmissionCoalescer.Outcome;
+import com.soma.server.service.SubmissionCoalescer.Status;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SubmissionCoalescerTest {
+
+    private final Submissions submissions = new Submissions();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SubmissionCoalescer coalescer = new SubmissionCoalescer(submissions, meterRegistry);
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(coalescer, "dedupWindow", Duration.ofMinutes(10));
+        ReflectionTestUtils.setField(coalescer, "idempotencyRetention", Duration.ofHours(24));
+        ReflectionTestUtils.setField(coalescer, "duplicateWait", Duration.ofSeconds(5));
+        ReflectionTestUtils.setField(coalescer, "lease", Duration.ofMinutes(15));
+        ReflectionTestUtils.setField(coalescer, "nodeId", "this-node");
+        coalescer.init();
+    }
+
+    @Test
+    void runsASubmissionOnceAndReplaysItsResult() throws Exception {
+        assertThat(submit(null, " https://music.yandex.ru/album/1 ", "target"))
+                .isEqualTo(new Outcome("done 1", Status.EXECUTED));
+        // the same content, spaces around the parts do not matter
+        assertThat(submit(null, "https://music.yandex.ru/album/1", "target"))
+                .isEqualTo(new Outcome("done 1", Status.REPLAYED));
+        assertThat(submit(null, "https://music.yandex.ru/album/2", "target"))
+                .isEqualTo(new Outcome("done 2", Status.EXECUTED));
+        assertThat(coalescer.submit("OTHER_KIND", "user", null, List.of("https://music.yandex.ru/album/1", "target"),
+                this::transfer)).isEqualTo(new Outcome("done 3", Status.EXECUTED));
+        assertThat(meterRegistry.counter("soma.transfer.submissions", "kind", "PLAYLIST", "outcome", "replayed").count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void identifiesASubmissionByItsIdempotencyKey() throws Exception {
+        assertThat(submit("key-1", "a", "target")).isEqualTo(new Outcome("done 1", Status.EXECUTED));
+        // a retry with the same key is the same submission whatever it contains
+        assertThat(submit("key-1", "b", "target")).isEqualTo(new Outcome("done 1", Status.REPLAYED));
+        // and the key does not stand for the content
+        assertThat(submit(null, "a", "target")).isEqualTo(new Outcome("done 2", Status.EXECUTED));
+    }
+
+    @Test
+    void forgetsASubmissionWhoseTransferFailed() throws Exception {
+        assertThatThrownBy(() -> coalescer.submit("PLAYLIST", "user", null, List.of("a"), () -> {
+            throw new IllegalStateException("Spotify unavailable");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(submit(null, "a")).isEqualTo(new Outcome("done 1", Status.EXECUTED));
+    }
+
+    @Test
+    void joinsTheSameSubmissionRunningOnThisNode() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        CompletableFuture<Outcome> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return coalescer.submit("PLAYLIST", "user", null, List.of("a"), () -> {
+                    started.countDown();
+                    finish.await();
+                    return transfer();
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        CompletableFuture<Outcome> duplicate = CompletableFuture.supplyAsync(() -> {
+            try {
+                return submit(null, "a");
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        finish.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo(new Outcome("done 1", Status.EXECUTED));
+        assertThat(duplicate.get(5, TimeUnit.SECONDS)).isEqualTo(new Outcome("done 1", Status.COALESCED));
+        assertThat(runs).hasValue(1);
+    }
+
+    @Test
+    void waitsForTheSameSubmissionRunningOnAnotherNode() throws Exception {
+        // another node claimed it first, and completes it a moment later
+        submissions.otherNode = true;
+        CompletableFuture.runAsync(submissions::completeElsewhere, CompletableFuture.delayedExecutor(200, TimeUnit.MILLISECONDS));
+
+        assertThat(submit(null, "a")).isEqualTo(new Outcome("elsewhere", Status.REPLAYED));
+        assertThat(runs).hasValue(0);
+    }
+
+    @Test
+    void givesUpWhileTheSubmissionStillRunsElsewhere() throws Exception {
+        ReflectionTestUtils.setField(coalescer, "duplicateWait", Duration.ZERO);
+        submissions.otherNode = true;
+
+        assertThat(submit(null, "a")).isEqualTo(new Outcome(null, Status.IN_PROGRESS));
+        assertThat(runs).hasValue(0);
+    }
+
+    private Outcome submit(String idempotencyKey, String... identity) throws Exception {
+        return coalescer.submit("PLAYLIST", "user", idempotencyKey, List.of(identity), this::transfer);
+    }
+
+    private String transfer() {
+        return "done " + runs.incrementAndGet();
+    }
+
+    /**
+     * {@code transfer_submissions} in memory, without expiry.
+     */
+    private static final class Submissions extends TransferSubmissionRepository {
+
+        private final Map<String, Submission> rows = new ConcurrentHashMap<>();
+        // another node claims every new key just before this one tries
+        private volatile boolean otherNode;
+        private volatile String lastKey;
+
+        Submissions() {
+            super(null);
+        }
+
+        @Override
+        public boolean claim(String key, String kind, String spotifyUserId, String nodeId, Duration lease) {
+            lastKey = key;
+            if (otherNode) {
+                rows.putIfAbsent(key, new Submission(key, RUNNING, null, "other-node"));
+            }
+            return rows.putIfAbsent(key, new Submission(key, RUNNING, null, nodeId)) == null;
+        }
+
+        @Override
+        public Optional<Submission> find(String key) {
+            return Optional.ofNullable(rows.get(key));
+        }
+
+        @Override
+        public boolean complete(String key, String nodeId, String result, Duration retention) {
+            Submission row = rows.get(key);
+            return row != null && row.lockedBy().equals(nodeId) && RUNNING.equals(row.status())
+                    && rows.replace(key, row, new Submission(key, COMPLETED, result, nodeId));
+        }
+
+        @Override
+        public boolean release(String key, String nodeId) {
+            Submission row = rows.get(key);
+            return row != null && row.lockedBy().equals(nodeId) && RUNNING.equals(row.status())
+                    && rows.remove(key, row);
+        }
+
+        void completeElsewhere() {
+            rows.put(lastKey, new Submission(lastKey, COMPLETED, "elsewhere", "other-node"));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.soma.server.service;
+
+import com.soma.server.entity.SpotifyUserDetails;
+import com.soma.server.parser.YmTrack;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import se.michaelthelin.spotify.model_objects.specification.ArtistSimplified;
+import se.michaelthelin.spotify.model_objects.specification.Paging;
+import se.michaelthelin.spotify.model_objects.specification.Track;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the matcher over the labelled tracks of {@code docker/match-benchmark.tsv}, with every search
+ * answered by a canned candidate set: the expected track among other versions of it (karaoke, live,
+ * a cover by someone else) and an unrelated song, listed before it so that only scoring can pick it.
+ */
+class TrackMatcherTest {
+
+    private final SpotifyApiCaller spotifyApiCaller = mock(SpotifyApiCaller.class);
+    private final TrackMatcher trackMatcher = new TrackMatcher(spotifyApiCaller, new SimpleMeterRegistry(), 10, 0.8, 0.55);
+
+    @Test
+    void matchesLabelledTracks() throws Exception {
+        List<String> mistakes = new ArrayList<>();
+        List<LabelledTrack> labelled = LabelledTrack.read(LabelledTrack.DEFAULT_FILE);
+        assertThat(labelled).isNotEmpty();
+
+        for (LabelledTrack label : labelled) {
+            List<Track> candidates = candidates(label);
+            when(spotifyApiCaller.execute(any(), any())).thenReturn(paging(candidates));
+
+            TrackMatcher.Result result = trackMatcher.match(new SpotifyUserDetails(), label.source());
+
+            YmTrack source = label.source();
+            if (!label.matches(result.track())) {
+                mistakes.add(source.artists() + " - " + source.title() + " -> "
+                        + (result.track() == null ? "nothing" : result.track().getUri()));
+            } else if (!label.absent() && result.calls() != 1) {
+                // the expected track is in the first result page, it must be accepted right away
+                mistakes.add(source.artists() + " - " + source.title() + " took " + result.calls() + " searches");
+            }
+        }
+        assertThat(mistakes).isEmpty();
+    }
+
+    @Test
+    void prefersTheOriginalOverOtherVersions() {
+        YmTrack source = new YmTrack(null, "Numb", "Linkin Park", 185586, null);
+
+        double original = TrackMatcher.score(source, track("Numb", 185586, "Linkin Park"));
+        assertThat(original).isGreaterThan(0.95);
+        assertThat(TrackMatcher.score(source, track("Numb - Live", 190000, "Linkin Park"))).isLessThan(0.8);
+        assertThat(TrackMatcher.score(source, track("Numb (Karaoke Version)", 185586, "Karaoke Hits"))).isLessThan(0.55);
+        assertThat(TrackMatcher.score(source, track("Numb", 185586, "Tribute Band"))).isLessThan(0.55);
+    }
+
+    @Test
+    void ignoresCaseDiacriticsAndDecorations() {
+        YmTrack source = new YmTrack(null, "Bohemian Rhapsody (Remastered 2011)", "Queen", 354320, null);
+
+        assertThat(TrackMatcher.score(source, track("Bohemian Rhapsody - Remastered 2011", 354320, "Queen")))
+                .isGreaterThan(0.9);
+        assertThat(TrackMatcher.score(new YmTrack(null, "HALO", "Beyonce", 0, null), track("Halo", 261640, "Beyoncé")))
+                .isGreaterThan(0.99);
+    }
+
+    private static List<Track> candidates(LabelledTrack label) {
+        YmTrack source = label.source();
+        int durationMs = (int) source.durationMs();
+        List<Track> candidates = new ArrayList<>();
+        candidates.add(track("Something Else Entirely", 180000, "Another Artist"));
+        if (label.absent()) {
+            // the same title by an unrelated artist must not pass for the missing track
+            candidates.add(track(source.title(), durationMs, "Tribute Band"));
+            return candidates;
+        }
+        String title = label.expectedTitle();
+        String[] artists = Arrays.stream(source.artists().split(",")).map(String::trim).toArray(String[]::new);
+        artists[0] = label.expectedArtist();
+        candidates.add(track(title + " (Karaoke Version)", durationMs, "Karaoke Hits"));
+        candidates.add(track(title + " - Live", durationMs + 25_000, artists));
+        candidates.add(track(title, durationMs, "Tribute Band"));
+        candidates.add(track(title, durationMs, artists));
+        return candidates;
+    }
+
+    private static Track track(String name, int durationMs, String... artists) {
+        ArtistSimplified[] simplified = Arrays.stream(artists)
+                .map(artist -> new ArtistSimplified.Builder().setName(artist).build())
+                .toArray(ArtistSimplified[]::new);
+        return new Track.Builder()
+                .setName(name)
+                .setArtists(simplified)
+                .setDurationMs(durationMs > 0 ? durationMs : null)
+                .setUri("spotify:track:" + Integer.toHexString((name + String.join(",", artists)).hashCode()))
+                .build();
+    }
+
+    private static Paging<Track> paging(List<Track> items) {
+        return new Paging.Builder<Track>().setItems(items.toArray(Track[]::new)).setTotal(items.size()).build();
+    }
+}
@@ -0,0 +1,156 @@
+package com.soma.server.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.soma.server.repository.TransferResultRepository;
+import com.soma.server.repository.TransferResultRepository.ResultHandler;
+import com.soma.server.repository.TransferResultRepository.TrackResult;
+import com.soma.server.service.TransferResultExporter.Format;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static com.soma.server.repository.TransferResultRepository.FAILED;
+import static com.soma.server.repository.TransferResultRepository.MATCHED;
+import static com.soma.server.repository.TransferResultRepository.NOT_FOUND;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class TransferResultExporterTest {
+
+    private static final UUID JOB_ID = UUID.fromString("5f0c7a52-8a51-4a0b-9d1e-6f3f2c1b0a11");
+
+    private static final List<TrackResult> RESULTS = List.of(
+            new TrackResult(0, 0, "https://music.yandex.ru/users/u/playlists/1", "Road, \"trip\"",
+                    "Artist", "Song", MATCHED, "spotify:track:1", 0.875, false),
+            new TrackResult(0, 300, "https://music.yandex.ru/users/u/playlists/1", "Road, \"trip\"",
+                    "Другой", "Two\nlines", NOT_FOUND, null, Double.NaN, true),
+            new TrackResult(1, 0, "https://music.yandex.ru/album/2", null,
+                    "Band", "Tune", FAILED, null, Double.NaN, false));
+
+    private final TransferResultRepository repository = mock(TransferResultRepository.class);
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final TransferResultExporter exporter = new TransferResultExporter(repository, objectMapper, meterRegistry);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        doAnswer(invocation -> {
+            ResultHandler handler = invocation.getArgument(1);
+            for (TrackResult result : RESULTS) {
+                handler.handle(result);
+            }
+            return null;
+        }).when(repository).forEach(eq(JOB_ID), any());
+    }
+
+    @Test
+    void parsesTheFormatName() {
+        assertThat(Format.of(" NDJSON ")).isEqualTo(Format.NDJSON);
+        assertThat(Format.of("binary").extension()).isEqualTo("bin");
+        assertThatThrownBy(() -> Format.of("xml"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unknown format 'xml'");
+    }
+
+    @Test
+    void quotesCsvFieldsOnlyWhenNeeded() throws Exception {
+        String csv = new String(export(Format.CSV), StandardCharsets.UTF_8);
+
+        assertThat(csv).isEqualTo(
+                "source_index,source_link,playlist_name,position,artists,title,status,spotify_uri,confidence,cached\r\n"
+                        + "0,https://music.yandex.ru/users/u/playlists/1,\"Road, \"\"trip\"\"\",0,Artist,Song,MATCHED,spotify:track:1,0.875,false\r\n"
+                        + "0,https://music.yandex.ru/users/u/playlists/1,\"Road, \"\"trip\"\"\",300,Другой,\"Two\nlines\",NOT_FOUND,,,true\r\n"
+                        + "1,https://music.yandex.ru/album/2,,0,Band,Tune,FAILED,,,false\r\n");
+        assertThat(meterRegistry.counter("soma.export.rows", "format", "csv").count()).isEqualTo(3);
+    }
+
+    @Test
+    void writesOneJsonObjectPerLine() throws Exception {
+        String ndjson = new String(export(Format.NDJSON), StandardCharsets.UTF_8);
+
+        String[] lines = ndjson.split("\n", -1);
+        assertThat(lines).hasSize(4);
+        assertThat(lines[3]).isEmpty();
+        JsonNode first = objectMapper.readTree(lines[0]);
+        assertThat(first.get("playlistName").asText()).isEqualTo("Road, \"trip\"");
+        assertThat(first.get("confidence").asDouble()).isEqualTo(0.875);
+        JsonNode second = objectMapper.readTree(lines[1]);
+        assertThat(second.get("title").asText()).isEqualTo("Two\nlines");
+        assertThat(second.get("spotifyUri").isNull()).isTrue();
+        assertThat(second.get("confidence").isNull()).isTrue();
+        assertThat(second.get("cached").asBoolean()).isTrue();
+        assertThat(objectMapper.readTree(lines[2]).get("playlistName").isNull()).isTrue();
+    }
+
+    @Test
+    void writesBinaryRecordsWithTheSourceOncePerSource() throws Exception {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(export(Format.BINARY)));
+
+        assertThat(in.readNBytes(4)).isEqualTo("SOMR".getBytes(StandardCharsets.US_ASCII));
+        assertThat(in.readByte()).isEqualTo((byte) 1);
+
+        assertThat(in.readByte()).isEqualTo((byte) 1);
+        assertThat(varint(in)).isZero();
+        assertThat(string(in)).isEqualTo("https://music.yandex.ru/users/u/playlists/1");
+        assertThat(string(in)).isEqualTo("Road, \"trip\"");
+        assertTrack(in, 0, 0, false, 0.875f, "Artist", "Song", "spotify:track:1");
+        // the second track of the same source follows without a source record, its position takes two varint bytes
+        assertTrack(in, 300, 1, true, Float.NaN, "Другой", "Two\nlines", null);
+
+        assertThat(in.readByte()).isEqualTo((byte) 1);
+        assertThat(varint(in)).isEqualTo(1);
+        assertThat(string(in)).isEqualTo("https://music.yandex.ru/album/2");
+        assertThat(string(in)).isNull();
+        assertTrack(in, 0, 2, false, Float.NaN, "Band", "Tune", null);
+
+        assertThat(in.readByte()).isZero();
+        assertThat(in.read()).isEqualTo(-1);
+    }
+
+    private byte[] export(Format format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exporter.export(JOB_ID, format, out);
+        return out.toByteArray();
+    }
+
+    private static void assertTrack(DataInputStream in, int position, int status, boolean cached, float confidence,
+                                    String artists, String title, String spotifyUri) throws IOException {
+        assertThat(in.readByte()).isEqualTo((byte) 2);
+        assertThat(varint(in)).isEqualTo(position);
+        assertThat(in.readByte()).isEqualTo((byte) status);
+        assertThat(in.readBoolean()).isEqualTo(cached);
+        assertThat(Float.floatToIntBits(in.readFloat())).isEqualTo(Float.floatToIntBits(confidence));
+        assertThat(string(in)).isEqualTo(artists);
+        assertThat(string(in)).isEqualTo(title);
+        assertThat(string(in)).isEqualTo(spotifyUri);
+    }
+
+    private static int varint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    private static String string(DataInputStream in) throws IOException {
+        int length = varint(in);
+        return length == 0 ? null : new String(in.readNBytes(length - 1), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,202 @@
+package com.soma.server.service;
+
+import com.soma.server.repository.SubscriptionPlanRepository;
+import com.soma.server.repository.SubscriptionPlanRepository.Plan;
+import com.soma.server.repository.TransferQuotaRepository;
+import com.soma.server.service.TransferScheduler.Permit;
+import com.soma.server.service.TransferScheduler.RejectedException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TransferSchedulerTest {
+
+    private static final LocalDate MONTH = LocalDate.now(ZoneOffset.UTC).withDayOfMonth(1);
+
+    private final SubscriptionPlanRepository planRepository = mock(SubscriptionPlanRepository.class);
+    private final TransferQuotaRepository quotaRepository = mock(TransferQuotaRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final TransferScheduler scheduler = new TransferScheduler(planRepository, quotaRepository, meterRegistry);
+
+    // released by the tests to let blocked transfers finish
+    private final CountDownLatch finish = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(scheduler, "workers", 1);
+        ReflectionTestUtils.setField(scheduler, "priorityWeight", 4);
+        ReflectionTestUtils.setField(scheduler, "priorityCapacity", 10);
+        ReflectionTestUtils.setField(scheduler, "standardCapacity", 1);
+        ReflectionTestUtils.setField(scheduler, "priorityMaxPerUser", 3);
+        ReflectionTestUtils.setField(scheduler, "standardMaxPerUser", 1);
+        ReflectionTestUtils.setField(scheduler, "quotaEnabled", true);
+        scheduler.start();
+
+        when(planRepository.findPlan(anyString())).thenReturn(Optional.empty());
+        when(planRepository.findPlan("paying")).thenReturn(Optional.of(new Plan("premium", null, true)));
+        when(planRepository.findPlan("limited")).thenReturn(Optional.of(new Plan("free", 2, false)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        finish.countDown();
+        scheduler.stop();
+    }
+
+    @Test
+    void rejectsOnceTheMonthlyLimitIsReached() throws Exception {
+        when(quotaRepository.findUsage("limited", MONTH)).thenReturn(1);
+
+        assertThat(scheduler.run("limited", () -> "done")).isEqualTo("done");
+
+        assertThatThrownBy(() -> scheduler.run("limited", () -> "done"))
+                .isInstanceOf(RejectedException.class)
+                .hasMessageContaining("Monthly transfer limit of 2 reached")
+                .satisfies(e -> assertThat(((RejectedException) e).getRetryAfter())
+                        .isPositive()
+                        .isLessThanOrEqualTo(Duration.ofDays(31)));
+        assertThat(meterRegistry.counter("soma.scheduler.rejected", "reason", "quota").count()).isEqualTo(1);
+    }
+
+    @Test
+    void refundsATransferThatFailed() throws Exception {
+        when(quotaRepository.findUsage("limited", MONTH)).thenReturn(1);
+
+        assertThatThrownBy(() -> scheduler.run("limited", () -> {
+            throw new IllegalStateException("Spotify unavailable");
+        })).isInstanceOf(IllegalStateException.class);
+
+        // the failed one did not count, the last transfer of the month is still available
+        assertThat(scheduler.run("limited", () -> "done")).isEqualTo("done");
+        scheduler.syncQuotas();
+        verify(quotaRepository).addUsage("limited", MONTH, 1);
+    }
+
+    @Test
+    void refundsAQuotaThatWasAcquiredForQueuedWork() {
+        scheduler.acquireQuota("limited");
+        scheduler.acquireQuota("limited");
+        assertThatThrownBy(() -> scheduler.acquireQuota("limited")).isInstanceOf(RejectedException.class);
+
+        scheduler.refundQuota("limited");
+        scheduler.refundQuota("limited");
+        scheduler.syncQuotas();
+
+        verify(quotaRepository, never()).addUsage(anyString(), any(), anyInt());
+    }
+
+    @Test
+    void refundsInTheDatabaseOnceTheUserWasSynced() {
+        scheduler.acquireQuota("limited");
+        // the first sync saves the transfer, the second one drops the idle user from memory
+        scheduler.syncQuotas();
+        scheduler.syncQuotas();
+        verify(quotaRepository).addUsage("limited", MONTH, 1);
+
+        scheduler.refundQuota("limited");
+
+        verify(quotaRepository).addUsage("limited", MONTH, -1);
+    }
+
+    @Test
+    void limitsTransfersInProgressPerUser() throws Exception {
+        CompletableFuture<String> running = runBlocked("user");
+
+        assertThatThrownBy(() -> scheduler.run("user", () -> "done"))
+                .isInstanceOf(RejectedException.class)
+                .hasMessageContaining("Too many transfers in progress");
+        assertThatThrownBy(() -> scheduler.admit("user")).isInstanceOf(RejectedException.class);
+        // other users are not affected
+        assertThat(scheduler.admit("other")).isNotNull();
+
+        finish.countDown();
+        assertThat(running.get(5, TimeUnit.SECONDS)).isEqualTo("done");
+        // the rejected transfer was refunded, one transfer was counted
+        scheduler.syncQuotas();
+        verify(quotaRepository).addUsage("user", MONTH, 1);
+    }
+
+    @Test
+    void shedsStandardWorkFirstWhenTheQueuesAreFull() throws Exception {
+        // the only worker is busy and the standard queue holds one transfer
+        runBlocked("first");
+        CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> call(() -> scheduler.run("second", () -> "queued")));
+        waitFor(() -> meterRegistry.get("soma.scheduler.queued").tag("queue", "standard").gauge().value() == 1);
+
+        assertThatThrownBy(() -> scheduler.run("third", () -> "done"))
+                .isInstanceOf(RejectedException.class)
+                .hasMessageContaining("Too many transfers queued");
+        CompletableFuture<String> priority = CompletableFuture.supplyAsync(() -> call(() -> scheduler.run("paying", () -> "priority")));
+        waitFor(() -> meterRegistry.get("soma.scheduler.queued").tag("queue", "priority").gauge().value() == 1);
+
+        finish.countDown();
+        assertThat(priority.get(5, TimeUnit.SECONDS)).isEqualTo("priority");
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("queued");
+    }
+
+    @Test
+    void permitsHoldASlotUntilClosed() {
+        Permit permit = scheduler.admit("user");
+        assertThatThrownBy(() -> scheduler.admit("user")).isInstanceOf(RejectedException.class);
+
+        permit.close();
+        Permit next = scheduler.admit("user");
+        // closing twice must not release the slot of the next permit
+        permit.close();
+        assertThatThrownBy(() -> scheduler.admit("user")).isInstanceOf(RejectedException.class);
+        next.close();
+
+        // admitted work does not count against the monthly quota
+        scheduler.syncQuotas();
+        verify(quotaRepository, never()).addUsage(anyString(), any(), anyInt());
+    }
+
+    private CompletableFuture<String> runBlocked(String spotifyUserId) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<String> result = CompletableFuture.supplyAsync(() -> call(() -> scheduler.run(spotifyUserId, () -> {
+            started.countDown();
+            finish.await();
+            return "done";
+        })));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        return result;
+    }
+
+    private static <T> T call(Callable<T> callable) {
+        try {
+            return callable.call();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+}
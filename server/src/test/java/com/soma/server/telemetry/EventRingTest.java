@@ -0,0 +1,116 @@
+package com.soma.server.telemetry;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventRingTest {
+
+    @Test
+    void roundsTheCapacityUpToAPowerOfTwo() {
+        assertThat(new EventRing(1000).capacity()).isEqualTo(1024);
+        assertThat(new EventRing(1024).capacity()).isEqualTo(1024);
+        assertThat(new EventRing(1).capacity()).isEqualTo(2);
+    }
+
+    @Test
+    void drainsInOrderAndRefusesEventsWhenFull() {
+        EventRing ring = new EventRing(4);
+        for (int i = 0; i < 4; i++) {
+            assertThat(publish(ring, i)).isTrue();
+        }
+        assertThat(publish(ring, 4)).isFalse();
+        assertThat(ring.size()).isEqualTo(4);
+
+        List<Integer> drained = new ArrayList<>();
+        assertThat(ring.drain(event -> drained.add(event.status), 2)).isEqualTo(2);
+        // the drained slots are free for the next lap
+        assertThat(publish(ring, 4)).isTrue();
+        assertThat(publish(ring, 5)).isTrue();
+        assertThat(publish(ring, 6)).isFalse();
+        assertThat(ring.drain(event -> drained.add(event.status), 100)).isEqualTo(4);
+
+        assertThat(drained).containsExactly(0, 1, 2, 3, 4, 5);
+        assertThat(ring.size()).isZero();
+    }
+
+    @Test
+    void stopsAtASlotThatIsClaimedButNotPublished() {
+        EventRing ring = new EventRing(4);
+        long first = ring.claim();
+        long second = ring.claim();
+        ring.slot(second).status = 2;
+        ring.publish(second);
+
+        List<Integer> drained = new ArrayList<>();
+        assertThat(ring.drain(event -> drained.add(event.status), 10)).isZero();
+
+        ring.slot(first).status = 1;
+        ring.publish(first);
+        assertThat(ring.drain(event -> drained.add(event.status), 10)).isEqualTo(2);
+        assertThat(drained).containsExactly(1, 2);
+    }
+
+    @Test
+    void losesNoEventOfConcurrentPublishers() throws Exception {
+        int publishers = 4;
+        int events = 20_000;
+        EventRing ring = new EventRing(256);
+        ExecutorService pool = Executors.newFixedThreadPool(publishers);
+        try {
+            List<CompletableFuture<Void>> running = new ArrayList<>();
+            for (int p = 0; p < publishers; p++) {
+                int publisher = p;
+                running.add(CompletableFuture.runAsync(() -> {
+                    for (int i = 0; i < events; i++) {
+                        // a full ring refuses, this publisher tries again until the drainer caught up
+                        long position;
+                        while ((position = ring.claim()) < 0) {
+                            Thread.yield();
+                        }
+                        TelemetryEvent event = ring.slot(position);
+                        event.latencyMillis = publisher;
+                        event.status = i;
+                        ring.publish(position);
+                    }
+                }, pool));
+            }
+
+            // every publisher's events arrive once and in its order
+            int[] next = new int[publishers];
+            int[] outOfOrder = new int[1];
+            long drained = 0;
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (drained < (long) publishers * events && System.nanoTime() < deadline) {
+                drained += ring.drain(event -> {
+                    if (event.status != next[event.latencyMillis]++) {
+                        outOfOrder[0]++;
+                    }
+                }, 64);
+            }
+            CompletableFuture.allOf(running.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+            assertThat(drained).isEqualTo((long) publishers * events);
+            assertThat(next).containsOnly(events);
+            assertThat(outOfOrder[0]).isZero();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static boolean publish(EventRing ring, int status) {
+        long position = ring.claim();
+        if (position < 0) {
+            return false;
+        }
+        ring.slot(position).status = status;
+        ring.publish(position);
+        return true;
+    }
+}